@@ -2,12 +2,16 @@ package com.example.documentsearch;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
 
 @SpringBootApplication
 public class DocumentSearchApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(DocumentSearchApplication.class, args);
+		SpringApplication application = new SpringApplication(DocumentSearchApplication.class);
+		// Passi di avvio (creazione dei bean, refresh del contesto) consultabili su /actuator/startup
+		application.setApplicationStartup(new BufferingApplicationStartup(4096));
+		application.run(args);
 	}
 
 }
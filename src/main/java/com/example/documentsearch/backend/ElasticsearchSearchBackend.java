@@ -0,0 +1,656 @@
+package com.example.documentsearch.backend;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
+import co.elastic.clients.elasticsearch._types.aggregations.CalendarInterval;
+import co.elastic.clients.elasticsearch._types.aggregations.DateHistogramBucket;
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.util.NamedValue;
+import com.example.documentsearch.dto.FacetBucketDto;
+import com.example.documentsearch.dto.SearchFilters;
+import com.example.documentsearch.model.SearchDocument;
+import com.example.documentsearch.service.ChunkContentStore;
+import com.example.documentsearch.service.ChunkIndexer;
+import com.example.documentsearch.service.ElasticsearchCircuitBreaker;
+import com.example.documentsearch.service.EmbeddingService;
+import com.example.documentsearch.service.IndexManager;
+import com.example.documentsearch.service.SnippetHighlighter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.json.stream.JsonGenerator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.data.elasticsearch.core.query.HighlightQuery;
+import org.springframework.data.elasticsearch.core.query.highlight.Highlight;
+import org.springframework.data.elasticsearch.core.query.highlight.HighlightField;
+import org.springframework.data.elasticsearch.core.query.highlight.HighlightFieldParameters;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.example.documentsearch.service.SearchService.FACET_AUTHOR;
+import static com.example.documentsearch.service.SearchService.FACET_CONTENT_TYPE;
+import static com.example.documentsearch.service.SearchService.FACET_CREATION_DATE;
+import static com.example.documentsearch.service.SearchService.FACET_UPLOADED_AT;
+
+/**
+ * Backend predefinito: Elasticsearch dietro gli alias gestiti da {@link IndexManager}.
+ *
+ * Le scritture passano dal {@link ChunkIndexer} (concorrenza adattiva, retry e spool), le letture
+ * usano il read alias. Supporta filtri, facet, ricerca ibrida e il {@link ChunkContentStore}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = SearchBackend.PROPERTY, havingValue = SearchBackend.ELASTICSEARCH, matchIfMissing = true)
+public class ElasticsearchSearchBackend implements SearchBackend {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS");
+    private static final String FACET_DOCUMENTS = "documents";
+    private static final int FACET_SIZE = 20;
+    private static final int FRAGMENT_SIZE = 150;
+    private static final int MAX_FRAGMENTS = 3;
+    private static final String[] LARGE_FIELDS = {"content", "contentVector"};
+
+    private final ElasticsearchOperations elastic;
+    private final ElasticsearchClient client;
+    private final ObjectMapper objectMapper;
+    private final ChunkIndexer chunkIndexer;
+    private final ElasticsearchCircuitBreaker circuitBreaker;
+    private final IndexManager indexManager;
+    private final ChunkContentStore contentStore;
+    private final EmbeddingService embeddings;
+
+    @Value("${search.hybrid.rank-constant:60}")
+    private int rrfRankConstant;
+
+    @Value("${search.budget.terminate-after:0}")
+    private long terminateAfter; // Chunk raccolti per shard oltre i quali la ricerca si ferma (0 = nessun limite)
+
+    @Value("${search.partition-pruning:true}")
+    private boolean partitionPruning;
+
+    @Override
+    public String name() {
+        return ELASTICSEARCH;
+    }
+
+    /**
+     * I filtri sono applicati in filter context: non influenzano lo score e sono cacheabili.
+     * Con hybrid=true i risultati BM25 vengono fusi con una ricerca kNN sugli embedding (RRF).
+     *
+     * Il time budget è applicato dal cluster (timeout e, se configurato, terminate_after): allo scadere
+     * Elasticsearch restituisce quanto raccolto fino a quel momento e la risposta è marcata come parziale.
+     * Si usa il client Java direttamente perché Spring Data non espone timed_out né terminate_after.
+     * Con hybrid=true il budget è unico: la ricerca kNN riceve solo il tempo lasciato dalla ricerca lessicale
+     * (embedding della query compreso) e, se non ne resta, la risposta è solo lessicale e marcata come parziale.
+     *
+     * Con un filtro su uploadedAt e gli indici partizionati dal rollover, la fase di pre-filter (can_match)
+     * salta gli shard delle partizioni il cui intervallo di uploadedAt non interseca il filtro.
+     *
+     * Query, fetch e highlight avvengono nel cluster: la fase "query" è il round trip, "cluster" il took riportato
+     * da Elasticsearch. Con profile=true la risposta include il profilo del cluster (query e fetch per shard).
+     */
+    @Override
+    public ChunkHits search(String query, int maxHits, SearchFilters filters, boolean withFacets, boolean hybrid,
+                            Duration timeout, SearchTrace trace) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        List<Query> filterClauses = buildFilterClauses(filters);
+
+        SearchResponse<ObjectNode> response;
+        try (SearchTrace.Phase phase = trace.phase("query")) {
+            response = client.search(s -> {
+                s.index(indexManager.readAlias())
+                        .query(q -> q
+                                .bool(b -> b
+                                        .must(m -> m
+                                                .match(mt -> mt
+                                                        .field("content")
+                                                        .query(query)
+                                                )
+                                        )
+                                        .filter(filterClauses)
+                                )
+                        )
+                        .source(src -> src.filter(f -> f.excludes(List.of(LARGE_FIELDS)))) // Il testo serve solo per gli highlight
+                        .size(maxHits)
+                        .timeout(timeout.toMillis() + "ms");
+                if (terminateAfter > 0) {
+                    s.terminateAfter(terminateAfter);
+                }
+                if (partitionPruning && filters != null
+                        && (filters.getUploadedFrom() != null || filters.getUploadedTo() != null)) {
+                    // Di default il pre-filter scatta solo oltre 128 shard: con le partizioni conviene sempre
+                    s.preFilterShardSize(1L);
+                }
+                // Con il content store il testo non è nel _source: gli snippet si calcolano in locale
+                if (!contentStore.isEnabled()) {
+                    s.highlight(h -> h
+                            .preTags("<mark>")
+                            .postTags("</mark>")
+                            .fields("content", f -> f
+                                    .fragmentSize(FRAGMENT_SIZE) // Limita la dimensione dei frammenti
+                                    .numberOfFragments(MAX_FRAGMENTS))); // Max 3 frammenti per risultato
+                }
+                if (withFacets) {
+                    s.aggregations(buildFacetAggregations());
+                }
+                if (trace.isProfile()) {
+                    s.profile(true);
+                }
+                return s;
+            }, ObjectNode.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ricerca su Elasticsearch fallita: " + e.getMessage(), e);
+        }
+        trace.record("cluster", Duration.ofMillis(response.took()));
+        if (trace.isProfile() && response.profile() != null) {
+            trace.setProfileResult(profileJson(response));
+        }
+
+        if (response.shards().skipped() != null && response.shards().skipped().intValue() > 0) {
+            log.debug("🗂️ {} shard su {} saltati dal pre-filter su uploadedAt",
+                    response.shards().skipped(), response.shards().total());
+        }
+        boolean partial = response.timedOut()
+                || Boolean.TRUE.equals(response.terminatedEarly())
+                || response.shards().failed().intValue() > 0;
+
+        List<RankedHit> rankedHits = new ArrayList<>();
+        for (Hit<ObjectNode> hit : response.hits().hits()) {
+            SearchDocument doc = objectMapper.convertValue(hit.source(), SearchDocument.class);
+            doc.setId(hit.id());
+            rankedHits.add(new RankedHit(hit.id(), doc, hit.highlight().get("content"),
+                    hit.score() != null ? hit.score() : 0));
+        }
+        if (hybrid && embeddings.isEnabled()) {
+            try (SearchTrace.Phase phase = trace.phase("knn")) {
+                List<RankedHit> semantic = vectorSearch(query, filterClauses, maxHits, deadline);
+                if (semantic != null) {
+                    rankedHits = reciprocalRankFusion(rankedHits, semantic);
+                } else {
+                    log.debug("⏱️ Time budget esaurito prima della ricerca kNN: risultati solo lessicali");
+                    partial = true;
+                }
+            }
+        }
+
+        List<ChunkHit> hits = new ArrayList<>(rankedHits.size());
+        try (SearchTrace.Phase phase = trace.phase("highlight")) { // Solo snippet locali: quelli del cluster sono in "query"
+            long localBytes = 0;
+            for (RankedHit ranked : rankedHits) {
+                List<String> highlights = contentStore.isEnabled()
+                        ? localHighlights(ranked.document(), query)
+                        : ranked.highlights();
+                if (contentStore.isEnabled()) {
+                    localBytes += utf8Bytes(highlights);
+                }
+                hits.add(new ChunkHit(ranked.document(), ranked.score(), highlights));
+            }
+            contentStore.recordServed("search", localBytes);
+        }
+
+        Map<String, List<FacetBucketDto>> facets = withFacets
+                ? readFacets(response.aggregations())
+                : null;
+
+        long totalHits = response.hits().total() != null ? response.hits().total().value() : hits.size();
+        return new ChunkHits(hits, totalHits, facets, partial);
+    }
+
+    /**
+     * Profilo del cluster come JSON (stessa forma di "profile" nella risposta REST di Elasticsearch)
+     */
+    private Object profileJson(SearchResponse<?> response) {
+        JsonpMapper mapper = client._jsonpMapper();
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(json)) {
+            response.profile().serialize(generator, mapper);
+        }
+        try {
+            return objectMapper.readTree(json.toString());
+        } catch (IOException e) {
+            log.warn("⚠️ Profilo della query non leggibile: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private record RankedHit(String id, SearchDocument document, List<String> highlights, double score) {
+    }
+
+    /**
+     * Ricerca kNN sugli embedding dei chunk, con gli stessi filtri della ricerca lessicale e il timeout
+     * che resta fino alla scadenza del budget
+     *
+     * @return i chunk trovati, o null se il budget è scaduto prima della ricerca
+     */
+    private List<RankedHit> vectorSearch(String query, List<Query> filterClauses, int k, long deadline) {
+        float[] vector = embeddings.embedQuery(query);
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMillis <= 0) {
+            return null;
+        }
+        List<Float> queryVector = new ArrayList<>(vector.length);
+        for (float v : vector) {
+            queryVector.add(v);
+        }
+        NativeQuery knnQuery = NativeQuery.builder()
+                .withQuery(q -> q.knn(kn -> kn
+                        .field("contentVector")
+                        .queryVector(queryVector)
+                        .filter(filterClauses)))
+                .withSourceFilter(new FetchSourceFilter(null, LARGE_FIELDS))
+                .withMaxResults(k)
+                .withTimeout(Duration.ofMillis(remainingMillis))
+                .build();
+        return elastic.search(knnQuery, SearchDocument.class, readIndex()).getSearchHits().stream()
+                .map(hit -> new RankedHit(hit.getId(), hit.getContent(), null, hit.getScore()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Reciprocal Rank Fusion: ogni chunk riceve la somma di 1/(k + posizione) nelle due classifiche.
+     * Non richiede di normalizzare score BM25 e similarità coseno, che hanno scale diverse.
+     * Per i chunk presenti in entrambe si tiene l'hit lessicale (con gli highlight).
+     */
+    private List<RankedHit> reciprocalRankFusion(List<RankedHit> lexical, List<RankedHit> semantic) {
+        Map<String, RankedHit> hits = new LinkedHashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        for (List<RankedHit> ranking : List.of(lexical, semantic)) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                RankedHit hit = ranking.get(rank);
+                hits.putIfAbsent(hit.id(), hit);
+                scores.merge(hit.id(), 1.0 / (rrfRankConstant + rank + 1), Double::sum);
+            }
+        }
+        return hits.entrySet().stream()
+                .map(e -> new RankedHit(e.getKey(), e.getValue().document(), e.getValue().highlights(),
+                        scores.get(e.getKey())))
+                .sorted(Comparator.comparingDouble(RankedHit::score).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Snippet calcolati sul testo letto dal content store (memory-mapped, nessun trasferimento da Elasticsearch)
+     */
+    private List<String> localHighlights(SearchDocument doc, String query) {
+        return contentStore.get(doc.getDocumentId(), doc.getChunkIndex())
+                .map(text -> SnippetHighlighter.highlight(text, query, FRAGMENT_SIZE, MAX_FRAGMENTS))
+                .orElse(List.of());
+    }
+
+    private static long utf8Bytes(String text) {
+        return text == null ? 0 : text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static long utf8Bytes(List<String> fragments) {
+        return fragments == null ? 0 : fragments.stream().mapToLong(ElasticsearchSearchBackend::utf8Bytes).sum();
+    }
+
+    /**
+     * Costruisce le clausole di filtro (term/terms/range) a partire dai filtri richiesti
+     */
+    private List<Query> buildFilterClauses(SearchFilters filters) {
+        List<Query> clauses = new ArrayList<>();
+        if (filters == null || filters.isEmpty()) {
+            return clauses;
+        }
+
+        if (filters.getContentTypes() != null && !filters.getContentTypes().isEmpty()) {
+            clauses.add(termsQuery("contentType", filters.getContentTypes()));
+        }
+        if (filters.getAuthors() != null && !filters.getAuthors().isEmpty()) {
+            clauses.add(termsQuery("author.keyword", filters.getAuthors()));
+        }
+        if (Boolean.TRUE.equals(filters.getExcludeDuplicates())) {
+            clauses.add(Query.of(q -> q.bool(b -> b.mustNot(mn -> mn.exists(e -> e.field("duplicateOf"))))));
+        }
+        if (filters.getUploadedFrom() != null || filters.getUploadedTo() != null) {
+            clauses.add(Query.of(q -> q.range(r -> {
+                r.field("uploadedAt");
+                if (filters.getUploadedFrom() != null) {
+                    r.gte(JsonData.of(DATE_FORMAT.format(filters.getUploadedFrom())));
+                }
+                if (filters.getUploadedTo() != null) {
+                    r.lte(JsonData.of(DATE_FORMAT.format(filters.getUploadedTo())));
+                }
+                return r;
+            })));
+        }
+        if (filters.getMinPageCount() != null || filters.getMaxPageCount() != null) {
+            clauses.add(Query.of(q -> q.range(r -> {
+                r.field("pageCount");
+                if (filters.getMinPageCount() != null) {
+                    r.gte(JsonData.of(filters.getMinPageCount()));
+                }
+                if (filters.getMaxPageCount() != null) {
+                    r.lte(JsonData.of(filters.getMaxPageCount()));
+                }
+                return r;
+            })));
+        }
+        return clauses;
+    }
+
+    private Query termsQuery(String field, List<String> values) {
+        List<FieldValue> fieldValues = values.stream().map(FieldValue::of).collect(Collectors.toList());
+        return Query.of(q -> q.terms(t -> t.field(field).terms(tv -> tv.value(fieldValues))));
+    }
+
+    /**
+     * Aggregazioni per i facet. Ogni bucket conta i documenti distinti (cardinality su documentId),
+     * non i singoli chunk, così un PDF da 500 chunk pesa come un file da 1 chunk.
+     * Anche l'ordine dei bucket terms segue i documenti distinti: con l'ordine di default (_count, i chunk)
+     * il taglio a FACET_SIZE premierebbe i valori con documenti lunghi.
+     */
+    private Map<String, Aggregation> buildFacetAggregations() {
+        Map<String, Aggregation> aggregations = new LinkedHashMap<>();
+        aggregations.put(FACET_CONTENT_TYPE, Aggregation.of(a -> a
+                .terms(t -> t.field("contentType").size(FACET_SIZE).order(byDistinctDocuments()))
+                .aggregations(FACET_DOCUMENTS, distinctDocuments())));
+        aggregations.put(FACET_AUTHOR, Aggregation.of(a -> a
+                .terms(t -> t.field("author.keyword").size(FACET_SIZE).order(byDistinctDocuments()))
+                .aggregations(FACET_DOCUMENTS, distinctDocuments())));
+        aggregations.put(FACET_UPLOADED_AT, Aggregation.of(a -> a
+                .dateHistogram(d -> d.field("uploadedAt")
+                        .calendarInterval(CalendarInterval.Month)
+                        .format("yyyy-MM")
+                        .minDocCount(1))
+                .aggregations(FACET_DOCUMENTS, distinctDocuments())));
+        aggregations.put(FACET_CREATION_DATE, Aggregation.of(a -> a
+                .dateHistogram(d -> d.field("creationDate")
+                        .calendarInterval(CalendarInterval.Year)
+                        .format("yyyy")
+                        .minDocCount(1))
+                .aggregations(FACET_DOCUMENTS, distinctDocuments())));
+        return aggregations;
+    }
+
+    private Aggregation distinctDocuments() {
+        return Aggregation.of(a -> a.cardinality(c -> c.field("documentId")));
+    }
+
+    private static NamedValue<SortOrder> byDistinctDocuments() {
+        return NamedValue.of(FACET_DOCUMENTS, SortOrder.Desc);
+    }
+
+    /**
+     * Converte le aggregazioni di Elasticsearch nei bucket dei facet
+     */
+    private Map<String, List<FacetBucketDto>> readFacets(Map<String, Aggregate> aggregations) {
+        Map<String, List<FacetBucketDto>> facets = new LinkedHashMap<>();
+        aggregations.forEach((name, aggregate) -> {
+            List<FacetBucketDto> buckets = new ArrayList<>();
+
+            if (aggregate.isSterms()) {
+                for (StringTermsBucket bucket : aggregate.sterms().buckets().array()) {
+                    buckets.add(new FacetBucketDto(bucket.key().stringValue(),
+                            bucket.aggregations().get(FACET_DOCUMENTS).cardinality().value()));
+                }
+            } else if (aggregate.isDateHistogram()) {
+                for (DateHistogramBucket bucket : aggregate.dateHistogram().buckets().array()) {
+                    buckets.add(new FacetBucketDto(bucket.keyAsString(),
+                            bucket.aggregations().get(FACET_DOCUMENTS).cardinality().value()));
+                }
+            }
+
+            facets.put(name, buckets);
+        });
+        return facets;
+    }
+
+    /**
+     * Con il content store il testo dei chunk viene letto in locale invece che dal _source
+     * (e non ci sono highlight, come nella ricerca normale).
+     */
+    @Override
+    public List<ChunkHit> searchRaw(String query) {
+        HighlightFieldParameters highlightParameters = HighlightFieldParameters.builder()
+                .withPreTags(new String[]{"<mark>"})
+                .withPostTags(new String[]{"</mark>"})
+                .build();
+
+        HighlightField highlightField = new HighlightField("content", highlightParameters);
+        Highlight highlight = new Highlight(List.of(highlightField));
+        HighlightQuery highlightQuery = new HighlightQuery(highlight, null);
+
+        NativeQueryBuilder queryBuilder = NativeQuery.builder()
+                .withQuery(q -> q
+                        .match(m -> m
+                                .field("content")
+                                .query(query)
+                        )
+                )
+                .withSourceFilter(new FetchSourceFilter(null, new String[]{"contentVector"}));
+        if (!contentStore.isEnabled()) {
+            queryBuilder.withHighlightQuery(highlightQuery);
+        }
+
+        SearchHits<SearchDocument> searchHits = elastic.search(queryBuilder.build(), SearchDocument.class,
+                readIndex());
+        List<ChunkHit> hits = new ArrayList<>(searchHits.getSearchHits().size());
+        long localBytes = 0;
+        for (SearchHit<SearchDocument> hit : searchHits.getSearchHits()) {
+            SearchDocument doc = hit.getContent();
+            if (contentStore.isEnabled()) {
+                doc.setContent(contentStore.get(doc.getDocumentId(), doc.getChunkIndex()).orElse(null));
+                localBytes += utf8Bytes(doc.getContent());
+            }
+            hits.add(new ChunkHit(doc, hit.getScore(), hit.getHighlightField("content")));
+        }
+        contentStore.recordServed("raw", localBytes);
+        return hits;
+    }
+
+    /**
+     * Filename e checksum dei chunk indicizzati (SearchService li rende univoci)
+     */
+    @Override
+    public List<SearchDocument> indexedFiles() {
+        NativeQuery nativeQuery = NativeQuery.builder()
+                .withQuery(q -> q.matchAll(m -> m))
+                .withFields("filename", "fileChecksum")
+                .withMaxResults(10000)
+                .build();
+
+        return elastic.search(nativeQuery, SearchDocument.class, readIndex()).getSearchHits().stream()
+                .map(SearchHit::getContent)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Verifica se esiste già un documento completo con lo stesso filename e checksum.
+     * Considera solo il chunk 0 (scritto per ultimo), così un'indicizzazione parziale
+     * interrotta da un crash non viene scambiata per un documento già presente.
+     * Cerca su entrambi gli alias: durante la migrazione dell'indice storico il nuovo indice riceve le
+     * scritture ma non è ancora dietro il read alias.
+     * Con Elasticsearch giù, o con batch ancora nello spool, l'indice non sa quali documenti esistono:
+     * invece di rispondere false (e indicizzare di nuovo un file già accodato) chiede di riprovare.
+     */
+    @Override
+    public boolean documentExists(String filename, String checksum) {
+        if (!indexManager.isReady() || circuitBreaker.getState() != ElasticsearchCircuitBreaker.State.CLOSED
+                || chunkIndexer.hasSpooledBatches()) {
+            throw duplicateCheckUnavailable(filename);
+        }
+
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(q -> q
+                        .bool(b -> b
+                                .must(m -> m.term(t -> t.field("filename.keyword").value(filename)))
+                                .must(m -> m.term(t -> t.field("fileChecksum").value(checksum)))
+                                .filter(f -> f.term(t -> t.field("chunkIndex").value(0)))
+                        )
+                )
+                .withRoute(routing(checksum))
+                .withMaxResults(1)
+                .build();
+
+        try {
+            SearchHits<?> hits = elastic.search(query, SearchDocument.class,
+                    IndexCoordinates.of(indexManager.readAlias(), indexManager.writeAlias()));
+            return hits.getTotalHits() > 0;
+        } catch (RuntimeException e) {
+            if (!ElasticsearchCircuitBreaker.isUnavailable(e)) {
+                throw e;
+            }
+            circuitBreaker.onFailure();
+            throw duplicateCheckUnavailable(filename);
+        }
+    }
+
+    /**
+     * Le ricerche passano sempre dal read alias: senza coordinate esplicite Spring Data userebbe il nome fisso
+     * di @Document, che non segue document.index.name
+     */
+    private IndexCoordinates readIndex() {
+        return IndexCoordinates.of(indexManager.readAlias());
+    }
+
+    private DuplicateCheckUnavailableException duplicateCheckUnavailable(String filename) {
+        log.warn("⚠️ Elasticsearch non disponibile o spool non vuoto: controllo duplicati rimandato per {}",
+                filename);
+        return new DuplicateCheckUnavailableException(filename, circuitBreaker.getOpenDuration());
+    }
+    
+    /**
+     * Chunk vicini a un risultato, letti dal solo shard del documento (routing per checksum).
+     * Con il content store il testo viene letto in locale.
+     */
+    @Override
+    public List<SearchDocument> documentChunks(String documentId, String fileChecksum, int from, int size) {
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(q -> q.bool(b -> b
+                        .filter(f -> f.term(t -> t.field("documentId").value(documentId)))
+                        .filter(f -> f.range(r -> r
+                                .field("chunkIndex")
+                                .gte(JsonData.of(from))
+                                .lt(JsonData.of(from + size))))))
+                .withRoute(routing(fileChecksum))
+                .withSort(Sort.by("chunkIndex"))
+                .withSourceFilter(new FetchSourceFilter(null, new String[]{"contentVector"}))
+                .withMaxResults(size)
+                .build();
+
+        List<SearchDocument> chunks = elastic.search(query, SearchDocument.class, readIndex()).getSearchHits().stream()
+                .map(SearchHit::getContent)
+                .collect(Collectors.toList());
+        if (contentStore.isEnabled()) {
+            chunks.forEach(doc -> doc.setContent(contentStore.get(doc.getDocumentId(), doc.getChunkIndex()).orElse(null)));
+            contentStore.recordServed("chunks", chunks.stream().mapToLong(doc -> utf8Bytes(doc.getContent())).sum());
+        }
+        return chunks;
+    }
+
+    /**
+     * Shard interrogati e latenza del controllo duplicati con e senza routing per checksum, su un campione
+     * di documenti indicizzati
+     */
+    public Map<String, Object> routingBenchmark(int samples) throws IOException {
+        SearchResponse<SearchDocument> sample = client.search(s -> s
+                .index(indexManager.readAlias())
+                .query(q -> q.term(t -> t.field("chunkIndex").value(0)))
+                .source(src -> src.filter(f -> f.includes("filename", "fileChecksum")))
+                .size(samples), SearchDocument.class);
+
+        long[] shards = new long[2];
+        long[] tookMillis = new long[2];
+        int measured = 0;
+        for (Hit<SearchDocument> hit : sample.hits().hits()) {
+            SearchDocument doc = hit.source();
+            if (doc == null || doc.getFileChecksum() == null) {
+                continue;
+            }
+            for (int routed = 0; routed < 2; routed++) {
+                String route = routed == 1 ? doc.getFileChecksum() : null;
+                SearchResponse<Void> response = client.search(s -> s
+                        .index(indexManager.readAlias())
+                        .routing(route)
+                        .size(0)
+                        .query(q -> q.bool(b -> b
+                                .filter(f -> f.term(t -> t.field("filename.keyword").value(doc.getFilename())))
+                                .filter(f -> f.term(t -> t.field("fileChecksum").value(doc.getFileChecksum())))
+                                .filter(f -> f.term(t -> t.field("chunkIndex").value(0))))), Void.class);
+                shards[routed] += response.shards().total().longValue();
+                tookMillis[routed] += response.took();
+            }
+            measured++;
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("samples", measured);
+        result.put("checksumRouting", indexManager.isChecksumRouting());
+        result.put("avgShardsWithoutRouting", measured == 0 ? 0 : (double) shards[0] / measured);
+        result.put("avgShardsWithRouting", measured == 0 ? 0 : (double) shards[1] / measured);
+        result.put("avgTookMillisWithoutRouting", measured == 0 ? 0 : (double) tookMillis[0] / measured);
+        result.put("avgTookMillisWithRouting", measured == 0 ? 0 : (double) tookMillis[1] / measured);
+        return result;
+    }
+
+    /**
+     * Routing per le letture di un documento: solo se tutti gli indici dietro gli alias sono instradati per checksum
+     */
+    private String routing(String checksum) {
+        return checksum != null && indexManager.isChecksumRouting() ? checksum : null;
+    }
+
+    /**
+     * Scrittura tramite ChunkIndexer: limite di concorrenza adattivo, retry su 429 e spool se il cluster è giù
+     */
+    @Override
+    public CompletableFuture<Void> submit(List<SearchDocument> batch) throws IOException, InterruptedException {
+        return chunkIndexer.submit(batch);
+    }
+
+    @Override
+    public SearchDocument save(SearchDocument doc) throws IOException, InterruptedException {
+        return chunkIndexer.save(doc);
+    }
+
+    /**
+     * Elimina i chunk da entrambi gli alias (durante una reindicizzazione il documento può stare
+     * in due indici) e il relativo testo dal content store. Con il checksum la delete-by-query
+     * tocca solo lo shard del documento in ogni indice.
+     */
+    @Override
+    public void deleteDocument(String documentId, String fileChecksum) throws IOException {
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(q -> q.term(t -> t.field("documentId").value(documentId)))
+                .withRoute(routing(fileChecksum))
+                .build();
+        elastic.delete(query, SearchDocument.class,
+                IndexCoordinates.of(indexManager.readAlias(), indexManager.writeAlias()));
+        try {
+            contentStore.delete(documentId);
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile eliminare il testo del documento {} dal content store: {}", documentId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,758 @@
+package com.example.documentsearch.backend;
+
+import com.example.documentsearch.dto.FacetBucketDto;
+import com.example.documentsearch.dto.SearchFilters;
+import com.example.documentsearch.model.SearchDocument;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.QueryTimeoutImpl;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.FieldExistsQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.uhighlight.LengthGoalBreakIterator;
+import org.apache.lucene.search.uhighlight.Passage;
+import org.apache.lucene.search.uhighlight.PassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.QueryBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.BreakIterator;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.example.documentsearch.service.SearchService.FACET_AUTHOR;
+import static com.example.documentsearch.service.SearchService.FACET_CONTENT_TYPE;
+import static com.example.documentsearch.service.SearchService.FACET_CREATION_DATE;
+import static com.example.documentsearch.service.SearchService.FACET_UPLOADED_AT;
+
+/**
+ * Backend embedded per installazioni a nodo singolo: indice Lucene nel processo, senza cluster esterno
+ * né hop di rete.
+ *
+ * L'indice sta in una {@link MMapDirectory} (search.lucene.directory) e le letture usano reader
+ * near-real-time aperti dall'IndexWriter tramite {@link SearcherManager}: un chunk è ricercabile subito
+ * dopo la scrittura. I commit (fsync) sono raggruppati: un thread dedicato committa ogni
+ * search.lucene.commit-interval tutte le scritture arrivate nel frattempo, e il future di un batch si completa
+ * solo dopo il commit che lo contiene, così il journal di ingestion resta coerente anche dopo un crash.
+ * Con commit-interval=0 ogni scrittura viene committata subito.
+ *
+ * Analyzer, highlight (&lt;mark&gt;, max 3 frammenti), filtri e facet sono equivalenti a quelli di Elasticsearch.
+ * La ricerca ibrida non è supportata: con hybrid=true la ricerca resta solo lessicale.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = SearchBackend.PROPERTY, havingValue = SearchBackend.LUCENE)
+public class LuceneSearchBackend implements SearchBackend {
+
+    private static final String PRE_TAG = "<mark>";
+    private static final String POST_TAG = "</mark>";
+    private static final int FACET_SIZE = 20;
+    private static final int FRAGMENT_SIZE = 150;
+    private static final int MAX_FRAGMENTS = 3;
+    private static final int RAW_MAX_HITS = 10;
+    private static final int KEYWORD_IGNORE_ABOVE = 256;
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM");
+    private static final DateTimeFormatter YEAR_FORMAT = DateTimeFormatter.ofPattern("yyyy");
+
+    // Campi restituiti nei risultati: il testo del chunk serve solo per gli highlight
+    private static final Set<String> RESULT_FIELDS = Set.of("id", "documentId", "filename", "fileChecksum", "duplicateOf",
+            "author", "title", "contentType", "creationDate", "lastModified", "creator", "keywords", "subject",
+            "pageCount", "chunkIndex", "totalChunks", "fileSize", "uploadedAt", "status");
+
+    // Contenuto indicizzato con gli offset: l'highlighter li legge dalle postings senza rianalizzare il testo
+    private static final FieldType CONTENT_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+
+    static {
+        CONTENT_FIELD_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        CONTENT_FIELD_TYPE.freeze();
+    }
+
+    @Value("${search.lucene.directory:./lucene-index}")
+    private String indexDirectory;
+
+    @Value("${search.lucene.commit-interval:500ms}")
+    private Duration commitInterval;
+
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private Directory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private ScheduledExecutorService committer;
+
+    // Commit che renderà durevoli le scritture non ancora committate (group commit)
+    private final Object commitLock = new Object();
+    private CompletableFuture<Void> nextCommit = new CompletableFuture<>();
+    private boolean uncommitted;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path path = Paths.get(indexDirectory);
+        Files.createDirectories(path);
+        directory = new MMapDirectory(path);
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        searcherManager = new SearcherManager(writer, null);
+        if (!commitInterval.isZero()) {
+            committer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "lucene-commit");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = commitInterval.toMillis();
+            committer.scheduleWithFixedDelay(this::commitPending, period, period, TimeUnit.MILLISECONDS);
+        }
+        log.info("📚 Indice Lucene aperto in {} ({} chunk, commit ogni {})", path.toAbsolutePath(),
+                writer.getDocStats().numDocs, commitInterval);
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (committer != null) {
+            committer.shutdownNow();
+        }
+        if (writer != null) {
+            commitPending(); // Completa i future in attesa prima della chiusura
+        }
+        if (searcherManager != null) {
+            searcherManager.close();
+        }
+        if (writer != null) {
+            writer.close(); // Esegue il commit delle modifiche pendenti
+        }
+        if (directory != null) {
+            directory.close();
+        }
+    }
+
+    @Override
+    public String name() {
+        return LUCENE;
+    }
+
+    /**
+     * I filtri sono clausole FILTER: non influenzano lo score. Con hybrid=true la ricerca resta lessicale.
+     * Il timeout interrompe la raccolta dei chunk (IndexSearcher#setTimeout): la risposta contiene quelli
+     * già trovati ed è marcata come parziale.
+     *
+     * Lucene non ha un profiler delle query: con profile=true si restituiscono la query riscritta e la
+     * spiegazione dello score del primo risultato.
+     */
+    @Override
+    public ChunkHits search(String query, int maxHits, SearchFilters filters, boolean withFacets, boolean hybrid,
+                            Duration timeout, SearchTrace trace) {
+        Query contentQuery = contentQuery(query);
+        if (contentQuery == null) {
+            return new ChunkHits(List.of(), 0, withFacets ? emptyFacets() : null, false);
+        }
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder().add(contentQuery, BooleanClause.Occur.MUST);
+        buildFilterClauses(filters).forEach(clause -> builder.add(clause, BooleanClause.Occur.FILTER));
+        Query luceneQuery = builder.build();
+
+        return withSearcher(shared -> {
+            // Searcher per richiesta: il timeout non va impostato su quello condiviso dal SearcherManager
+            IndexSearcher searcher = new IndexSearcher(shared.getIndexReader());
+            searcher.setTimeout(new QueryTimeoutImpl(timeout.toMillis()));
+            TopDocs topDocs;
+            long totalHits;
+            try (SearchTrace.Phase phase = trace.phase("query")) {
+                topDocs = searcher.search(luceneQuery, maxHits);
+                totalHits = searcher.timedOut() ? topDocs.totalHits.value : searcher.count(luceneQuery);
+            }
+            List<ChunkHit> hits;
+            try (SearchTrace.Phase phase = trace.phase("highlight")) {
+                hits = toHits(searcher, luceneQuery, topDocs, RESULT_FIELDS);
+            }
+            Map<String, List<FacetBucketDto>> facets = null;
+            if (withFacets) {
+                try (SearchTrace.Phase phase = trace.phase("facets")) {
+                    facets = collectFacets(searcher, luceneQuery);
+                }
+            }
+            if (trace.isProfile()) {
+                trace.setProfileResult(profile(searcher, luceneQuery, topDocs));
+            }
+            return new ChunkHits(hits, totalHits, facets, searcher.timedOut());
+        });
+    }
+
+    /**
+     * Chunk trovati con il testo completo e gli highlight
+     */
+    @Override
+    public List<ChunkHit> searchRaw(String query) {
+        Query contentQuery = contentQuery(query);
+        if (contentQuery == null) {
+            return List.of();
+        }
+        return withSearcher(searcher -> toHits(searcher, contentQuery,
+                searcher.search(contentQuery, RAW_MAX_HITS), null));
+    }
+
+    /**
+     * Chunk 0 dei documenti indicizzati (solo filename e checksum)
+     */
+    @Override
+    public List<SearchDocument> indexedFiles() {
+        Query query = IntPoint.newExactQuery("chunkIndex", 0);
+        return withSearcher(searcher -> {
+            TopDocs topDocs = searcher.search(query, Math.max(1, searcher.count(query)));
+            StoredFields storedFields = searcher.storedFields();
+            List<SearchDocument> files = new ArrayList<>(topDocs.scoreDocs.length);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                files.add(toSearchDocument(storedFields.document(scoreDoc.doc, Set.of("filename", "fileChecksum"))));
+            }
+            return files;
+        });
+    }
+
+    /**
+     * Considera solo il chunk 0 (scritto per ultimo): un'indicizzazione parziale interrotta da un crash
+     * non viene scambiata per un documento già presente
+     */
+    @Override
+    public boolean documentExists(String filename, String checksum) {
+        Query query = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term("filename.keyword", filename)), BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term("fileChecksum", checksum)), BooleanClause.Occur.MUST)
+                .add(IntPoint.newExactQuery("chunkIndex", 0), BooleanClause.Occur.FILTER)
+                .build();
+        return withSearcher(searcher -> searcher.count(query) > 0);
+    }
+
+    /**
+     * Scrittura nel thread chiamante, subito ricercabile; il future si completa al commit che la rende durevole
+     */
+    @Override
+    public CompletableFuture<Void> submit(List<SearchDocument> batch) throws IOException {
+        return write(batch);
+    }
+
+    @Override
+    public SearchDocument save(SearchDocument doc) throws IOException, InterruptedException {
+        awaitCommit(write(List.of(doc)));
+        return doc;
+    }
+
+    /**
+     * Indice su un solo shard: il checksum non serve
+     */
+    @Override
+    public List<SearchDocument> documentChunks(String documentId, String fileChecksum, int from, int size) {
+        Query query = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term("documentId", documentId)), BooleanClause.Occur.FILTER)
+                .add(IntPoint.newRangeQuery("chunkIndex", from, from + size - 1), BooleanClause.Occur.FILTER)
+                .build();
+        return withSearcher(searcher -> {
+            TopDocs topDocs = searcher.search(query, Math.max(1, size));
+            StoredFields storedFields = searcher.storedFields();
+            List<SearchDocument> chunks = new ArrayList<>(topDocs.scoreDocs.length);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                chunks.add(toSearchDocument(storedFields.document(scoreDoc.doc)));
+            }
+            chunks.sort(Comparator.comparing(SearchDocument::getChunkIndex));
+            return chunks;
+        });
+    }
+
+    @Override
+    public void deleteDocument(String documentId, String fileChecksum) throws IOException {
+        writer.deleteDocuments(new Term("documentId", documentId));
+        searcherManager.maybeRefresh();
+        try {
+            awaitCommit(pendingCommit());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Attesa del commit interrotta", e);
+        }
+    }
+
+    /**
+     * Upsert per id (gli id dei chunk sono deterministici: una ripresa riscrive gli stessi documenti) e refresh
+     * del reader near-real-time
+     *
+     * @return il commit che renderà durevole il batch
+     */
+    private CompletableFuture<Void> write(List<SearchDocument> batch) throws IOException {
+        for (SearchDocument doc : batch) {
+            writer.updateDocument(new Term("id", doc.getId()), toLuceneDocument(doc));
+        }
+        searcherManager.maybeRefresh();
+        return pendingCommit();
+    }
+
+    /**
+     * Future del prossimo commit, registrato dopo la scrittura: il commit lo esegue dopo averlo preso in carico,
+     * quindi include sempre le modifiche già fatte dal chiamante
+     */
+    private CompletableFuture<Void> pendingCommit() {
+        if (committer == null) {
+            commitPending();
+            return CompletableFuture.completedFuture(null);
+        }
+        synchronized (commitLock) {
+            uncommitted = true;
+            return nextCommit;
+        }
+    }
+
+    /**
+     * Un solo commit (fsync) per tutte le scritture arrivate dall'ultimo
+     */
+    private void commitPending() {
+        CompletableFuture<Void> commit;
+        synchronized (commitLock) {
+            if (committer != null && !uncommitted) {
+                return;
+            }
+            commit = nextCommit;
+            nextCommit = new CompletableFuture<>();
+            uncommitted = false;
+        }
+        try {
+            writer.commit();
+            commit.complete(null);
+        } catch (IOException | RuntimeException e) {
+            log.error("❌ Commit dell'indice Lucene fallito: {}", e.getMessage());
+            commit.completeExceptionally(e);
+        }
+    }
+
+    private static void awaitCommit(CompletableFuture<Void> commit) throws IOException, InterruptedException {
+        try {
+            commit.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException("Commit fallito", e.getCause());
+        }
+    }
+
+    /**
+     * Equivalente della match query di Elasticsearch sul campo content (OR dei termini analizzati);
+     * null se la query non contiene termini
+     */
+    private Query contentQuery(String query) {
+        if (query == null) {
+            return null;
+        }
+        return new QueryBuilder(analyzer).createBooleanQuery("content", query);
+    }
+
+    /**
+     * Clausole di filtro (term/terms/range) a partire dai filtri richiesti
+     */
+    private List<Query> buildFilterClauses(SearchFilters filters) {
+        List<Query> clauses = new ArrayList<>();
+        if (filters == null || filters.isEmpty()) {
+            return clauses;
+        }
+
+        if (filters.getContentTypes() != null && !filters.getContentTypes().isEmpty()) {
+            clauses.add(termsQuery("contentType", filters.getContentTypes()));
+        }
+        if (filters.getAuthors() != null && !filters.getAuthors().isEmpty()) {
+            clauses.add(termsQuery("author.keyword", filters.getAuthors()));
+        }
+        if (Boolean.TRUE.equals(filters.getExcludeDuplicates())) {
+            clauses.add(new BooleanQuery.Builder()
+                    .add(new MatchAllDocsQuery(), BooleanClause.Occur.FILTER)
+                    .add(new FieldExistsQuery("duplicateOf"), BooleanClause.Occur.MUST_NOT)
+                    .build());
+        }
+        if (filters.getUploadedFrom() != null || filters.getUploadedTo() != null) {
+            clauses.add(LongPoint.newRangeQuery("uploadedAt",
+                    filters.getUploadedFrom() != null ? toEpochMillis(filters.getUploadedFrom()) : Long.MIN_VALUE,
+                    filters.getUploadedTo() != null ? toEpochMillis(filters.getUploadedTo()) : Long.MAX_VALUE));
+        }
+        if (filters.getMinPageCount() != null || filters.getMaxPageCount() != null) {
+            clauses.add(IntPoint.newRangeQuery("pageCount",
+                    filters.getMinPageCount() != null ? filters.getMinPageCount() : Integer.MIN_VALUE,
+                    filters.getMaxPageCount() != null ? filters.getMaxPageCount() : Integer.MAX_VALUE));
+        }
+        return clauses;
+    }
+
+    private Query termsQuery(String field, List<String> values) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String value : values) {
+            builder.add(new TermQuery(new Term(field, value)), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Converte i top doc in hit con highlight; fields null carica tutti i campi memorizzati
+     */
+    private List<ChunkHit> toHits(IndexSearcher searcher, Query query, TopDocs topDocs, Set<String> fields)
+            throws IOException {
+        List<List<String>> highlights = highlight(searcher, query, topDocs.scoreDocs);
+        StoredFields storedFields = searcher.storedFields();
+        List<ChunkHit> hits = new ArrayList<>(topDocs.scoreDocs.length);
+        for (int i = 0; i < topDocs.scoreDocs.length; i++) {
+            ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+            Document document = fields != null
+                    ? storedFields.document(scoreDoc.doc, fields)
+                    : storedFields.document(scoreDoc.doc);
+            hits.add(new ChunkHit(toSearchDocument(document), scoreDoc.score, highlights.get(i)));
+        }
+        return hits;
+    }
+
+    /**
+     * Frammenti di circa FRAGMENT_SIZE caratteri (al confine di frase più vicino) con i termini tra &lt;mark&gt;.
+     * Nessun frammento per i chunk senza corrispondenze nel contenuto, come in Elasticsearch.
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<String>> highlight(IndexSearcher searcher, Query query, ScoreDoc[] scoreDocs) throws IOException {
+        List<List<String>> highlights = new ArrayList<>(scoreDocs.length);
+        if (scoreDocs.length == 0) {
+            return highlights;
+        }
+        UnifiedHighlighter highlighter = UnifiedHighlighter.builder(searcher, analyzer)
+                .withFormatter(new MarkPassageFormatter())
+                .withBreakIterator(() -> LengthGoalBreakIterator.createClosestToLength(
+                        BreakIterator.getSentenceInstance(Locale.ROOT), FRAGMENT_SIZE))
+                .withMaxNoHighlightPassages(0)
+                .build();
+        int[] docIds = Arrays.stream(scoreDocs).mapToInt(scoreDoc -> scoreDoc.doc).toArray();
+        Object[] fragments = highlighter.highlightFieldsAsObjects(new String[]{"content"}, query, docIds,
+                new int[]{MAX_FRAGMENTS}).get("content");
+        for (Object docFragments : fragments) {
+            highlights.add(docFragments != null ? (List<String>) docFragments : List.of());
+        }
+        return highlights;
+    }
+
+    /**
+     * Formatter che restituisce i passaggi come lista di frammenti (stessa forma degli highlight di Elasticsearch)
+     */
+    private static final class MarkPassageFormatter extends PassageFormatter {
+
+        @Override
+        public Object format(Passage[] passages, String content) {
+            List<String> fragments = new ArrayList<>(passages.length);
+            for (Passage passage : passages) {
+                StringBuilder fragment = new StringBuilder();
+                int position = passage.getStartOffset();
+                for (int i = 0; i < passage.getNumMatches(); i++) {
+                    int start = passage.getMatchStarts()[i];
+                    int end = Math.min(passage.getMatchEnds()[i], passage.getEndOffset());
+                    if (start < position) {
+                        continue; // Match sovrapposto al precedente
+                    }
+                    fragment.append(content, position, start).append(PRE_TAG)
+                            .append(content, start, end).append(POST_TAG);
+                    position = end;
+                }
+                fragment.append(content, position, passage.getEndOffset());
+                fragments.add(fragment.toString().trim());
+            }
+            return fragments;
+        }
+    }
+
+    /**
+     * Query riscritta (come la esegue Lucene) e spiegazione dello score del primo risultato
+     */
+    private Map<String, Object> profile(IndexSearcher searcher, Query query, TopDocs topDocs) throws IOException {
+        Map<String, Object> profile = new LinkedHashMap<>();
+        profile.put("backend", LUCENE);
+        profile.put("query", query.toString());
+        profile.put("rewritten", searcher.rewrite(query).toString());
+        if (topDocs.scoreDocs.length > 0) {
+            Explanation explanation = searcher.explain(query, topDocs.scoreDocs[0].doc);
+            profile.put("topHitExplanation", explanation.toString());
+        }
+        return profile;
+    }
+
+    /**
+     * Facet calcolati sui doc values di tutti i chunk che corrispondono alla query.
+     * Ogni bucket conta i documenti distinti (documentId), non i singoli chunk.
+     */
+    private Map<String, List<FacetBucketDto>> collectFacets(IndexSearcher searcher, Query query) throws IOException {
+        FacetCollector collector = new FacetCollector();
+        searcher.search(query, collector);
+
+        Map<String, List<FacetBucketDto>> facets = new LinkedHashMap<>();
+        facets.put(FACET_CONTENT_TYPE, topTerms(collector.contentTypes));
+        facets.put(FACET_AUTHOR, topTerms(collector.authors));
+        facets.put(FACET_UPLOADED_AT, histogram(collector.uploadedMonths));
+        facets.put(FACET_CREATION_DATE, histogram(collector.creationYears));
+        return facets;
+    }
+
+    private Map<String, List<FacetBucketDto>> emptyFacets() {
+        Map<String, List<FacetBucketDto>> facets = new LinkedHashMap<>();
+        for (String facet : List.of(FACET_CONTENT_TYPE, FACET_AUTHOR, FACET_UPLOADED_AT, FACET_CREATION_DATE)) {
+            facets.put(facet, List.of());
+        }
+        return facets;
+    }
+
+    /**
+     * I FACET_SIZE termini con più documenti
+     */
+    private List<FacetBucketDto> topTerms(Map<String, Set<String>> buckets) {
+        return buckets.entrySet().stream()
+                .sorted(Comparator.<Map.Entry<String, Set<String>>>comparingInt(e -> e.getValue().size()).reversed()
+                        .thenComparing(Map.Entry::getKey))
+                .limit(FACET_SIZE)
+                .map(e -> new FacetBucketDto(e.getKey(), (long) e.getValue().size()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Bucket in ordine cronologico (solo quelli non vuoti, come min_doc_count=1)
+     */
+    private List<FacetBucketDto> histogram(Map<String, Set<String>> buckets) {
+        return new TreeMap<>(buckets).entrySet().stream()
+                .map(e -> new FacetBucketDto(e.getKey(), (long) e.getValue().size()))
+                .collect(Collectors.toList());
+    }
+
+    private static final class FacetCollector extends SimpleCollector {
+
+        private final Map<String, Set<String>> contentTypes = new HashMap<>();
+        private final Map<String, Set<String>> authors = new HashMap<>();
+        private final Map<String, Set<String>> uploadedMonths = new HashMap<>();
+        private final Map<String, Set<String>> creationYears = new HashMap<>();
+
+        private SortedDocValues documentIds;
+        private SortedDocValues contentTypeValues;
+        private SortedDocValues authorValues;
+        private NumericDocValues uploadedAtValues;
+        private NumericDocValues creationDateValues;
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            documentIds = DocValues.getSorted(context.reader(), "documentId");
+            contentTypeValues = DocValues.getSorted(context.reader(), "contentType");
+            authorValues = DocValues.getSorted(context.reader(), "author.keyword");
+            uploadedAtValues = DocValues.getNumeric(context.reader(), "uploadedAt");
+            creationDateValues = DocValues.getNumeric(context.reader(), "creationDate");
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            if (!documentIds.advanceExact(doc)) {
+                return;
+            }
+            String documentId = documentIds.lookupOrd(documentIds.ordValue()).utf8ToString();
+            if (contentTypeValues.advanceExact(doc)) {
+                add(contentTypes, contentTypeValues.lookupOrd(contentTypeValues.ordValue()).utf8ToString(), documentId);
+            }
+            if (authorValues.advanceExact(doc)) {
+                add(authors, authorValues.lookupOrd(authorValues.ordValue()).utf8ToString(), documentId);
+            }
+            if (uploadedAtValues.advanceExact(doc)) {
+                add(uploadedMonths, MONTH_FORMAT.format(fromEpochMillis(uploadedAtValues.longValue())), documentId);
+            }
+            if (creationDateValues.advanceExact(doc)) {
+                add(creationYears, YEAR_FORMAT.format(fromEpochMillis(creationDateValues.longValue())), documentId);
+            }
+        }
+
+        private static void add(Map<String, Set<String>> buckets, String key, String documentId) {
+            buckets.computeIfAbsent(key, k -> new HashSet<>()).add(documentId);
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+    }
+
+    /**
+     * Mapping equivalente a quello di Elasticsearch: keyword come StringField, testo come TextField,
+     * date come epoch millis UTC (point per i range, doc values per i facet), campi memorizzati per i risultati
+     */
+    private Document toLuceneDocument(SearchDocument doc) {
+        Document document = new Document();
+        keyword(document, "id", doc.getId(), false);
+        keyword(document, "documentId", doc.getDocumentId(), true);
+        keyword(document, "fileChecksum", doc.getFileChecksum(), false);
+        keyword(document, "duplicateOf", doc.getDuplicateOf(), true); // Doc values per il filtro excludeDuplicates
+        keyword(document, "contentType", doc.getContentType(), true);
+        keyword(document, "status", doc.getStatus(), false);
+
+        text(document, "filename", doc.getFilename());
+        if (doc.getFilename() != null) {
+            document.add(new StringField("filename.keyword", doc.getFilename(), Field.Store.NO));
+        }
+        text(document, "author", doc.getAuthor());
+        if (doc.getAuthor() != null && doc.getAuthor().length() <= KEYWORD_IGNORE_ABOVE) {
+            document.add(new StringField("author.keyword", doc.getAuthor(), Field.Store.NO));
+            document.add(new SortedDocValuesField("author.keyword", new BytesRef(doc.getAuthor())));
+        }
+        text(document, "title", doc.getTitle());
+        text(document, "creator", doc.getCreator());
+        text(document, "keywords", doc.getKeywords());
+        text(document, "subject", doc.getSubject());
+        if (doc.getContent() != null) {
+            document.add(new Field("content", doc.getContent(), CONTENT_FIELD_TYPE));
+        }
+
+        date(document, "creationDate", doc.getCreationDate());
+        date(document, "lastModified", doc.getLastModified());
+        date(document, "uploadedAt", doc.getUploadedAt());
+
+        integer(document, "pageCount", doc.getPageCount());
+        integer(document, "chunkIndex", doc.getChunkIndex());
+        if (doc.getTotalChunks() != null) {
+            document.add(new StoredField("totalChunks", doc.getTotalChunks()));
+        }
+        if (doc.getFileSize() != null) {
+            document.add(new StoredField("fileSize", doc.getFileSize()));
+        }
+        return document;
+    }
+
+    /**
+     * @param docValues true per i campi letti dai facet
+     */
+    private void keyword(Document document, String name, String value, boolean docValues) {
+        if (value != null) {
+            document.add(new StringField(name, value, Field.Store.YES));
+            if (docValues) {
+                document.add(new SortedDocValuesField(name, new BytesRef(value)));
+            }
+        }
+    }
+
+    private void text(Document document, String name, String value) {
+        if (value != null) {
+            document.add(new TextField(name, value, Field.Store.YES));
+        }
+    }
+
+    private void date(Document document, String name, LocalDateTime value) {
+        if (value != null) {
+            long millis = toEpochMillis(value);
+            document.add(new LongPoint(name, millis));
+            document.add(new NumericDocValuesField(name, millis));
+            document.add(new StoredField(name, millis));
+        }
+    }
+
+    private void integer(Document document, String name, Integer value) {
+        if (value != null) {
+            document.add(new IntPoint(name, value));
+            document.add(new StoredField(name, value));
+        }
+    }
+
+    private SearchDocument toSearchDocument(Document document) {
+        SearchDocument doc = new SearchDocument();
+        doc.setId(document.get("id"));
+        doc.setDocumentId(document.get("documentId"));
+        doc.setFilename(document.get("filename"));
+        doc.setFileChecksum(document.get("fileChecksum"));
+        doc.setDuplicateOf(document.get("duplicateOf"));
+        doc.setContent(document.get("content"));
+        doc.setAuthor(document.get("author"));
+        doc.setTitle(document.get("title"));
+        doc.setContentType(document.get("contentType"));
+        doc.setCreationDate(dateValue(document, "creationDate"));
+        doc.setLastModified(dateValue(document, "lastModified"));
+        doc.setCreator(document.get("creator"));
+        doc.setKeywords(document.get("keywords"));
+        doc.setSubject(document.get("subject"));
+        doc.setPageCount(intValue(document, "pageCount"));
+        doc.setChunkIndex(intValue(document, "chunkIndex"));
+        doc.setTotalChunks(intValue(document, "totalChunks"));
+        IndexableField fileSize = document.getField("fileSize");
+        doc.setFileSize(fileSize != null ? fileSize.numericValue().longValue() : null);
+        doc.setUploadedAt(dateValue(document, "uploadedAt"));
+        doc.setStatus(document.get("status"));
+        return doc;
+    }
+
+    private Integer intValue(Document document, String name) {
+        IndexableField field = document.getField(name);
+        return field != null ? field.numericValue().intValue() : null;
+    }
+
+    private LocalDateTime dateValue(Document document, String name) {
+        IndexableField field = document.getField(name);
+        return field != null ? fromEpochMillis(field.numericValue().longValue()) : null;
+    }
+
+    private static long toEpochMillis(LocalDateTime value) {
+        return value.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime fromEpochMillis(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    private <T> T withSearcher(SearcherFunction<T> function) {
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                return function.apply(searcher);
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lettura dell'indice Lucene fallita: " + e.getMessage(), e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SearcherFunction<T> {
+        T apply(IndexSearcher searcher) throws IOException;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.documentsearch.backend;
+
+import com.example.documentsearch.dto.FacetBucketDto;
+import com.example.documentsearch.dto.SearchFilters;
+import com.example.documentsearch.model.SearchDocument;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Motore di indicizzazione e ricerca dei chunk usato da SearchService e DocumentService.
+ *
+ * Le implementazioni lavorano a livello di singolo chunk: raggruppamento per documento,
+ * chunking e ripresa dopo crash restano nei servizi. Selezione con search.backend:
+ * - elasticsearch (default): {@link ElasticsearchSearchBackend}
+ * - lucene: {@link LuceneSearchBackend}, indice embedded nel processo per installazioni a nodo singolo
+ */
+public interface SearchBackend {
+
+    String PROPERTY = "search.backend";
+    String ELASTICSEARCH = "elasticsearch";
+    String LUCENE = "lucene";
+
+    /**
+     * Nome del backend (per log ed endpoint di stato)
+     */
+    String name();
+
+    /**
+     * Chunk che corrispondono alla query, in ordine di rilevanza, con gli highlight del contenuto.
+     * Con hybrid=true il backend può fondere la ricerca lessicale con quella semantica, se la supporta.
+     * Allo scadere del timeout il backend restituisce i chunk raccolti fino a quel momento (partial=true).
+     * Il backend registra le sue fasi nella traccia e, se trace.isProfile(), vi allega il profilo della query.
+     */
+    ChunkHits search(String query, int maxHits, SearchFilters filters, boolean withFacets, boolean hybrid,
+                     Duration timeout, SearchTrace trace);
+
+    /**
+     * Ricerca di debug: i chunk trovati con il testo completo e gli highlight, nello stesso formato per tutti i backend
+     */
+    List<ChunkHit> searchRaw(String query);
+
+    /**
+     * Filename e checksum dei documenti indicizzati (anche ripetuti: SearchService li rende univoci)
+     */
+    List<SearchDocument> indexedFiles();
+
+    /**
+     * true se esiste già un documento completo (chunk 0 presente) con stesso filename e checksum.
+     * Se il backend non può rispondere (indice irraggiungibile o scritture ancora da reinviare) lancia
+     * {@link DuplicateCheckUnavailableException}: il chiamante ripete l'ingestion più tardi invece di
+     * indicizzare un possibile duplicato con un nuovo documentId.
+     */
+    boolean documentExists(String filename, String checksum);
+
+    /**
+     * Chunk di un documento con chunkIndex in [from, from + size), in ordine: il contesto attorno a un risultato.
+     * fileChecksum (se noto) limita la lettura allo shard del documento.
+     */
+    List<SearchDocument> documentChunks(String documentId, String fileChecksum, int from, int size);
+
+    /**
+     * Indicizza un batch di chunk in modo asincrono; il future si completa quando il batch è confermato
+     */
+    CompletableFuture<Void> submit(List<SearchDocument> batch) throws IOException, InterruptedException;
+
+    /**
+     * Indicizza un singolo chunk in modo sincrono (usato per il chunk 0, marcatore di commit)
+     */
+    SearchDocument save(SearchDocument doc) throws IOException, InterruptedException;
+
+    /**
+     * Elimina tutti i chunk di un documento; fileChecksum (se noto) limita la cancellazione allo shard del documento
+     */
+    void deleteDocument(String documentId, String fileChecksum) throws IOException;
+
+    /**
+     * Controllo duplicati non eseguibile in questo momento: il file va ripresentato dopo Retry-After
+     */
+    class DuplicateCheckUnavailableException extends RuntimeException {
+
+        private final Duration retryAfter;
+
+        public DuplicateCheckUnavailableException(String filename, Duration retryAfter) {
+            super("Controllo duplicati non disponibile per " + filename + ", riprovare tra "
+                    + retryAfter.toSeconds() + "s");
+            this.retryAfter = retryAfter;
+        }
+
+        public long getRetryAfterSeconds() {
+            return Math.max(1, retryAfter.toSeconds());
+        }
+    }
+
+    record ChunkHit(SearchDocument document, double score, List<String> highlights) {
+    }
+
+    record ChunkHits(List<ChunkHit> hits, long totalHits, Map<String, List<FacetBucketDto>> facets, boolean partial) {
+    }
+}
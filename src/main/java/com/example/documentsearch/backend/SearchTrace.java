@@ -0,0 +1,147 @@
+package com.example.documentsearch.backend;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tempi per fase di una singola ricerca: attesa del permesso, motore, highlight, raggruppamento, serializzazione.
+ *
+ * Ogni fase è una Observation "search.phase" (tag phase): con un bridge di tracing nel classpath diventa uno span
+ * figlio della richiesta HTTP, altrimenti produce comunque il timer omonimo. I tempi restano anche nella traccia
+ * per lo slow-query log. Con profile=true il backend allega il profilo della query calcolato dal motore.
+ *
+ * Non thread-safe: una traccia segue una sola richiesta sul suo thread.
+ */
+public class SearchTrace {
+
+    public static final String OBSERVATION = "search.phase";
+
+    private final String query;
+    private final boolean profile;
+    private final ObservationRegistry registry;
+    private final long startedAt = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>(); // Nanosecondi per fase, nell'ordine di esecuzione
+
+    private Object profileResult;
+    private long totalHits = -1;
+    private int results;
+    private boolean partial;
+    private boolean coalesced;
+
+    public SearchTrace(String query, boolean profile, ObservationRegistry registry) {
+        this.query = query;
+        this.profile = profile;
+        this.registry = registry;
+    }
+
+    /**
+     * Traccia senza Observation né profilo (chiamate interne e API legacy)
+     */
+    public static SearchTrace untraced(String query) {
+        return new SearchTrace(query, false, ObservationRegistry.NOOP);
+    }
+
+    /**
+     * Apre una fase; le fasi aperte al suo interno diventano span figli. Da chiudere con try-with-resources.
+     */
+    public Phase phase(String name) {
+        Observation observation = Observation.createNotStarted(OBSERVATION, registry)
+                .contextualName("search " + name)
+                .lowCardinalityKeyValue("phase", name)
+                .start();
+        return new Phase(name, observation);
+    }
+
+    /**
+     * Registra un tempo misurato altrove (es. il took riportato dal cluster)
+     */
+    public void record(String name, Duration duration) {
+        phases.merge(name, duration.toNanos(), Long::sum);
+    }
+
+    /**
+     * Millisecondi per fase (due decimali), nell'ordine di esecuzione
+     */
+    public Map<String, Double> timings() {
+        Map<String, Double> timings = new LinkedHashMap<>();
+        phases.forEach((name, nanos) -> timings.put(name, Math.round(nanos / 10_000.0) / 100.0));
+        return timings;
+    }
+
+    public Duration elapsed() {
+        return Duration.ofNanos(System.nanoTime() - startedAt);
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public boolean isProfile() {
+        return profile;
+    }
+
+    public Object getProfileResult() {
+        return profileResult;
+    }
+
+    public void setProfileResult(Object profileResult) {
+        this.profileResult = profileResult;
+    }
+
+    /**
+     * Chunk trovati dal motore (-1 se la ricerca non è arrivata al motore) e documenti restituiti
+     */
+    public void setHits(long totalHits, int results, boolean partial) {
+        this.totalHits = totalHits;
+        this.results = results;
+        this.partial = partial;
+    }
+
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    public int getResults() {
+        return results;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * true se la risposta è stata condivisa da una ricerca identica già in corso (nessuna fase del motore)
+     */
+    public boolean isCoalesced() {
+        return coalesced;
+    }
+
+    public void setCoalesced(boolean coalesced) {
+        this.coalesced = coalesced;
+    }
+
+    public final class Phase implements AutoCloseable {
+
+        private final String name;
+        private final Observation observation;
+        private final Observation.Scope scope;
+        private final long start = System.nanoTime();
+
+        private Phase(String name, Observation observation) {
+            this.name = name;
+            this.observation = observation;
+            this.scope = observation.openScope();
+        }
+
+        @Override
+        public void close() {
+            scope.close();
+            observation.stop();
+            record(name, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+}
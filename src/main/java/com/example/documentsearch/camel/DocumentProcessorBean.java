@@ -1,6 +1,8 @@
 package com.example.documentsearch.camel;
 
+import com.example.documentsearch.backend.SearchBackend;
 import com.example.documentsearch.service.DocumentService;
+import com.example.documentsearch.service.IngestScheduler;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.camel.Exchange;
@@ -9,6 +11,7 @@ import org.springframework.stereotype.Component;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Bean Spring che processa i documenti intercettati da Apache Camel.
@@ -23,6 +26,7 @@ import java.io.InputStream;
 public class DocumentProcessorBean {
 
     private final DocumentService documentService;
+    private final IngestScheduler scheduler;
 
     /**
      * Processa un documento dal file system e lo indicizza in Elasticsearch
@@ -50,8 +54,15 @@ public class DocumentProcessorBean {
                     documentId = documentService.indexDocumentAsync(
                         filename, 
                         is, 
-                        fileSizeBytes
+                        fileSizeBytes,
+                        file.toPath(), // Il file resta in input fino al commit: riferimento per la ripresa
+                        IngestScheduler.Lane.BULK
                     ).get(); // Aspetta il completamento
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof SearchBackend.DuplicateCheckUnavailableException unavailable) {
+                        throw unavailable;
+                    }
+                    throw e;
                 }
                 
                 log.info("✅ Documento processato con successo (async): {} - DocumentID: {}", 
@@ -61,13 +72,20 @@ public class DocumentProcessorBean {
                 // File piccolo - upload sincrono
                 log.info("📄 File piccolo ({}MB) - uso upload sincrono", fileSizeMB);
                 try (InputStream inputStream = new FileInputStream(file)) {
-                    var result = documentService.indexDocument(filename, inputStream);
+                    var result = scheduler.run(IngestScheduler.Lane.BULK,
+                            () -> documentService.indexDocument(filename, inputStream, file.toPath()));
                     log.info("✅ Documento processato con successo (sync): {} - ID: {}", 
                             filename, result.getDocumentId());
                     exchange.getIn().setHeader("DocumentId", result.getDocumentId());
                 }
             }
             
+        } catch (IngestScheduler.IngestRejectedException e) {
+            log.warn("⏳ Coda bulk piena, {} resta in input per il prossimo polling: {}", filename, e.getMessage());
+            throw e; // Rollback della route: il file non viene spostato
+        } catch (SearchBackend.DuplicateCheckUnavailableException e) {
+            log.warn("⏳ {} resta in input per il prossimo polling: {}", filename, e.getMessage());
+            throw e; // Come sopra: un nuovo tentativo, non un errore del file
         } catch (Exception e) {
             log.error("❌ Errore nel processamento di {}: {}", filename, e.getMessage());
             throw e; // Rilancia per gestione errori della route
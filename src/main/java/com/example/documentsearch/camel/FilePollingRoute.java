@@ -1,7 +1,10 @@
 package com.example.documentsearch.camel;
 
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.service.IngestScheduler;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.RouteDefinition;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
@@ -21,12 +24,16 @@ import java.io.File;
  * - file-polling.processed-directory: dove spostare i file processati
  * - file-polling.error-directory: dove spostare i file con errori
  * - file-polling.delay: frequenza di polling in ms
+ * - file-polling.cluster.enabled: più istanze sulla stessa directory (claim esclusivo via
+ *   {@link SharedFileIdempotentRepository})
  */
 @Component
 @Slf4j
 @ConditionalOnProperty(name = "file-polling.enabled", havingValue = "true", matchIfMissing = false)
 public class FilePollingRoute extends RouteBuilder {
 
+    private static final String CLAIM_KEY_HEADER = "DocumentClaimKey";
+
     @Value("${file-polling.input-directory:./upload}")
     private String inputDirectory;
 
@@ -45,6 +52,9 @@ public class FilePollingRoute extends RouteBuilder {
     @Value("${file-polling.max-concurrent:3}")
     private int maxConcurrent;
 
+    @Value("${file-polling.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
     @Override
     public void configure() throws Exception {
         
@@ -57,16 +67,36 @@ public class FilePollingRoute extends RouteBuilder {
         log.warn("❌ Directory errori: {}", new File(errorDirectory).getAbsolutePath());
         log.warn("⏱️  Polling delay: {}ms", pollingDelay);
         log.warn("🔍 Pattern file: tutti i formati supportati");
+        log.warn("🌐 Modalità cluster: {}", clusterEnabled ? "attiva" : "disattiva");
         log.warn("⚙️  Endpoint Camel: {}", buildFileEndpoint());
 
         // Route principale per il polling
-        from(buildFileEndpoint())
-            .routeId("document-polling-route")
+        RouteDefinition route = from(buildFileEndpoint())
+            .routeId("document-polling-route");
+
+        // Cluster: a scambio completato il claim diventa DONE (il lock resta come registro idempotente e smette
+        // di essere rinnovato); in caso di rollback Camel lo rimuove e il file torna disponibile agli altri nodi
+        if (clusterEnabled) {
+            route.onCompletion().onCompleteOnly()
+                .setHeader(CLAIM_KEY_HEADER, simple(SharedFileIdempotentRepository.KEY_EXPRESSION))
+                .bean("sharedFileIdempotentRepository", "confirm(${header." + CLAIM_KEY_HEADER + "})")
+            .end();
+        }
+
+        route
             .log("📥 Nuovo documento rilevato: ${header.CamelFileName}")
             
             // Limita il numero di file processati in parallelo
             .threads().poolSize(maxConcurrent).maxPoolSize(maxConcurrent)
             
+            // Coda di ingestion piena o controllo duplicati non disponibile: nessuno spostamento, il file resta
+            // in input e viene ripreso al prossimo polling
+            .onException(IngestScheduler.IngestRejectedException.class,
+                    SearchBackend.DuplicateCheckUnavailableException.class)
+                .handled(false)
+                .logExhausted(false)
+            .end()
+
             // Gestione errori: se fallisce, sposta in error-directory
             .onException(Exception.class)
                 .log("❌ Errore nel processamento di ${header.CamelFileName}: ${exception.message}")
@@ -91,13 +121,40 @@ public class FilePollingRoute extends RouteBuilder {
         // Pattern per accettare documenti comuni
         String pattern = ".*\\.(pdf|doc|docx|xls|xlsx|txt|html|htm|rtf|odt|ods|csv|xml|json|md)$";
         
-        return String.format(
+        String endpoint = String.format(
             "file:%s?delay=%d&initialDelay=%d&include=%s&noop=false&delete=true",
             inputDirectory,
             pollingDelay,
             initialDelay,
             pattern
         );
+
+        if (clusterEnabled) {
+            endpoint += clusterOptions();
+        }
+        return endpoint;
+    }
+
+    /**
+     * Opzioni per l'ingestion multi-istanza:
+     * - readLock=idempotent: il file è reclamato in modo esclusivo tramite il repository condiviso
+     *   (un solo nodo lo processa, gli altri lo saltano in silenzio)
+     * - readLockRemoveOnCommit=false: dopo il commit il lock resta come registro idempotente (stato DONE,
+     *   scritto dall'onCompletion della route)
+     * - readLockRemoveOnRollback=true: se il processamento fallisce senza essere gestito il file torna disponibile
+     * - idempotentKey: nome+dimensione+data modifica, indipendente dal path di mount sui vari nodi
+     * - maxMessagesPerPoll/shuffle: ogni nodo reclama solo i file che può lavorare subito, in ordine
+     *   casuale, così il carico si distribuisce tra le istanze invece di finire tutto sul primo nodo
+     */
+    private String clusterOptions() {
+        return String.format(
+            "&readLock=idempotent&idempotentRepository=#sharedFileIdempotentRepository"
+                + "&readLockRemoveOnCommit=false&readLockRemoveOnRollback=true"
+                + "&idempotentKey=%s"
+                + "&maxMessagesPerPoll=%d&shuffle=true",
+            SharedFileIdempotentRepository.KEY_EXPRESSION,
+            maxConcurrent
+        );
     }
 
     /**
@@ -0,0 +1,348 @@
+package com.example.documentsearch.camel;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.camel.spi.IdempotentRepository;
+import org.apache.camel.support.service.ServiceSupport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idempotent repository condiviso tra più istanze dell'applicazione che leggono la stessa
+ * directory di upload (es. volume NFS o directory locale con più processi).
+ *
+ * Ogni chiave è un file di lock nella directory condivisa, creato con CREATE_NEW (atomico anche
+ * tra processi): solo un nodo riesce a reclamare un file. Il nodo proprietario rinnova il lease
+ * aggiornando il last-modified del lock; se un nodo muore il lease scade e un altro nodo può
+ * riprendere il file (il file sorgente resta in input finché Camel non fa commit).
+ *
+ * Stati del lock:
+ * - CLAIMED: file in lavorazione da parte di nodeId (soggetto a lease)
+ * - DONE: file processato (resta come registro idempotente fino alla retention)
+ *
+ * Usato da {@link FilePollingRoute} con readLock=idempotent quando file-polling.cluster.enabled=true: la route
+ * conferma il claim (DONE) a scambio completato, un rollback lo rimuove.
+ */
+@Component("sharedFileIdempotentRepository")
+@Slf4j
+@ConditionalOnProperty(name = "file-polling.cluster.enabled", havingValue = "true")
+public class SharedFileIdempotentRepository extends ServiceSupport implements IdempotentRepository {
+
+    private static final String STATE_CLAIMED = "CLAIMED";
+    private static final String STATE_DONE = "DONE";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /**
+     * Chiave idempotente di un file (nome+dimensione+data modifica), indipendente dal path di mount sui vari nodi
+     */
+    public static final String KEY_EXPRESSION = "${file:onlyname}-${file:size}-${file:modified}";
+
+    @Value("${file-polling.cluster.lock-directory:${file-polling.input-directory:./upload}/.locks}")
+    private String lockDirectory;
+
+    @Value("${file-polling.cluster.node-id:}")
+    private String configuredNodeId;
+
+    @Value("${file-polling.cluster.lease:60s}")
+    private Duration lease;
+
+    @Value("${file-polling.cluster.done-retention:7d}")
+    private Duration doneRetention;
+
+    private Path lockDir;
+    private String nodeId;
+
+    // Chiavi reclamate da questo nodo, di cui rinnovare il lease
+    private final Set<String> heldKeys = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService heartbeat;
+
+    @PostConstruct
+    public void init() throws IOException {
+        lockDir = Paths.get(lockDirectory).toAbsolutePath();
+        Files.createDirectories(lockDir);
+        nodeId = configuredNodeId == null || configuredNodeId.isBlank() ? defaultNodeId() : configuredNodeId;
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-lease-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, lease.toMillis() / 3);
+        heartbeat.scheduleAtFixedRate(this::renewLeases, period, period, TimeUnit.MILLISECONDS);
+        heartbeat.scheduleAtFixedRate(this::purgeExpiredDone, 1, 60, TimeUnit.MINUTES);
+
+        log.warn("🔐 Ingestion in modalità cluster - nodo: {} - lock: {} - lease: {}", nodeId, lockDir, lease);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        // Rilascia i claim ancora aperti così gli altri nodi possono riprenderli subito
+        for (String key : heldKeys) {
+            remove(key);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public boolean add(String key) {
+        Path lock = lockFile(key);
+        try {
+            createLock(lock, STATE_CLAIMED, key);
+            heldKeys.add(key);
+            log.debug("🔒 File reclamato dal nodo {}: {}", nodeId, key);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return takeOverIfStale(lock, key);
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile creare il lock per {}: {}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        Path lock = lockFile(key);
+        String[] content = readLock(lock);
+        if (content == null) {
+            return false;
+        }
+        return STATE_DONE.equals(content[0]) || !isExpired(lock);
+    }
+
+    @Override
+    public boolean remove(String key) {
+        heldKeys.remove(key);
+        try {
+            return Files.deleteIfExists(lockFile(key));
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile rimuovere il lock per {}: {}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Segna come DONE un file reclamato da questo nodo. Idempotente: un file già DONE resta tale, mentre un claim
+     * passato a un altro nodo (lease scaduto e recuperato) non viene sovrascritto.
+     */
+    @Override
+    public boolean confirm(String key) {
+        heldKeys.remove(key);
+        Path lock = lockFile(key);
+        String[] content = readLock(lock);
+        if (content != null && STATE_DONE.equals(content[0])) {
+            return true;
+        }
+        if (content == null || !nodeId.equals(content[1])) {
+            log.warn("⚠️ Claim non più del nodo {}, conferma ignorata: {}", nodeId, key);
+            return false;
+        }
+        try {
+            writeLockAtomically(lock, STATE_DONE, key);
+            log.debug("✅ File confermato dal nodo {}: {}", nodeId, key);
+            return true;
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile confermare il lock per {}: {}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void clear() {
+        heldKeys.clear();
+        try (DirectoryStream<Path> locks = Files.newDirectoryStream(lockDir, "*" + LOCK_SUFFIX)) {
+            for (Path lock : locks) {
+                Files.deleteIfExists(lock);
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile svuotare la directory dei lock: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        // Il ciclo di vita (heartbeat) è gestito da Spring, vedi init()/shutdown()
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        // Il ciclo di vita (heartbeat) è gestito da Spring, vedi init()/shutdown()
+    }
+
+    /**
+     * Un lock CLAIMED con lease scaduto appartiene a un nodo morto: lo spostiamo in modo atomico su un nome
+     * univoco e poi lo ricreiamo a nome nostro. Due nodi possono leggere lo stesso lock scaduto: il secondo
+     * a spostarlo potrebbe prendere il lock appena ricreato dal primo (i nomi univoci non collidono mai),
+     * quindi dopo lo spostamento rileggiamo il file preso e, se non è più il claim scaduto letto prima,
+     * lo rimettiamo al suo posto e rinunciamo.
+     */
+    private boolean takeOverIfStale(Path lock, String key) {
+        String[] content = readLock(lock);
+        if (content == null || !STATE_CLAIMED.equals(content[0]) || !isExpired(lock)) {
+            return false;
+        }
+
+        Path tombstone = lock.resolveSibling(lock.getFileName() + ".stale-" + nodeId + "-" + System.nanoTime());
+        try {
+            Files.move(lock, tombstone, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            return false; // Un altro nodo ci ha preceduto
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile recuperare il claim scaduto per {}: {}", key, e.getMessage());
+            return false;
+        }
+
+        // Lo spostamento conserva il last-modified: un lock appena ricreato da un altro nodo non risulta scaduto
+        String[] moved = readLock(tombstone);
+        if (moved == null || !STATE_CLAIMED.equals(moved[0]) || !content[1].equals(moved[1]) || !isExpired(tombstone)) {
+            restore(tombstone, lock, key);
+            return false;
+        }
+
+        try {
+            Files.deleteIfExists(tombstone);
+            createLock(lock, STATE_CLAIMED, key);
+            heldKeys.add(key);
+            log.warn("♻️ Claim scaduto del nodo {} recuperato dal nodo {}: {}", content[1], nodeId, key);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rimette al suo posto un lock spostato per errore (claim valido di un altro nodo). Senza REPLACE_EXISTING:
+     * se nel frattempo il lock è stato ricreato, quello resta valido e il file spostato viene scartato.
+     */
+    private void restore(Path tombstone, Path lock, String key) {
+        try {
+            Files.move(tombstone, lock);
+            log.debug("Claim di un altro nodo rimesso al suo posto: {}", key);
+        } catch (FileAlreadyExistsException e) {
+            log.warn("⚠️ Lock di {} ricreato durante il recupero del claim scaduto, scarto la copia spostata", key);
+            try {
+                Files.deleteIfExists(tombstone);
+            } catch (IOException ignored) {
+                // Resta un file .stale- orfano, ignorato dal repository
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile ripristinare il lock di {}: {}", key, e.getMessage());
+        }
+    }
+
+    void renewLeases() {
+        FileTime now = FileTime.from(Instant.now());
+        for (String key : heldKeys) {
+            try {
+                Files.setLastModifiedTime(lockFile(key), now);
+            } catch (IOException e) {
+                log.warn("⚠️ Rinnovo lease fallito per {}: {}", key, e.getMessage());
+            }
+        }
+    }
+
+    void purgeExpiredDone() {
+        Instant threshold = Instant.now().minus(doneRetention);
+        try (DirectoryStream<Path> locks = Files.newDirectoryStream(lockDir, "*" + LOCK_SUFFIX)) {
+            for (Path lock : locks) {
+                String[] content = readLock(lock);
+                if (content != null && STATE_DONE.equals(content[0])
+                        && Files.getLastModifiedTime(lock).toInstant().isBefore(threshold)) {
+                    Files.deleteIfExists(lock);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Pulizia lock completati fallita: {}", e.getMessage());
+        }
+    }
+
+    private boolean isExpired(Path lock) {
+        try {
+            Instant lastHeartbeat = Files.getLastModifiedTime(lock).toInstant();
+            return lastHeartbeat.plus(lease).isBefore(Instant.now());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void createLock(Path lock, String state, String key) throws IOException {
+        Files.write(lock, lockContent(state, key), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private void writeLockAtomically(Path lock, String state, String key) throws IOException {
+        Path tmp = lock.resolveSibling(lock.getFileName() + ".tmp-" + nodeId);
+        Files.write(tmp, lockContent(state, key));
+        try {
+            Files.move(tmp, lock, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, lock, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private byte[] lockContent(String state, String key) {
+        return (state + "\n" + nodeId + "\n" + key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return [stato, nodeId, chiave] oppure null se il lock non esiste
+     */
+    private String[] readLock(Path lock) {
+        try {
+            String[] parts = Files.readString(lock, StandardCharsets.UTF_8).split("\n", 3);
+            return parts.length == 3 ? parts : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Path lockFile(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            return lockDir.resolve(HexFormat.of().formatHex(hash) + LOCK_SUFFIX);
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "localhost";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+}
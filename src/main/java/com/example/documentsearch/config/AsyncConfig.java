@@ -1,24 +1,13 @@
 package com.example.documentsearch.config;
 
-import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
-
-import java.util.concurrent.Executor;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
+/**
+ * L'elaborazione asincrona dei documenti passa da IngestScheduler (lane con code limitate e fair sharing);
+ * qui resta solo lo scheduling dei job periodici (replay dello spool, embedding).
+ */
 @Configuration
-@EnableAsync
+@EnableScheduling
 public class AsyncConfig {
-
-    @Bean(name = "taskExecutor")
-    public Executor taskExecutor() {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(5);
-        executor.setQueueCapacity(100);
-        executor.setThreadNamePrefix("document-async-");
-        executor.initialize();
-        return executor;
-    }
 }
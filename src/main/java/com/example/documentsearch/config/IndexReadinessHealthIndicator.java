@@ -0,0 +1,32 @@
+package com.example.documentsearch.config;
+
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.service.IndexManager;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Readiness dell'indice: DOWN finché l'inizializzazione degli alias non è completata.
+ * Incluso nel gruppo readiness (/actuator/health/readiness), non blocca l'avvio dell'applicazione.
+ */
+@Component("elasticsearchIndex")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = SearchBackend.PROPERTY, havingValue = SearchBackend.ELASTICSEARCH, matchIfMissing = true)
+public class IndexReadinessHealthIndicator implements HealthIndicator {
+
+    private final IndexManager indexManager;
+
+    @Override
+    public Health health() {
+        Health.Builder builder = indexManager.isReady() ? Health.up() : Health.down();
+        builder.withDetail("readAlias", indexManager.readAlias())
+                .withDetail("writeAlias", indexManager.writeAlias());
+        if (indexManager.getLastError() != null) {
+            builder.withDetail("lastError", indexManager.getLastError());
+        }
+        return builder.build();
+    }
+}
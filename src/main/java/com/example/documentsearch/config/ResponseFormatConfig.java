@@ -0,0 +1,22 @@
+package com.example.documentsearch.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Risposte in CBOR per i client che inviano Accept: application/cbor (JSON resta il default).
+ *
+ * Il converter usa il builder di Spring Boot, quindi le stesse impostazioni spring.jackson.* del JSON
+ * (moduli java.time, campi null omessi); quello registrato di default da Spring MVC le ignorerebbe.
+ */
+@Configuration
+public class ResponseFormatConfig {
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+}
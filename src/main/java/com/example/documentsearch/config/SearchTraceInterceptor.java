@@ -0,0 +1,43 @@
+package com.example.documentsearch.config;
+
+import com.example.documentsearch.backend.SearchTrace;
+import com.example.documentsearch.service.SearchTracer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Chiude la fase di serializzazione delle ricerche e passa la traccia allo slow-query log.
+ *
+ * Il controller apre la fase "serialize" prima di restituire la risposta; il corpo @ResponseBody viene scritto
+ * prima di afterCompletion, che quindi misura la serializzazione JSON (e la scrittura sul socket).
+ */
+@Configuration
+@RequiredArgsConstructor
+public class SearchTraceInterceptor implements HandlerInterceptor, WebMvcConfigurer {
+
+    public static final String TRACE_ATTRIBUTE = SearchTrace.class.getName();
+    public static final String SERIALIZE_PHASE_ATTRIBUTE = SearchTrace.Phase.class.getName();
+
+    private final SearchTracer tracer;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this).addPathPatterns("/api/search", "/api/search/query");
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.getAttribute(SERIALIZE_PHASE_ATTRIBUTE) instanceof SearchTrace.Phase serialize) {
+            serialize.close();
+        }
+        if (request.getAttribute(TRACE_ATTRIBUTE) instanceof SearchTrace trace) {
+            tracer.finish(trace);
+        }
+    }
+}
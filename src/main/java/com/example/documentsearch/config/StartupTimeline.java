@@ -0,0 +1,89 @@
+package com.example.documentsearch.config;
+
+import com.example.documentsearch.service.IndexManager;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fasi dell'avvio misurate dall'avvio della JVM, per confrontare il time-to-first-request tra release:
+ * - context: contesto Spring pronto (bean creati, Tomcat e Camel avviati)
+ * - ready: applicazione pronta a ricevere traffico
+ * - index: alias Elasticsearch verificati (inizializzazione in background, assente con Lucene)
+ * - first-request: prima richiesta /api completata
+ *
+ * Ogni fase diventa il gauge document.startup (tag phase, secondi); il dettaglio per bean è su /actuator/startup.
+ */
+@Slf4j
+@Configuration
+@RequiredArgsConstructor
+public class StartupTimeline implements HandlerInterceptor, WebMvcConfigurer {
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Double> phases = new LinkedHashMap<>();
+    private final AtomicBoolean indexReady = new AtomicBoolean();
+    private final AtomicBoolean firstRequest = new AtomicBoolean();
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this).addPathPatterns("/api/**");
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void onStarted() {
+        record("context");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        record("ready");
+    }
+
+    @EventListener(IndexManager.IndexReadyEvent.class)
+    public void onIndexReady() {
+        if (indexReady.compareAndSet(false, true)) {
+            record("index");
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (firstRequest.compareAndSet(false, true)) {
+            record("first-request");
+            log.info("⏱️ Fasi di avvio (secondi dall'avvio della JVM): {}", snapshot());
+        }
+    }
+
+    public synchronized Map<String, Double> snapshot() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    private synchronized void record(String phase) {
+        long uptimeMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        double seconds = uptimeMillis / 1000.0;
+        phases.put(phase, seconds);
+        Gauge.builder("document.startup", () -> seconds)
+                .description("Secondi dall'avvio della JVM al raggiungimento della fase")
+                .tag("phase", phase)
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        log.info("⏱️ Avvio: fase {} raggiunta dopo {} s", phase, seconds);
+    }
+}
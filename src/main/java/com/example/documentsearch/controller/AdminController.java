@@ -0,0 +1,239 @@
+package com.example.documentsearch.controller;
+
+import com.example.documentsearch.backend.ElasticsearchSearchBackend;
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.dto.ReindexStatusDto;
+import com.example.documentsearch.service.ChunkContentStore;
+import com.example.documentsearch.service.EmbeddingService;
+import com.example.documentsearch.service.IndexManager;
+import com.example.documentsearch.service.IndexRolloverService;
+import com.example.documentsearch.service.NearDuplicateDetector;
+import com.example.documentsearch.service.ReindexService;
+import com.example.documentsearch.service.ResponseFormatBenchmark;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = SearchBackend.PROPERTY, havingValue = SearchBackend.ELASTICSEARCH, matchIfMissing = true)
+public class AdminController {
+
+    private final IndexManager indexManager;
+    private final ReindexService reindexService;
+    private final IndexRolloverService rolloverService;
+    private final ChunkContentStore contentStore;
+    private final EmbeddingService embeddingService;
+    private final ElasticsearchSearchBackend elasticsearchBackend;
+    private final NearDuplicateDetector nearDuplicates;
+    private final ResponseFormatBenchmark responseFormatBenchmark;
+
+    /**
+     * Stato degli alias e degli indici fisici
+     */
+    @GetMapping("/index")
+    public ResponseEntity<?> indexStatus() {
+        try {
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("ready", indexManager.isReady());
+            response.put("readAlias", indexManager.readAlias());
+            response.put("writeAlias", indexManager.writeAlias());
+            response.put("configuredIndex", indexManager.physicalIndexName(indexManager.mappingVersion()));
+            if (indexManager.isReady()) {
+                response.put("activeIndex", indexManager.activeIndex().orElse(null));
+                response.put("writeIndex", indexManager.writeIndex().orElse(null));
+                response.put("partitions", indexManager.readIndices());
+            }
+            response.put("lastError", indexManager.getLastError());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
+    /**
+     * Avvia la reindicizzazione senza downtime verso una nuova versione del mapping
+     */
+    @PostMapping("/reindex")
+    public ResponseEntity<?> reindex() {
+        try {
+            return ResponseEntity.accepted().body(reindexService.start());
+        } catch (IllegalStateException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
+    /**
+     * Rollover immediato su una nuova partizione, senza attendere le condizioni configurate
+     */
+    @PostMapping("/rollover")
+    public ResponseEntity<?> rollover() {
+        try {
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("rolledOver", rolloverService.rollover(true).orElse(null));
+            response.put("writeIndex", indexManager.writeIndex().orElse(null));
+            response.put("partitions", indexManager.readIndices());
+            return ResponseEntity.ok(response);
+        } catch (IllegalStateException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
+    /**
+     * Ricostruisce l'indice in una nuova versione dal testo già estratto (senza riparsare i file con Tika)
+     */
+    @PostMapping("/rebuild-from-cache")
+    public ResponseEntity<?> rebuildFromCache() {
+        try {
+            return ResponseEntity.accepted().body(reindexService.startFromCache());
+        } catch (IllegalStateException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
+    /**
+     * Statistiche del content store e dimensione dell'indice attivo, per misurare il risparmio
+     * ottenuto togliendo il testo dei chunk dal _source
+     */
+    @GetMapping("/content-store")
+    public ResponseEntity<?> contentStoreStats() {
+        try {
+            Map<String, Object> response = new LinkedHashMap<>(contentStore.stats());
+            if (indexManager.isReady()) {
+                String active = indexManager.activeIndex().orElse(null);
+                if (active != null) {
+                    response.put("activeIndex", active);
+                    response.put("contentInSource", !indexManager.excludesContent(active));
+                    response.put("indexPrimaryBytes", indexManager.primaryStoreBytes(indexManager.readAlias()));
+                }
+            }
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
+    /**
+     * Compatta subito i segmenti del content store con troppi record sovrascritti o eliminati
+     */
+    @PostMapping("/content-store/compact")
+    public ResponseEntity<?> compactContentStore() {
+        if (!contentStore.isEnabled()) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Content store non abilitato");
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+        }
+        try {
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("reclaimedBytes", contentStore.compact());
+            response.putAll(contentStore.stats());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
+    /**
+     * Benchmark del modello di embedding: throughput (testi/s) e memoria (heap e RSS del processo)
+     */
+    @PostMapping("/embedding/benchmark")
+    public ResponseEntity<?> embeddingBenchmark(
+            @RequestParam(required = false, defaultValue = "256") int texts,
+            @RequestParam(required = false, defaultValue = "5000") int chunkChars) {
+        try {
+            return ResponseEntity.ok(embeddingService.benchmark(texts, chunkChars));
+        } catch (IllegalStateException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
+    /**
+     * Costo della firma MinHash dei quasi duplicati su testo sintetico (ms per MB)
+     */
+    @PostMapping("/near-duplicate/benchmark")
+    public ResponseEntity<?> nearDuplicateBenchmark(@RequestParam(required = false, defaultValue = "4") int megabytes) {
+        try {
+            return ResponseEntity.ok(nearDuplicates.benchmark(Math.max(1, megabytes)));
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
+    /**
+     * Byte e costo di serializzazione dei risultati di una ricerca per formato (JSON, CBOR, view=ids, gzip)
+     */
+    @PostMapping("/response-format/benchmark")
+    public ResponseEntity<?> responseFormatBenchmark(
+            @RequestParam String q,
+            @RequestParam(required = false, defaultValue = "10") int maxResults,
+            @RequestParam(required = false, defaultValue = "2000") int iterations) {
+        try {
+            return ResponseEntity.ok(responseFormatBenchmark.run(q, Math.max(1, maxResults), Math.max(1, iterations)));
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
+    /**
+     * Fan-out sugli shard del controllo duplicati con e senza routing per checksum
+     */
+    @PostMapping("/routing/benchmark")
+    public ResponseEntity<?> routingBenchmark(@RequestParam(required = false, defaultValue = "100") int samples) {
+        try {
+            return ResponseEntity.ok(elasticsearchBackend.routingBenchmark(samples));
+        } catch (Exception e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", e.getMessage());
+            return ResponseEntity.internalServerError().body(error);
+        }
+    }
+
+    /**
+     * Avanzamento della reindicizzazione
+     */
+    @GetMapping("/reindex")
+    public ReindexStatusDto reindexStatus() {
+        return reindexService.getStatus();
+    }
+}
@@ -1,10 +1,26 @@
 package com.example.documentsearch.controller;
 
-import com.example.documentsearch.dto.SearchResultDto;
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.backend.SearchTrace;
+import com.example.documentsearch.config.SearchTraceInterceptor;
+import com.example.documentsearch.dto.SearchFilters;
+import com.example.documentsearch.dto.SearchResponseDto;
+import com.example.documentsearch.dto.SearchResultIdDto;
+import com.example.documentsearch.model.SearchDocument;
 import com.example.documentsearch.service.SearchService;
+import com.example.documentsearch.service.SearchTracer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -13,38 +29,159 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class SearchController {
 
+    private static final String PARTIAL_HEADER = "X-Search-Partial";
+    private static final String VIEW_IDS = "ids";
+
     private final SearchService searchService;
+    private final SearchTracer tracer;
+    private final ObjectMapper objectMapper;
 
     /**
-     * Cerca nei documenti con risultati raggruppati e ottimizzati (GET)
+     * Cerca nei documenti con risultati raggruppati e ottimizzati (GET).
+     * Filtri opzionali, con gli stessi nomi di {@link SearchFilters} usati dal POST: contentTypes, authors (ripetibili),
+     * uploadedFrom/uploadedTo (ISO date-time), minPageCount/maxPageCount, excludeDuplicates (nasconde i quasi duplicati).
+     * Restano accettati anche contentType, author, minPages e maxPages. Con facets=true restituisce anche i conteggi per facet.
+     * Con hybrid=true combina la ricerca per parole chiave con quella semantica (embedding).
+     * Con profile=true (solo per debug: la query costa di più) restituisce la risposta completa con il profilo
+     * della query calcolato dal motore e i tempi per fase.
+     * Con view=ids restituisce solo documentId, fileChecksum e score di ogni risultato (facet ignorati).
+     * Con Accept: application/cbor la risposta è in CBOR invece che in JSON.
      */
     @GetMapping
-    public List<SearchResultDto> search(
+    public ResponseEntity<?> search(
+            HttpServletRequest request,
             @RequestParam String q,
-            @RequestParam(required = false, defaultValue = "10") Integer maxResults) {
-        return searchService.search(q, maxResults);
+            @RequestParam(required = false, defaultValue = "10") Integer maxResults,
+            @RequestParam(required = false) List<String> contentTypes,
+            @RequestParam(required = false) List<String> contentType,
+            @RequestParam(required = false) List<String> authors,
+            @RequestParam(required = false) List<String> author,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime uploadedFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime uploadedTo,
+            @RequestParam(required = false) Integer minPageCount,
+            @RequestParam(required = false) Integer minPages,
+            @RequestParam(required = false) Integer maxPageCount,
+            @RequestParam(required = false) Integer maxPages,
+            @RequestParam(required = false) Boolean excludeDuplicates,
+            @RequestParam(required = false, defaultValue = "false") boolean facets,
+            @RequestParam(required = false, defaultValue = "false") boolean hybrid,
+            @RequestParam(required = false, defaultValue = "false") boolean profile,
+            @RequestParam(required = false) String view) {
+        SearchFilters filters = new SearchFilters(concat(contentTypes, contentType), concat(authors, author),
+                uploadedFrom, uploadedTo, minPageCount != null ? minPageCount : minPages,
+                maxPageCount != null ? maxPageCount : maxPages, excludeDuplicates);
+        boolean ids = isIdsView(view, profile);
+        SearchTrace trace = start(request, q, profile);
+        return respond(searchService.search(q, maxResults, filters, facets && !ids, hybrid, trace),
+                facets || profile, ids, request, trace);
     }
     
     /**
-     * Cerca nei documenti con risultati raggruppati e ottimizzati (POST con JSON)
+     * Cerca nei documenti con risultati raggruppati e ottimizzati (POST con JSON).
+     * Accetta opzionalmente "filters" (vedi {@link SearchFilters}), "facets": true, "hybrid": true, "profile": true
+     * e "view": "ids".
      */
     @PostMapping("/query")
-    public List<SearchResultDto> searchPost(@RequestBody Map<String, Object> request) {
+    public ResponseEntity<?> searchPost(HttpServletRequest httpRequest, @RequestBody Map<String, Object> request) {
         String question = (String) request.get("question");
         Integer maxResults = request.containsKey("maxResults") 
             ? (Integer) request.get("maxResults") 
             : 10;
-        return searchService.search(question, maxResults);
+        SearchFilters filters = request.get("filters") != null
+            ? objectMapper.convertValue(request.get("filters"), SearchFilters.class)
+            : null;
+        boolean facets = Boolean.TRUE.equals(request.get("facets"));
+        boolean hybrid = Boolean.TRUE.equals(request.get("hybrid"));
+        boolean profile = Boolean.TRUE.equals(request.get("profile"));
+        boolean ids = isIdsView((String) request.get("view"), profile);
+        SearchTrace trace = start(httpRequest, question, profile);
+        return respond(searchService.search(question, maxResults, filters, facets && !ids, hybrid, trace),
+                facets || profile, ids, httpRequest, trace);
+    }
+
+    /**
+     * Valori di un filtro passati con entrambi i nomi del parametro (null se assenti)
+     */
+    private static List<String> concat(List<String> values, List<String> aliasValues) {
+        if (values == null || aliasValues == null) {
+            return values != null ? values : aliasValues;
+        }
+        List<String> all = new ArrayList<>(values);
+        all.addAll(aliasValues);
+        return all;
+    }
+
+    /**
+     * Il profilo richiede la risposta completa
+     */
+    private static boolean isIdsView(String view, boolean profile) {
+        return VIEW_IDS.equalsIgnoreCase(view) && !profile;
+    }
+
+    /**
+     * La traccia resta nella richiesta: {@link SearchTraceInterceptor} la chiude a risposta scritta
+     */
+    private SearchTrace start(HttpServletRequest request, String query, boolean profile) {
+        SearchTrace trace = tracer.start(query, profile);
+        request.setAttribute(SearchTraceInterceptor.TRACE_ATTRIBUTE, trace);
+        return trace;
+    }
+
+    /**
+     * Senza facet restituisce la sola lista dei risultati (formato storico), altrimenti la risposta completa.
+     * Risultati parziali (time budget scaduto): header X-Search-Partial: true in entrambi i formati.
+     * Con ids restituisce la proiezione minima dei risultati. Da qui alla fine della richiesta il tempo è
+     * della fase "serialize".
+     */
+    private ResponseEntity<?> respond(SearchResponseDto response, boolean facets, boolean ids,
+                                      HttpServletRequest request, SearchTrace trace) {
+        request.setAttribute(SearchTraceInterceptor.SERIALIZE_PHASE_ATTRIBUTE, trace.phase("serialize"));
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+        if (response.isPartial()) {
+            ok.header(PARTIAL_HEADER, "true");
+        }
+        if (ids) {
+            return ok.body(response.getResults().stream().map(SearchResultIdDto::of).toList());
+        }
+        if (facets) {
+            return ok.body(response);
+        }
+        return ok.body(response.getResults());
+    }
+
+    /**
+     * Limite di ricerche concorrenti esaurito: 429 con Retry-After invece di tenere occupato un thread
+     */
+    @ExceptionHandler(SearchService.SearchRejectedException.class)
+    public ResponseEntity<Map<String, String>> searchRejected(SearchService.SearchRejectedException e) {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(error);
     }
     
     /**
      * Ricerca raw per debugging - restituisce tutti i chunk trovati
      */
     @GetMapping("/raw")
-    public List<?> searchRaw(@RequestParam String q) {
+    public List<SearchBackend.ChunkHit> searchRaw(@RequestParam String q) {
         return searchService.searchRaw(q);
     }
     
+    /**
+     * Chunk di un documento a partire da from (es. il contesto attorno a un risultato).
+     * Il checksum del risultato (fileChecksum) permette di leggere dal solo shard del documento.
+     */
+    @GetMapping("/documents/{documentId}/chunks")
+    public List<SearchDocument> getDocumentChunks(
+            @PathVariable String documentId,
+            @RequestParam(required = false) String checksum,
+            @RequestParam(required = false, defaultValue = "0") int from,
+            @RequestParam(required = false, defaultValue = "5") int size) {
+        return searchService.getDocumentChunks(documentId, checksum, from, size);
+    }
+
     /**
      * Restituisce la lista dei nomi file unici indicizzati
      */
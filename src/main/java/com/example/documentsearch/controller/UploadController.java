@@ -1,13 +1,18 @@
 package com.example.documentsearch.controller;
 
+import com.example.documentsearch.backend.SearchBackend;
 import com.example.documentsearch.model.SearchDocument;
 import com.example.documentsearch.model.UploadStatus;
 import com.example.documentsearch.service.DocumentService;
+import com.example.documentsearch.service.IngestScheduler;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -18,6 +23,7 @@ import java.util.concurrent.CompletableFuture;
 public class UploadController {
 
     private final DocumentService documentService;
+    private final IngestScheduler scheduler;
 
     /**
      * Upload asincrono per file grandi - supporta tutti i formati (PDF, DOC, DOCX, XLS, XLSX, TXT, HTML, etc.)
@@ -25,10 +31,13 @@ public class UploadController {
     @PostMapping("/upload-async")
     public ResponseEntity<Map<String, String>> uploadAsync(@RequestParam("file") MultipartFile file) {
         try {
+            // Byte letti prima di accodare: il file temporaneo multipart viene eliminato a fine richiesta,
+            // spesso prima che un worker prenda il task
+            byte[] bytes = file.getBytes();
             CompletableFuture<String> future = documentService.indexDocumentAsync(
                 file.getOriginalFilename(), 
-                file.getInputStream(),
-                file.getSize()
+                new ByteArrayInputStream(bytes),
+                bytes.length
             );
             
             // Attendi un attimo per ottenere il documentId
@@ -46,6 +55,8 @@ public class UploadController {
             
             return ResponseEntity.accepted().body(response);
             
+        } catch (IngestScheduler.IngestRejectedException e) {
+            return rejected(e);
         } catch (Exception e) {
             Map<String, String> error = new HashMap<>();
             error.put("error", e.getMessage());
@@ -64,8 +75,10 @@ public class UploadController {
                 return uploadAsync(file);
             }
             
-            // Altrimenti processa sincrono
-            SearchDocument doc = documentService.indexDocument(file.getOriginalFilename(), file.getBytes());
+            // Altrimenti processa sincrono nella lane interattiva (priorità sul polling bulk)
+            byte[] bytes = file.getBytes();
+            SearchDocument doc = scheduler.run(IngestScheduler.Lane.INTERACTIVE,
+                    () -> documentService.indexDocument(file.getOriginalFilename(), bytes));
             
             // Se doc è null, il file era già presente
             if (doc == null) {
@@ -77,6 +90,10 @@ public class UploadController {
             
             return ResponseEntity.ok(doc);
             
+        } catch (IngestScheduler.IngestRejectedException e) {
+            return rejected(e);
+        } catch (SearchBackend.DuplicateCheckUnavailableException e) {
+            return unavailable(e);
         } catch (Exception e) {
             Map<String, String> error = new HashMap<>();
             error.put("error", e.getMessage());
@@ -84,6 +101,28 @@ public class UploadController {
         }
     }
     
+    /**
+     * Coda di ingestion piena: 429 con Retry-After, il client ripete l'upload più tardi
+     */
+    private ResponseEntity<Map<String, String>> rejected(IngestScheduler.IngestRejectedException e) {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(error);
+    }
+
+    /**
+     * Indice non in grado di dire se il file esiste già: 503 con Retry-After invece di rischiare un duplicato
+     */
+    private ResponseEntity<Map<String, String>> unavailable(SearchBackend.DuplicateCheckUnavailableException e) {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(error);
+    }
+
     /**
      * Controlla lo status di un upload
      */
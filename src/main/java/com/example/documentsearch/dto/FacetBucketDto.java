@@ -0,0 +1,13 @@
+package com.example.documentsearch.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FacetBucketDto {
+    private String key;
+    private Long count; // Numero di documenti distinti (non di chunk)
+}
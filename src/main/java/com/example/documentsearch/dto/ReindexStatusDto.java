@@ -0,0 +1,21 @@
+package com.example.documentsearch.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+public class ReindexStatusDto {
+    private String state; // IDLE, RUNNING, COMPLETED, FAILED
+    private String sourceIndex;
+    private String targetIndex;
+    private String taskId;
+    private Long totalDocuments;
+    private Long copiedDocuments;
+    private Double progress; // 0.0 - 1.0
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private String message;
+}
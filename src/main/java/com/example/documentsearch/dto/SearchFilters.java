@@ -0,0 +1,43 @@
+package com.example.documentsearch.dto;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Filtri strutturati applicati in filter context (senza scoring, cacheabili da Elasticsearch).
+ * Tutti i campi sono opzionali: un campo null o vuoto non filtra.
+ * Nel JSON sono accettati anche i nomi dei parametri GET (contentType, author, minPages, maxPages).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchFilters {
+    @JsonAlias("contentType")
+    private List<String> contentTypes; // Tipi MIME ammessi (OR)
+    @JsonAlias("author")
+    private List<String> authors; // Autori ammessi (OR, match esatto)
+    private LocalDateTime uploadedFrom; // uploadedAt >= uploadedFrom
+    private LocalDateTime uploadedTo; // uploadedAt <= uploadedTo
+    @JsonAlias("minPages")
+    private Integer minPageCount;
+    @JsonAlias("maxPages")
+    private Integer maxPageCount;
+    private Boolean excludeDuplicates; // true = nasconde i quasi duplicati (chunk con duplicateOf)
+
+    @JsonIgnore
+    public boolean isEmpty() {
+        return (contentTypes == null || contentTypes.isEmpty())
+                && (authors == null || authors.isEmpty())
+                && uploadedFrom == null
+                && uploadedTo == null
+                && minPageCount == null
+                && maxPageCount == null
+                && !Boolean.TRUE.equals(excludeDuplicates);
+    }
+}
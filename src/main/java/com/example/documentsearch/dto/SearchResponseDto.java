@@ -0,0 +1,34 @@
+package com.example.documentsearch.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Risposta di ricerca completa: risultati raggruppati per documento e conteggi dei facet
+ * calcolati dalla stessa query (una sola chiamata a Elasticsearch).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchResponseDto {
+    private List<SearchResultDto> results;
+    private Long totalHits; // Numero di chunk che soddisfano query e filtri
+    private Map<String, List<FacetBucketDto>> facets; // contentType, author, uploadedAt, creationDate
+    private boolean partial; // true se il time budget è scaduto: risultati e conteggi incompleti
+
+    // Solo con profile=true: profilo della query calcolato dal motore e millisecondi per fase lato server
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Object profile;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Double> timings;
+
+    public SearchResponseDto(List<SearchResultDto> results, Long totalHits, Map<String, List<FacetBucketDto>> facets,
+                             boolean partial) {
+        this(results, totalHits, facets, partial, null, null);
+    }
+}
@@ -14,6 +14,7 @@ public class SearchResultDto {
     private String documentId;
     private String filename;
     private String fileChecksum;
+    private String duplicateOf; // Checksum dell'originale se il documento è un quasi duplicato
     private Integer chunkIndex;
     private List<String> highlights;
     private Double score;
@@ -0,0 +1,21 @@
+package com.example.documentsearch.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Proiezione minima di un risultato (view=ids): per i client che leggono i dettagli altrove o solo i migliori
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchResultIdDto {
+    private String documentId;
+    private String fileChecksum; // Per leggere i chunk dal solo shard del documento
+    private Double score;
+
+    public static SearchResultIdDto of(SearchResultDto result) {
+        return new SearchResultIdDto(result.getDocumentId(), result.getFileChecksum(), result.getScore());
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.documentsearch.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Risultato dell'estrazione Tika (testo + metadati) salvato nella cache su disco (vedi ExtractedTextCache).
+ *
+ * Chiave: checksum SHA-256 del file originale, quindi lo stesso contenuto non viene mai riparsato,
+ * nemmeno se cambiano il mapping o la dimensione dei chunk.
+ */
+@Data
+@NoArgsConstructor
+public class CachedExtraction {
+    private String fileChecksum;
+    private String filename; // Ultimo nome con cui è stato indicizzato il contenuto
+    private Long fileSize;
+    private Map<String, List<String>> metadata; // Metadati Tika (nome → valori)
+    private String text;
+    private LocalDateTime extractedAt;
+}
@@ -0,0 +1,30 @@
+package com.example.documentsearch.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Checkpoint durevole di un'indicizzazione in corso (vedi IngestJournal).
+ *
+ * I chunk vengono scritti nell'ordine 1..N-1 e per ultimo il chunk 0, che fa da marcatore di commit:
+ * un documento è completo solo quando il suo chunk 0 è presente nell'indice.
+ */
+@Data
+@NoArgsConstructor
+public class IngestCheckpoint {
+    private String documentId;
+    private String filename;
+    private String fileChecksum;
+    private Long fileSize;
+    private String sourceFile; // File sorgente conservato fino al commit
+    private boolean ownedSource; // true se sourceFile è una copia nel journal (da cancellare al commit)
+    private Integer totalChunks;
+    private Integer chunkSize; // Se cambia, i chunk già scritti non sono più validi
+    private Integer lastAckedChunk; // Ultimo chunk (tra 1..N-1) confermato da Elasticsearch, -1 se nessuno
+    private boolean failed; // Fallito senza crash con chunk parziali non scartati: al riavvio si eliminano
+    private String duplicateOf; // Checksum dell'originale se quasi duplicato (la ripresa mantiene la decisione)
+    private LocalDateTime startedAt;
+    private LocalDateTime updatedAt;
+}
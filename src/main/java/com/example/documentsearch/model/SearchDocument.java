@@ -5,11 +5,19 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.InnerField;
+import org.springframework.data.elasticsearch.annotations.MultiField;
+import org.springframework.data.elasticsearch.annotations.Routing;
 
 import java.time.LocalDateTime;
 
+/**
+ * Chunk indicizzato. Il routing per fileChecksum mette tutti i chunk dello stesso file sullo stesso shard:
+ * controllo duplicati, cancellazione e lettura dei chunk di un documento toccano un solo shard.
+ */
 @Data
 @Document(indexName = "documents")
+@Routing("fileChecksum")
 public class SearchDocument {
 
     @Id
@@ -24,12 +32,18 @@ public class SearchDocument {
     @Field(type = FieldType.Keyword)
     private String fileChecksum; // SHA-256 del file originale per de-duplicazione
 
+    @Field(type = FieldType.Keyword)
+    private String duplicateOf; // Checksum del documento di cui questo è un quasi duplicato (NearDuplicateDetector)
+
     @Field(type = FieldType.Text)
     private String content; // Il chunk di testo
     
     // Metadati estratti da Tika
-    @Field(type = FieldType.Text)
-    private String author; // Autore del documento
+    @MultiField(
+            mainField = @Field(type = FieldType.Text),
+            otherFields = @InnerField(suffix = "keyword", type = FieldType.Keyword, ignoreAbove = 256)
+    )
+    private String author; // Autore del documento (author.keyword per filtri e facet)
     
     @Field(type = FieldType.Text)
     private String title; // Titolo del documento
@@ -69,4 +83,7 @@ public class SearchDocument {
 
     @Field(type = FieldType.Keyword)
     private String status; // PROCESSING, COMPLETED, FAILED
+
+    @Field(type = FieldType.Dense_Vector, dims = 384)
+    private float[] contentVector; // Embedding del chunk (ricerca ibrida), calcolato in background da EmbeddingIndexer
 }
@@ -0,0 +1,140 @@
+package com.example.documentsearch.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limite adattivo delle scritture concorrenti verso Elasticsearch (AIMD guidato dalla latenza).
+ *
+ * - latenza vicina alla baseline: il limite cresce di circa 1 ogni "limite" richieste completate
+ * - latenza oltre baseline * tolleranza: il limite scende del 10% (cluster sotto carico)
+ * - richiesta rifiutata (429 / es_rejected_execution_exception): il limite si dimezza
+ *
+ * La baseline è la latenza minima osservata, che risale lentamente per seguire i cambi di carico.
+ * Il limite corrente è esposto come metrica elasticsearch.index.concurrency.limit.
+ */
+@Slf4j
+@Component
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private double baselineMillis = -1;
+
+    private final Counter rejections;
+
+    public AdaptiveConcurrencyLimiter(
+            @Value("${document.index.concurrency.initial:4}") int initialLimit,
+            @Value("${document.index.concurrency.min:1}") int minLimit,
+            @Value("${document.index.concurrency.max:32}") int maxLimit,
+            @Value("${document.index.concurrency.latency-tolerance:2.0}") double latencyTolerance,
+            MeterRegistry meterRegistry) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+
+        Gauge.builder("elasticsearch.index.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Limite corrente di richieste di indicizzazione concorrenti")
+                .register(meterRegistry);
+        Gauge.builder("elasticsearch.index.concurrency.inflight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Richieste di indicizzazione in corso")
+                .register(meterRegistry);
+        this.rejections = Counter.builder("elasticsearch.index.rejections")
+                .description("Richieste rifiutate da Elasticsearch per sovraccarico (429)")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Attende finché il numero di richieste in corso è sotto il limite corrente
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                permitAvailable.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Richiesta completata con successo: aggiorna baseline e limite in base alla latenza
+     */
+    public void onSuccess(long latencyNanos) {
+        double millis = latencyNanos / 1_000_000.0;
+        lock.lock();
+        try {
+            if (baselineMillis < 0 || millis < baselineMillis) {
+                baselineMillis = millis;
+            } else {
+                baselineMillis = baselineMillis * 0.99 + millis * 0.01;
+            }
+
+            if (millis <= baselineMillis * latencyTolerance) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            } else {
+                limit = Math.max(minLimit, limit * 0.9);
+            }
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Elasticsearch ha rifiutato la richiesta per sovraccarico: dimezza il limite
+     */
+    public void onRejected() {
+        lock.lock();
+        try {
+            limit = Math.max(minLimit, limit * 0.5);
+            rejections.increment();
+            log.warn("🐢 Elasticsearch sovraccarico (429): limite di concorrenza ridotto a {}", (int) limit);
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Errore non legato alla capacità del cluster: libera il permesso senza toccare il limite
+     */
+    public void onError() {
+        lock.lock();
+        try {
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    private void release() {
+        inFlight--;
+        permitAvailable.signalAll();
+    }
+}
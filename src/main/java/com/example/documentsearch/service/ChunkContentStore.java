@@ -0,0 +1,538 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.model.SearchDocument;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Archivio locale del testo dei chunk, alternativo al _source di Elasticsearch.
+ *
+ * Con document.content-store.enabled=true l'indice mantiene per "content" solo l'indice invertito
+ * (il campo è escluso dal _source): il testo vive qui, in segmenti append-only letti tramite
+ * memory-mapping, indirizzati da (documentId, chunkIndex). Snippet e ricerca raw leggono da qui
+ * senza trasferire il testo da Elasticsearch.
+ *
+ * Formato di un record: magic, lunghezza documentId, documentId, chunkIndex, lunghezza testo,
+ * testo UTF-8, CRC32. Un chunkIndex -1 è il tombstone di un documento eliminato.
+ * All'avvio i segmenti vengono riletti per ricostruire l'indice in memoria; un record finale
+ * incompleto (crash durante la scrittura) viene troncato.
+ *
+ * La compattazione riscrive nel segmento attivo i record ancora referenziati dei segmenti chiusi con
+ * troppi record sovrascritti o eliminati, poi cancella il segmento. Un tombstone viene riportato avanti solo
+ * se esistono segmenti più vecchi che potrebbero contenere il documento.
+ *
+ * Lo store è locale al nodo: non è compatibile con file-polling.cluster.enabled=true (i chunk indicizzati
+ * da un altro nodo non avrebbero testo qui), e l'avvio fallisce se entrambi sono abilitati.
+ */
+@Slf4j
+@Component
+public class ChunkContentStore {
+
+    private static final int MAGIC = 0xC0A7E5E1;
+    private static final int TOMBSTONE = -1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int HEADER_BYTES = 4 + 2; // magic + lunghezza documentId
+    private static final int TRAILER_BYTES = 4 + 4 + 4; // chunkIndex + lunghezza testo + CRC32 (il testo sta tra i due)
+
+    @Value("${document.content-store.enabled:false}")
+    private boolean enabled;
+
+    @Value("${document.content-store.directory:./content-store}")
+    private String storeDirectory;
+
+    @Value("${document.content-store.segment-size:1GB}")
+    private DataSize segmentSize;
+
+    @Value("${document.content-store.compaction.garbage-ratio:0.5}")
+    private double compactionGarbageRatio; // Quota di byte non più referenziati oltre la quale un segmento è compattato
+
+    @Value("${document.content-store.compaction.interval:600000}")
+    private long compactionIntervalMillis; // 0 = solo compattazione manuale
+
+    @Value("${file-polling.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<String, DistributionSummary> servedBytes = new ConcurrentHashMap<>();
+
+    private Path storeDir;
+    private ScheduledExecutorService compactor;
+
+    // documentId → (chunkIndex → posizione del testo)
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Location>> locations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private volatile Segment active;
+
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final AtomicLong liveChunks = new AtomicLong();
+
+    public ChunkContentStore(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("document.content-store.bytes", this, ChunkContentStore::totalBytes)
+                .description("Dimensione su disco dei segmenti del content store")
+                .register(meterRegistry);
+        Gauge.builder("document.content-store.live-bytes", liveBytes, AtomicLong::get)
+                .description("Byte di testo ancora referenziati dall'indice")
+                .register(meterRegistry);
+        Gauge.builder("document.content-store.chunks", liveChunks, AtomicLong::get)
+                .description("Chunk presenti nel content store")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (clusterEnabled) {
+            throw new IllegalStateException("document.content-store.enabled non è supportato con file-polling.cluster.enabled=true: "
+                    + "il content store è locale al nodo e gli altri nodi non avrebbero il testo dei chunk");
+        }
+        if (segmentSize.toBytes() > Integer.MAX_VALUE) {
+            throw new IllegalStateException("document.content-store.segment-size non può superare 2GB (limite del memory-mapping)");
+        }
+        storeDir = Paths.get(storeDirectory).toAbsolutePath();
+        Files.createDirectories(storeDir);
+
+        List<Path> files;
+        try (Stream<Path> list = Files.list(storeDir)) {
+            files = list.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        for (Path file : files) {
+            Segment segment = new Segment(segmentId(file), file);
+            segments.put(segment.id, segment);
+            recover(segment);
+            active = segment;
+        }
+        if (active == null) {
+            active = openSegment(0);
+        }
+        log.info("📚 Content store: {} chunk in {} segmenti ({} bytes) in {}",
+                liveChunks.get(), segments.size(), totalBytes(), storeDir);
+
+        if (compactionIntervalMillis > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "content-store-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+            compactor.scheduleWithFixedDelay(this::compactQuietly, compactionIntervalMillis, compactionIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                log.debug("Chiusura segmento {} fallita: {}", segment.path, e.getMessage());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Salva il testo di un batch di chunk in modo durevole (un solo fsync per batch)
+     */
+    public void append(List<SearchDocument> batch) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            for (SearchDocument doc : batch) {
+                if (doc.getContent() != null) {
+                    write(doc.getDocumentId(), doc.getChunkIndex(), doc.getContent());
+                }
+            }
+            active.channel.force(false);
+        }
+    }
+
+    /**
+     * Testo di un chunk, decodificato direttamente dalla regione mappata del segmento
+     */
+    public Optional<String> get(String documentId, Integer chunkIndex) {
+        if (!enabled || documentId == null || chunkIndex == null) {
+            return Optional.empty();
+        }
+        // Al secondo tentativo la posizione è già quella scritta dalla compattazione che ha rimosso il segmento
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Map<Integer, Location> chunks = locations.get(documentId);
+            Location location = chunks == null ? null : chunks.get(chunkIndex);
+            if (location == null) {
+                return Optional.empty();
+            }
+            Segment segment = segments.get(location.segment());
+            if (segment == null) {
+                continue;
+            }
+            try {
+                ByteBuffer text = segment.slice(location.offset(), location.length());
+                return Optional.of(StandardCharsets.UTF_8.decode(text).toString());
+            } catch (IOException e) {
+                if (segments.containsKey(location.segment())) {
+                    log.warn("⚠️ Lettura del chunk {}_{} dal content store fallita: {}", documentId, chunkIndex, e.getMessage());
+                    return Optional.empty();
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Byte di una risposta (testo o snippet) prodotti dal content store invece che trasferiti da Elasticsearch:
+     * il risparmio sulla risposta del cluster, oltre a quello sullo storage dell'indice
+     */
+    public void recordServed(String operation, long bytes) {
+        if (!enabled || bytes <= 0) {
+            return;
+        }
+        servedBytes.computeIfAbsent(operation, op -> DistributionSummary.builder("document.content-store.served-bytes")
+                        .description("Byte di testo nelle risposte letti dal content store invece che dal _source")
+                        .baseUnit("bytes")
+                        .tag("operation", op)
+                        .register(meterRegistry))
+                .record(bytes);
+    }
+
+    /**
+     * Elimina tutti i chunk di un documento (tombstone durevole)
+     */
+    public void delete(String documentId) throws IOException {
+        if (!enabled || !locations.containsKey(documentId)) {
+            return;
+        }
+        synchronized (this) {
+            write(documentId, TOMBSTONE, "");
+            active.channel.force(false);
+        }
+    }
+
+    /**
+     * Statistiche per il confronto con la dimensione dell'indice
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        if (enabled) {
+            stats.put("directory", storeDir.toString());
+            stats.put("segments", segments.size());
+            stats.put("documents", locations.size());
+            stats.put("chunks", liveChunks.get());
+            stats.put("totalBytes", totalBytes());
+            stats.put("liveBytes", liveBytes.get());
+            Map<String, Object> served = new TreeMap<>();
+            servedBytes.forEach((operation, summary) -> served.put(operation, Map.of(
+                    "responses", summary.count(),
+                    "bytes", (long) summary.totalAmount())));
+            stats.put("servedBytes", served);
+        }
+        return stats;
+    }
+
+    /**
+     * Compatta i segmenti chiusi con una quota di byte non referenziati oltre la soglia; restituisce i byte recuperati.
+     *
+     * I record vivi sono copiati uno alla volta con il lock dello store, quindi le scritture concorrenti non
+     * restano bloccate per tutta la copia; il segmento viene cancellato solo dopo l'fsync delle copie.
+     */
+    public long compact() throws IOException {
+        if (!enabled) {
+            return 0;
+        }
+        long reclaimed = 0;
+        List<Segment> candidates = segments.values().stream()
+                .filter(s -> s != active && s.size.get() > 0
+                        && 1.0 - (double) s.live.get() / s.size.get() >= compactionGarbageRatio)
+                .sorted(Comparator.comparingInt(s -> s.id))
+                .toList();
+        for (Segment segment : candidates) {
+            long garbage = segment.size.get() - segment.live.get();
+            if (compact(segment)) {
+                reclaimed += garbage;
+            }
+        }
+        if (reclaimed > 0) {
+            log.info("🧹 Content store compattato: {} bytes recuperati, {} segmenti", reclaimed, segments.size());
+        }
+        return reclaimed;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.warn("⚠️ Compattazione del content store fallita: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Sposta i record vivi di un segmento nel segmento attivo e lo cancella.
+     * Si ferma (lasciando il segmento, le copie già fatte sono innocue) se un tombstone non può essere né
+     * scartato né riportato avanti: il documento è stato reindicizzato dopo l'eliminazione e un segmento più
+     * vecchio ne contiene ancora i chunk precedenti.
+     */
+    private boolean compact(Segment segment) throws IOException {
+        MappedByteBuffer map = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size.get());
+        long end = scan(segment, map, (documentId, chunkIndex, textOffset, textLength) -> {
+            synchronized (this) {
+                if (chunkIndex == TOMBSTONE) {
+                    boolean olderSegments = segments.keySet().stream().anyMatch(id -> id < segment.id);
+                    if (!olderSegments) {
+                        return true;
+                    }
+                    if (locations.containsKey(documentId)) {
+                        log.debug("Compattazione di {} rinviata: {} reindicizzato dopo l'eliminazione",
+                                segment.path.getFileName(), documentId);
+                        return false;
+                    }
+                    write(documentId, TOMBSTONE, new byte[0]);
+                    return true;
+                }
+                Map<Integer, Location> chunks = locations.get(documentId);
+                Location current = chunks == null ? null : chunks.get(chunkIndex);
+                if (current != null && current.segment() == segment.id && current.offset() == textOffset) {
+                    byte[] text = new byte[textLength];
+                    map.get(textOffset, text);
+                    write(documentId, chunkIndex, text);
+                }
+                return true;
+            }
+        });
+        if (end < segment.size.get()) {
+            return false;
+        }
+        synchronized (this) {
+            active.channel.force(false);
+            segments.remove(segment.id);
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        }
+        log.debug("🧹 Segmento {} compattato ({} bytes)", segment.path.getFileName(), segment.size.get());
+        return true;
+    }
+
+    public long totalBytes() {
+        return segments.values().stream().mapToLong(s -> s.size.get()).sum();
+    }
+
+    /**
+     * Scrive un record nel segmento attivo (chiamato con il lock dello store)
+     */
+    private void write(String documentId, int chunkIndex, String content) throws IOException {
+        write(documentId, chunkIndex, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void write(String documentId, int chunkIndex, byte[] text) throws IOException {
+        byte[] key = documentId.getBytes(StandardCharsets.UTF_8);
+        int recordLength = HEADER_BYTES + key.length + TRAILER_BYTES + text.length;
+
+        if (active.size.get() + recordLength > segmentSize.toBytes() && active.size.get() > 0) {
+            active.channel.force(false);
+            active = openSegment(active.id + 1);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(recordLength);
+        record.putInt(MAGIC).putShort((short) key.length).put(key)
+                .putInt(chunkIndex).putInt(text.length).put(text);
+        record.putInt((int) crc(record.array(), recordLength - 4));
+        record.flip();
+
+        long offset = active.size.get();
+        while (record.hasRemaining()) {
+            active.channel.write(record, offset + record.position());
+        }
+        active.size.addAndGet(recordLength);
+
+        apply(documentId, chunkIndex,
+                new Location(active.id, (int) (offset + HEADER_BYTES + key.length + 8), text.length, recordLength));
+    }
+
+    /**
+     * Aggiorna l'indice in memoria con un record (scritto ora o riletto all'avvio)
+     */
+    private void apply(String documentId, int chunkIndex, Location location) {
+        if (chunkIndex == TOMBSTONE) {
+            Map<Integer, Location> removed = locations.remove(documentId);
+            if (removed != null) {
+                removed.values().forEach(this::release);
+            }
+            return;
+        }
+        Location previous = locations.computeIfAbsent(documentId, k -> new ConcurrentHashMap<>())
+                .put(chunkIndex, location);
+        if (previous != null) {
+            release(previous);
+        }
+        liveChunks.incrementAndGet();
+        liveBytes.addAndGet(location.length());
+        segments.get(location.segment()).live.addAndGet(location.recordLength());
+    }
+
+    private void release(Location location) {
+        liveChunks.decrementAndGet();
+        liveBytes.addAndGet(-location.length());
+        Segment segment = segments.get(location.segment());
+        if (segment != null) {
+            segment.live.addAndGet(-location.recordLength());
+        }
+    }
+
+    /**
+     * Rilegge un segmento all'avvio; un record finale incompleto o corrotto viene troncato
+     */
+    private void recover(Segment segment) throws IOException {
+        long fileSize = segment.channel.size();
+        MappedByteBuffer map = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        long position = scan(segment, map, (documentId, chunkIndex, textOffset, textLength) -> {
+            apply(documentId, chunkIndex, new Location(segment.id, textOffset, textLength,
+                    recordLength(documentId, textLength)));
+            return true;
+        });
+        if (position < fileSize) {
+            log.warn("✂️ Content store: record incompleto in {} troncato a {} bytes", segment.path.getFileName(), position);
+            segment.channel.truncate(position);
+        }
+        segment.size.set(position);
+    }
+
+    /**
+     * Visita i record validi di un segmento in ordine; restituisce la posizione dopo l'ultimo record visitato
+     * (prima di un record incompleto o corrotto, o di quello per cui il visitatore ha restituito false)
+     */
+    private long scan(Segment segment, MappedByteBuffer map, RecordVisitor visitor) throws IOException {
+        long size = map.capacity();
+        int position = 0;
+        while (position + HEADER_BYTES <= size) {
+            if (map.getInt(position) != MAGIC) {
+                break;
+            }
+            int keyLength = map.getShort(position + 4);
+            int base = position + HEADER_BYTES + keyLength;
+            if (keyLength < 0 || base + 8 > size) {
+                break;
+            }
+            int chunkIndex = map.getInt(base);
+            int textLength = map.getInt(base + 4);
+            int recordLength = HEADER_BYTES + keyLength + TRAILER_BYTES + textLength;
+            if (textLength < 0 || position + (long) recordLength > size) {
+                break;
+            }
+            byte[] record = new byte[recordLength - 4];
+            map.get(position, record);
+            if ((int) crc(record, record.length) != map.getInt(position + recordLength - 4)) {
+                break;
+            }
+            String documentId = new String(record, HEADER_BYTES, keyLength, StandardCharsets.UTF_8);
+            if (!visitor.visit(documentId, chunkIndex, base + 8, textLength)) {
+                break;
+            }
+            position += recordLength;
+        }
+        return position;
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Segment segment = new Segment(id, storeDir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static int segmentId(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static int recordLength(String documentId, int textLength) {
+        return HEADER_BYTES + documentId.getBytes(StandardCharsets.UTF_8).length + TRAILER_BYTES + textLength;
+    }
+
+    private static long crc(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return crc.getValue();
+    }
+
+    private record Location(int segment, int offset, int length, int recordLength) {
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        boolean visit(String documentId, int chunkIndex, int textOffset, int textLength) throws IOException;
+    }
+
+    /**
+     * Segmento su disco. La mappatura in lettura viene estesa quando il segmento attivo cresce.
+     */
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong size = new AtomicLong();
+        private final AtomicLong live = new AtomicLong(); // Byte dei record ancora referenziati
+        private volatile MappedByteBuffer map;
+
+        private Segment(int id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+
+        private ByteBuffer slice(int offset, int length) throws IOException {
+            MappedByteBuffer current = map;
+            if (current == null || current.capacity() < offset + length) {
+                synchronized (this) {
+                    current = map;
+                    if (current == null || current.capacity() < offset + length) {
+                        current = channel.map(FileChannel.MapMode.READ_ONLY, 0, size.get());
+                        map = current;
+                    }
+                }
+            }
+            return current.slice(offset, length);
+        }
+    }
+}
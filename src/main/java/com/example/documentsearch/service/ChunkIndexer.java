@@ -0,0 +1,331 @@
+package com.example.documentsearch.service;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.model.SearchDocument;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.UncategorizedElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unico punto di scrittura dei chunk verso Elasticsearch.
+ *
+ * Ogni richiesta passa dall'{@link AdaptiveConcurrencyLimiter}: il chiamante attende un permesso
+ * (backpressure naturale verso il parsing), la scrittura viene misurata e, se il cluster risponde
+ * 429 / rejected execution, ritentata con backoff esponenziale e jitter.
+ *
+ * Se il cluster non è raggiungibile (circuit breaker aperto o errore di connessione) il batch
+ * viene scritto nel {@link ChunkSpool} e considerato confermato: il documento non fallisce e
+ * il lavoro di Tika non va perso.
+ *
+ * Con il {@link ChunkContentStore} abilitato il testo dei chunk viene salvato in locale prima di
+ * qualunque scrittura (Elasticsearch o spool): l'indice ne conserva solo l'indice invertito.
+ *
+ * Il chunk 0 (marcatore di commit) di un documento con batch finiti nello spool va anche lui nello spool,
+ * dopo di loro: se il circuito si richiude nel frattempo non deve arrivare a Elasticsearch prima del resto
+ * del documento.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = SearchBackend.PROPERTY, havingValue = SearchBackend.ELASTICSEARCH, matchIfMissing = true)
+public class ChunkIndexer {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final ElasticsearchOperations elastic;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ElasticsearchCircuitBreaker circuitBreaker;
+    private final ChunkSpool spool;
+    private final IndexManager indexManager;
+    private final ChunkContentStore contentStore;
+    private final Timer bulkTimer;
+
+    // Documenti con almeno un batch nello spool, in attesa del loro chunk 0
+    private final Set<String> spooledDocuments = ConcurrentHashMap.newKeySet();
+
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+
+    private final ExecutorService writers = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "es-writer-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    public ChunkIndexer(ElasticsearchOperations elastic,
+                        AdaptiveConcurrencyLimiter limiter,
+                        ElasticsearchCircuitBreaker circuitBreaker,
+                        ChunkSpool spool,
+                        IndexManager indexManager,
+                        ChunkContentStore contentStore,
+                        MeterRegistry meterRegistry,
+                        @Value("${document.index.retry.max-attempts:6}") int maxAttempts,
+                        @Value("${document.index.retry.base-delay:200ms}") Duration baseDelay,
+                        @Value("${document.index.retry.max-delay:10s}") Duration maxDelay) {
+        this.elastic = elastic;
+        this.limiter = limiter;
+        this.circuitBreaker = circuitBreaker;
+        this.spool = spool;
+        this.indexManager = indexManager;
+        this.contentStore = contentStore;
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.bulkTimer = Timer.builder("elasticsearch.index.bulk")
+                .description("Latenza delle richieste bulk di indicizzazione")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writers.shutdown();
+    }
+
+    /**
+     * Invia un batch di chunk in bulk in modo asincrono. Blocca il chiamante finché il limite
+     * di concorrenza non concede un permesso. Con il cluster non disponibile il batch va nello spool.
+     */
+    public CompletableFuture<Void> submit(List<SearchDocument> batch) throws InterruptedException, IOException {
+        contentStore.append(batch);
+        return send(batch, true);
+    }
+
+    /**
+     * Come {@link #submit(List)} per chunk il cui testo è già nel content store (copia tra indici)
+     */
+    public CompletableFuture<Void> resubmit(List<SearchDocument> batch) throws InterruptedException, IOException {
+        return send(batch, false);
+    }
+
+    /**
+     * @param awaitingCommit true per i batch di un documento il cui chunk 0 arriverà con {@link #save(SearchDocument)}
+     */
+    private CompletableFuture<Void> send(List<SearchDocument> batch, boolean awaitingCommit)
+            throws InterruptedException, IOException {
+        ElasticsearchCircuitBreaker.Permit permit = writePermit();
+        if (permit == null) {
+            spool(batch, awaitingCommit);
+            return CompletableFuture.completedFuture(null);
+        }
+        acquireLimit(permit);
+        return CompletableFuture.runAsync(() -> {
+            try {
+                write(batch);
+            } catch (ClusterUnavailableException e) {
+                spoolOrFail(batch, awaitingCommit, e);
+            } finally {
+                circuitBreaker.onProbeAborted(permit);
+            }
+        }, writers);
+    }
+
+    /**
+     * Indicizza un singolo chunk in modo sincrono (con le stesse regole di limite, retry e spool).
+     * Se un batch dello stesso documento è finito nello spool anche il chunk va nello spool, così il replay
+     * (in ordine) lo scrive dopo il resto del documento.
+     */
+    public SearchDocument save(SearchDocument doc) throws InterruptedException, IOException {
+        contentStore.append(List.of(doc));
+        if (spooledDocuments.remove(doc.getDocumentId())) {
+            spool.append(List.of(doc));
+            return doc;
+        }
+        ElasticsearchCircuitBreaker.Permit permit = writePermit();
+        if (permit == null) {
+            spool.append(List.of(doc));
+            return doc;
+        }
+        acquireLimit(permit);
+        try {
+            write(List.of(doc));
+        } catch (ClusterUnavailableException e) {
+            spool.append(List.of(doc));
+        } finally {
+            circuitBreaker.onProbeAborted(permit);
+        }
+        return doc;
+    }
+
+    /**
+     * Reinvia un batch dallo spool: nessun fallback sullo spool, l'errore torna al replayer.
+     * Il permesso del circuito (eventualmente la prova) viene preso qui, subito prima della scrittura.
+     */
+    public CompletableFuture<Void> replay(List<SearchDocument> batch) throws InterruptedException {
+        ElasticsearchCircuitBreaker.Permit permit = writePermit();
+        if (permit == null) {
+            return CompletableFuture.failedFuture(new ClusterUnavailableException(null));
+        }
+        acquireLimit(permit);
+        return CompletableFuture.runAsync(() -> {
+            try {
+                write(batch);
+            } finally {
+                circuitBreaker.onProbeAborted(permit);
+            }
+        }, writers);
+    }
+
+    /**
+     * Si scrive su Elasticsearch solo con gli alias inizializzati e il circuito chiuso (o in prova)
+     */
+    private ElasticsearchCircuitBreaker.Permit writePermit() {
+        return indexManager.isReady() ? circuitBreaker.tryAcquire() : null;
+    }
+
+    /**
+     * Attende il limite di concorrenza; se l'attesa viene interrotta la prova non parte e va liberata
+     */
+    private void acquireLimit(ElasticsearchCircuitBreaker.Permit permit) throws InterruptedException {
+        try {
+            limiter.acquire();
+        } catch (InterruptedException | RuntimeException e) {
+            circuitBreaker.onProbeAborted(permit);
+            throw e;
+        }
+    }
+
+    /**
+     * true se ci sono batch nello spool non ancora reinviati: finché non arrivano a Elasticsearch l'indice
+     * non dice quali documenti esistono
+     */
+    public boolean hasSpooledBatches() {
+        return spool.size() != 0;
+    }
+
+    private void spool(List<SearchDocument> batch, boolean awaitingCommit) throws IOException {
+        spool.append(batch);
+        if (awaitingCommit) {
+            batch.forEach(doc -> spooledDocuments.add(doc.getDocumentId()));
+        }
+    }
+
+    private void spoolOrFail(List<SearchDocument> batch, boolean awaitingCommit, ClusterUnavailableException cause) {
+        try {
+            spool(batch, awaitingCommit);
+        } catch (IOException e) {
+            e.addSuppressed(cause);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Esegue la scrittura con il permesso di concorrenza già acquisito; in caso di rifiuto lo rilascia,
+     * attende con backoff e ne riacquisisce uno nuovo prima di ritentare. Il permesso del circuit breaker
+     * resta quello del chiamante per tutti i tentativi: un 429 della prova non ne chiede una seconda.
+     */
+    private void write(List<SearchDocument> batch) {
+        boolean permitHeld = true;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (!permitHeld) {
+                    limiter.acquire();
+                    permitHeld = true;
+                }
+                long start = System.nanoTime();
+                elastic.save(batch, IndexCoordinates.of(indexManager.writeAlias()));
+                long elapsed = System.nanoTime() - start;
+                bulkTimer.record(Duration.ofNanos(elapsed));
+                limiter.onSuccess(elapsed);
+                circuitBreaker.onSuccess();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Indicizzazione interrotta", e);
+            } catch (RuntimeException e) {
+                if (ElasticsearchCircuitBreaker.isUnavailable(e)) {
+                    limiter.onError();
+                    circuitBreaker.onFailure();
+                    throw new ClusterUnavailableException(e);
+                }
+                if (!isRejection(e)) {
+                    limiter.onError();
+                    throw e;
+                }
+                limiter.onRejected();
+                permitHeld = false;
+
+                if (attempt >= maxAttempts) {
+                    log.error("❌ Elasticsearch ha rifiutato la scrittura per {} tentativi consecutivi", attempt);
+                    throw e;
+                }
+                sleepWithJitter(attempt);
+            }
+        }
+    }
+
+    /**
+     * Backoff esponenziale con "full jitter": attesa casuale tra 0 e base * 2^tentativo (max maxDelay)
+     */
+    private void sleepWithJitter(int attempt) {
+        long cap = Math.min(maxDelay.toMillis(), baseDelay.toMillis() * (1L << Math.min(attempt, 20)));
+        long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+        log.debug("⏳ Nuovo tentativo di indicizzazione tra {}ms (tentativo {})", delay, attempt + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Indicizzazione interrotta", ie);
+        }
+    }
+
+    /**
+     * Riconosce i rifiuti per sovraccarico (HTTP 429: thread pool di scrittura pieno, circuit breaker del cluster)
+     * dagli status restituiti da Elasticsearch, risalendo le cause. Un bulk con errori sui singoli documenti è un
+     * rifiuto solo se tutti i documenti falliti hanno status 429: riscrivere l'intero batch è innocuo (ID
+     * deterministici), mentre un errore diverso (es. mapping) non si risolve ritentando.
+     */
+    static boolean isRejection(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof BulkFailureException bulk) {
+                Map<String, BulkFailureException.FailureDetails> failed = bulk.getFailedDocuments();
+                return !failed.isEmpty() && failed.values().stream()
+                        .allMatch(details -> details.status() != null && details.status() == TOO_MANY_REQUESTS);
+            }
+            if (t instanceof UncategorizedElasticsearchException uee
+                    && uee.getStatusCode() != null && uee.getStatusCode() == TOO_MANY_REQUESTS) {
+                return true;
+            }
+            if (t instanceof ElasticsearchException ee && ee.status() == TOO_MANY_REQUESTS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Elasticsearch non raggiungibile: il chiamante salva il batch nello spool
+     */
+    public static class ClusterUnavailableException extends RuntimeException {
+        public ClusterUnavailableException(Throwable cause) {
+            super("Elasticsearch non disponibile", cause);
+        }
+    }
+}
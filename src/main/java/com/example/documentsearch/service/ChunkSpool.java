@@ -0,0 +1,145 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.model.SearchDocument;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Spool su disco (write-ahead) di batch di chunk pronti per l'indicizzazione.
+ *
+ * Quando Elasticsearch non è disponibile i batch già estratti da Tika vengono scritti qui
+ * (JSON compresso, fsync prima del rename atomico) invece di far fallire il documento;
+ * lo {@link SpoolReplayer} li reinvia in ordine appena il cluster torna disponibile.
+ */
+@Slf4j
+@Component
+public class ChunkSpool {
+
+    private static final String BATCH_SUFFIX = ".batch.gz";
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${document.spool.directory:./spool}")
+    private String spoolDirectory;
+
+    @Value("${document.spool.max-size:10GB}")
+    private DataSize maxSize;
+
+    private Path spoolDir;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong spooledBytes = new AtomicLong();
+
+    public ChunkSpool(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        Gauge.builder("document.spool.batches", this, ChunkSpool::size)
+                .description("Batch in attesa di essere reinviati a Elasticsearch")
+                .register(meterRegistry);
+        Gauge.builder("document.spool.bytes", spooledBytes, AtomicLong::get)
+                .description("Dimensione dello spool su disco")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        spoolDir = Paths.get(spoolDirectory).toAbsolutePath();
+        Files.createDirectories(spoolDir);
+
+        List<Path> existing = pending();
+        for (Path batch : existing) {
+            spooledBytes.addAndGet(Files.size(batch));
+        }
+        if (!existing.isEmpty()) {
+            log.warn("📼 Spool contiene {} batch in attesa di Elasticsearch ({} bytes)",
+                    existing.size(), spooledBytes.get());
+        }
+    }
+
+    /**
+     * Scrive un batch nello spool in modo durevole
+     */
+    public void append(List<SearchDocument> batch) throws IOException {
+        if (spooledBytes.get() >= maxSize.toBytes()) {
+            throw new IOException("Spool pieno (" + maxSize + "): Elasticsearch non disponibile da troppo tempo");
+        }
+
+        // Nome ordinabile: timestamp + sequenza, il replay rispetta l'ordine di scrittura
+        String name = String.format("%013d-%09d", System.currentTimeMillis(), sequence.incrementAndGet());
+        Path target = spoolDir.resolve(name + BATCH_SUFFIX);
+        Path tmp = spoolDir.resolve(name + ".tmp");
+
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            GZIPOutputStream gzip = new GZIPOutputStream(fos);
+            objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(gzip, batch);
+            gzip.finish();
+            fos.flush();
+            fos.getFD().sync(); // Durevole prima di renderlo visibile al replayer
+        }
+
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target);
+        }
+        spooledBytes.addAndGet(Files.size(target));
+        log.warn("📼 Batch di {} chunk salvato nello spool: {}", batch.size(), target.getFileName());
+    }
+
+    /**
+     * Batch in attesa, in ordine di scrittura
+     */
+    public List<Path> pending() throws IOException {
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(BATCH_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public List<SearchDocument> read(Path batch) throws IOException {
+        try (InputStream is = new GZIPInputStream(Files.newInputStream(batch))) {
+            return objectMapper.readValue(is, new TypeReference<List<SearchDocument>>() {
+            });
+        }
+    }
+
+    /**
+     * Rimuove un batch dopo che Elasticsearch lo ha confermato
+     */
+    public void remove(Path batch) throws IOException {
+        long size = Files.size(batch);
+        if (Files.deleteIfExists(batch)) {
+            spooledBytes.addAndGet(-size);
+        }
+    }
+
+    public int size() {
+        try {
+            return pending().size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
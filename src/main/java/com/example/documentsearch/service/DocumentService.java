@@ -1,56 +1,101 @@
 package com.example.documentsearch.service;
 
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.model.CachedExtraction;
+import com.example.documentsearch.model.IngestCheckpoint;
 import com.example.documentsearch.model.SearchDocument;
 import com.example.documentsearch.model.UploadStatus;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.tika.Tika;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.metadata.TikaCoreProperties;
-import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.mime.MediaType;
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.BodyContentHandler;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.elasticsearch.client.elc.NativeQuery;
-import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
-import org.springframework.data.elasticsearch.core.SearchHits;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import java.io.InputStream;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class DocumentService {
 
-    private final ElasticsearchOperations elastic;
-    private final Tika tika = new Tika();
+    private final SearchBackend backend;
+    private final IngestJournal journal;
+    private final ExtractedTextCache textCache;
+    private final IngestScheduler scheduler;
+    private final NearDuplicateDetector nearDuplicates;
+    private final TikaParserRegistry parsers;
     
     @Value("${document.chunk.size:5000}")
     private int chunkSize;
+
+    @Value("${document.index.batch-size:100}")
+    private int batchSize;
+
+    @Value("${document.index.concurrency.max:32}")
+    private int maxInFlightBatches;
     
     // In-memory storage per tracking upload status (in produzione usa Redis/DB)
     private final ConcurrentHashMap<String, UploadStatus> uploadStatusMap = new ConcurrentHashMap<>();
 
     /**
-     * Processa in modo asincrono un documento grande dividendolo in chunk.
+     * Processa in modo asincrono un documento grande dividendolo in chunk (lane ASYNC_UPLOAD dello scheduler).
      * Supporta PDF, DOC, DOCX, XLS, XLSX, TXT, HTML e molti altri formati.
+     *
+     * Lo stream passa al task, che lo legge e lo chiude quando un worker lo esegue: deve restare leggibile anche
+     * dopo la fine della richiesta (es. byte già in memoria, non lo stream di un upload multipart).
+     *
+     * @throws IngestScheduler.IngestRejectedException se la coda della lane è piena
      */
-    @Async
     public CompletableFuture<String> indexDocumentAsync(String filename, InputStream inputStream, long fileSize) {
+        return indexDocumentAsync(filename, inputStream, fileSize, null);
+    }
+
+    /**
+     * Come {@link #indexDocumentAsync(String, InputStream, long)} ma con il file sorgente su disco,
+     * che resta il riferimento per la ripresa dopo un crash (nessuna copia nel journal).
+     */
+    public CompletableFuture<String> indexDocumentAsync(String filename, InputStream inputStream, long fileSize,
+                                                        Path sourceFile) {
+        return indexDocumentAsync(filename, inputStream, fileSize, sourceFile, IngestScheduler.Lane.ASYNC_UPLOAD);
+    }
+
+    /**
+     * Come {@link #indexDocumentAsync(String, InputStream, long, Path)} nella lane indicata
+     * (BULK per i file della directory di polling)
+     */
+    public CompletableFuture<String> indexDocumentAsync(String filename, InputStream inputStream, long fileSize,
+                                                        Path sourceFile, IngestScheduler.Lane lane) {
+        return scheduler.submit(lane, () -> indexTracked(filename, inputStream, fileSize, sourceFile));
+    }
+
+    /**
+     * Indicizzazione con tracking dello status (eseguita da un worker dello scheduler)
+     */
+    private String indexTracked(String filename, InputStream inputStream, long fileSize, Path sourceFile)
+            throws Exception {
         String documentId = UUID.randomUUID().toString();
         
         try {
@@ -65,65 +110,89 @@ public class DocumentService {
             
             log.info("Inizio estrazione testo da documento: {} ({})", filename, documentId);
             
-            // Leggi i byte per calcolare checksum ed estrarre metadati
-            byte[] fileBytes = inputStream.readAllBytes();
+            // Leggi i byte per calcolare checksum ed estrarre metadati (lo stream è del task)
+            byte[] fileBytes;
+            try (inputStream) {
+                fileBytes = inputStream.readAllBytes();
+            }
             String checksum = calculateChecksum(fileBytes);
             log.info("Checksum calcolato: {}", checksum);
             
-            // Estrai metadati
-            Metadata metadata = extractMetadata(fileBytes);
-            
-            // Verifica se esiste già
-            if (documentExists(filename, checksum)) {
+            // Indicizzazione interrotta in precedenza? Riprendi con lo stesso documentId
+            IngestCheckpoint checkpoint = journal.resume(filename, checksum).orElse(null);
+            if (checkpoint != null) {
+                log.warn("📒 Ripresa indicizzazione interrotta di {} dal chunk {} ({})",
+                        filename, checkpoint.getLastAckedChunk() + 1, checkpoint.getDocumentId());
+                uploadStatusMap.remove(documentId);
+                documentId = checkpoint.getDocumentId();
+                status.setDocumentId(documentId);
+                uploadStatusMap.put(documentId, status);
+            } else if (backend.documentExists(filename, checksum)) {
                 log.info("⚠️ Documento già esistente (stesso nome e checksum): {} - SKIP", filename);
                 status.setStatus("SKIPPED");
                 status.setMessage("File già indicizzato (stesso contenuto)");
-                return CompletableFuture.completedFuture(documentId);
+                return documentId;
+            } else {
+                checkpoint = journal.begin(documentId, filename, checksum, fileBytes, sourceFile, chunkSize);
             }
-            
-            // Estrai tutto il testo usando Tika (rileva automaticamente il formato)
-            String text = tika.parseToString(new java.io.ByteArrayInputStream(fileBytes));
-            
-            log.info("Testo estratto: {} caratteri. Inizio chunking...", text.length());
-            
-            // Dividi in chunk
-            List<String> chunks = splitIntoChunks(text, chunkSize);
-            status.setTotalChunks(chunks.size());
-            
-            log.info("Creati {} chunk. Inizio indicizzazione...", chunks.size());
-            
-            // Indicizza ogni chunk
-            List<SearchDocument> documents = new ArrayList<>();
-            for (int i = 0; i < chunks.size(); i++) {
-                SearchDocument doc = new SearchDocument();
-                doc.setId(UUID.randomUUID().toString());
-                doc.setDocumentId(documentId);
-                doc.setFilename(filename);
-                doc.setFileChecksum(checksum);
-                doc.setContent(chunks.get(i));
-                doc.setChunkIndex(i);
-                doc.setTotalChunks(chunks.size());
-                doc.setFileSize(fileSize);
-                doc.setUploadedAt(LocalDateTime.now());
-                doc.setStatus("COMPLETED");
-                
-                // Applica metadati (uguali per tutti i chunk dello stesso documento)
-                applyMetadata(doc, metadata);
-                
-                elastic.save(doc);
-                documents.add(doc);
-                
-                status.setProcessedChunks(i + 1);
-                log.debug("Indicizzato chunk {}/{}", i + 1, chunks.size());
+
+            List<String> chunks;
+            try {
+                // Estrai testo e metadati (dalla cache se il contenuto è già stato parsato)
+                CachedExtraction extraction = extract(filename, checksum, fileBytes);
+                Metadata metadata = toMetadata(extraction);
+                String text = extraction.getText();
+
+                log.info("Testo estratto: {} caratteri. Inizio chunking...", text.length());
+
+                long[] signature = nearDuplicates.isEnabled() ? nearDuplicates.signature(text) : null;
+                NearDuplicateDetector.Match duplicate = findNearDuplicate(checkpoint, signature);
+                if (duplicate != null && nearDuplicates.action() == NearDuplicateDetector.Action.SKIP) {
+                    journal.complete(checkpoint);
+                    status.setStatus("SKIPPED");
+                    status.setMessage(String.format("Quasi duplicato di %s (similarità %.0f%%)",
+                            duplicate.filename(), duplicate.similarity() * 100));
+                    return documentId;
+                }
+
+                // Dividi in chunk
+                chunks = splitIntoChunks(text, chunkSize);
+                status.setTotalChunks(chunks.size());
+
+                log.info("Creati {} chunk. Inizio indicizzazione...", chunks.size());
+
+                indexChunks(checkpoint, chunks, metadata, status);
+            } catch (Exception e) {
+                abandon(checkpoint, e);
+                throw e;
             }
-            
+            journal.complete(checkpoint);
+
             status.setStatus("COMPLETED");
             status.setMessage("Documento indicizzato con successo in " + chunks.size() + " chunk");
-            
+
             log.info("Indicizzazione completata per: {} ({})", filename, documentId);
-            
-            return CompletableFuture.completedFuture(documentId);
-            
+
+            return documentId;
+
+        } catch (IngestJournal.IngestInProgressException e) {
+            log.info("⏳ {} - SKIP", e.getMessage());
+            UploadStatus status = uploadStatusMap.get(documentId);
+            if (status != null) {
+                status.setStatus("SKIPPED");
+                status.setMessage("File già in indicizzazione");
+            }
+            return documentId;
+
+        } catch (SearchBackend.DuplicateCheckUnavailableException e) {
+            log.warn("⏳ {}", e.getMessage());
+            UploadStatus status = uploadStatusMap.get(documentId);
+            if (status != null) {
+                status.setStatus("FAILED");
+                status.setMessage("Indice non disponibile: ripetere l'upload tra " + e.getRetryAfterSeconds() + "s");
+            }
+            throw e;
+
         } catch (Exception e) {
             log.error("Errore durante l'indicizzazione di: " + filename, e);
             
@@ -133,7 +202,7 @@ public class DocumentService {
                 status.setMessage("Errore: " + e.getMessage());
             }
             
-            return CompletableFuture.failedFuture(e);
+            throw e;
         }
     }
     
@@ -142,52 +211,225 @@ public class DocumentService {
      * Supporta tutti i formati rilevati da Apache Tika.
      */
     public SearchDocument indexDocument(String filename, InputStream inputStream) throws Exception {
+        return indexDocument(filename, inputStream, null);
+    }
+
+    /**
+     * Metodo sincrono con il file sorgente su disco (usato dal polling Camel)
+     */
+    public SearchDocument indexDocument(String filename, InputStream inputStream, Path sourceFile) throws Exception {
         // Leggi i byte per calcolare checksum ed estrarre metadati
         byte[] fileBytes = inputStream.readAllBytes();
         String checksum = calculateChecksum(fileBytes);
         log.info("Checksum calcolato per file sincrono: {}", checksum);
         
-        // Estrai metadati
-        Metadata metadata = extractMetadata(fileBytes);
-        
-        // Verifica se esiste già
-        if (documentExists(filename, checksum)) {
-            log.info("⚠️ Documento già esistente (stesso nome e checksum): {} - SKIP", filename);
+        // Indicizzazione interrotta in precedenza? Riprendi, altrimenti verifica se esiste già
+        IngestCheckpoint checkpoint;
+        try {
+            checkpoint = journal.resume(filename, checksum).orElse(null);
+            if (checkpoint != null) {
+                log.warn("📒 Ripresa indicizzazione interrotta di {} dal chunk {} ({})",
+                        filename, checkpoint.getLastAckedChunk() + 1, checkpoint.getDocumentId());
+            } else if (backend.documentExists(filename, checksum)) {
+                log.info("⚠️ Documento già esistente (stesso nome e checksum): {} - SKIP", filename);
+                return null; // Ritorna null per indicare skip
+            } else {
+                checkpoint = journal.begin(UUID.randomUUID().toString(), filename, checksum, fileBytes, sourceFile,
+                        chunkSize);
+            }
+        } catch (IngestJournal.IngestInProgressException e) {
+            log.info("⏳ {} - SKIP", e.getMessage());
             return null; // Ritorna null per indicare skip
         }
-        
-        String text = tika.parseToString(new java.io.ByteArrayInputStream(fileBytes));
-        String documentId = UUID.randomUUID().toString();
-        
-        // Usa chunking anche per file piccoli
-        List<String> chunks = splitIntoChunks(text, chunkSize);
-        log.info("Creati {} chunk per file sincrono: {}", chunks.size(), filename);
-        
-        SearchDocument lastDoc = null;
-        for (int i = 0; i < chunks.size(); i++) {
-            SearchDocument doc = new SearchDocument();
-            doc.setId(UUID.randomUUID().toString());
-            doc.setDocumentId(documentId);
-            doc.setFilename(filename);
-            doc.setFileChecksum(checksum);
-            doc.setContent(chunks.get(i));
-            doc.setChunkIndex(i);
-            doc.setTotalChunks(chunks.size());
-            doc.setUploadedAt(LocalDateTime.now());
-            doc.setStatus("COMPLETED");
-            
-            // Applica metadati
-            applyMetadata(doc, metadata);
-            
-            lastDoc = elastic.save(doc);
+
+        SearchDocument commitDoc;
+        try {
+            // Estrai testo e metadati (dalla cache se il contenuto è già stato parsato)
+            CachedExtraction extraction = extract(filename, checksum, fileBytes);
+            Metadata metadata = toMetadata(extraction);
+            String text = extraction.getText();
+
+            long[] signature = nearDuplicates.isEnabled() ? nearDuplicates.signature(text) : null;
+            NearDuplicateDetector.Match duplicate = findNearDuplicate(checkpoint, signature);
+            if (duplicate != null && nearDuplicates.action() == NearDuplicateDetector.Action.SKIP) {
+                journal.complete(checkpoint);
+                return null; // Ritorna null per indicare skip
+            }
+
+            // Usa chunking anche per file piccoli
+            List<String> chunks = splitIntoChunks(text, chunkSize);
+            log.info("Creati {} chunk per file sincrono: {}", chunks.size(), filename);
+
+            commitDoc = indexChunks(checkpoint, chunks, metadata, null);
+        } catch (Exception e) {
+            abandon(checkpoint, e);
+            throw e;
         }
-        
-        return lastDoc; // Ritorna l'ultimo chunk per compatibilità
+        journal.complete(checkpoint);
+
+        return commitDoc; // Ritorna il chunk 0 (marcatore di commit) per compatibilità
     }
-    
+
+    /**
+     * Indicizzazione fallita senza crash: scarta i chunk parziali e chiude il checkpoint, così né un nuovo invio
+     * né il riavvio riprendono un documento già segnalato come fallito. Se il backend non risponde il checkpoint
+     * resta nel journal marcato come fallito (vedi {@link IngestJournal#fail(IngestCheckpoint)}).
+     * Un'interruzione (arresto dell'applicazione) equivale a un crash: il checkpoint resta riprendibile.
+     */
+    private void abandon(IngestCheckpoint checkpoint, Exception cause) {
+        if (cause instanceof InterruptedException) {
+            journal.release(checkpoint);
+            return;
+        }
+        try {
+            deleteDocumentChunks(checkpoint.getDocumentId(), checkpoint.getFileChecksum());
+            journal.complete(checkpoint);
+        } catch (Exception e) {
+            log.warn("⚠️ Chunk parziali di {} non eliminati ({}): restano nel journal fino al riavvio",
+                    checkpoint.getDocumentId(), e.getMessage());
+            journal.fail(checkpoint);
+        }
+    }
+
     public SearchDocument indexDocument(String filename, byte[] bytes) throws Exception {
         return indexDocument(filename, new java.io.ByteArrayInputStream(bytes));
     }
+
+    /**
+     * Cerca un quasi duplicato già indicizzato (o in indicizzazione) e lo annota nel checkpoint (duplicateOf di
+     * tutti i chunk); la firma del documento viene registrata nello stesso momento.
+     * In una ripresa con chunk già scritti vale la decisione (e la registrazione) del primo tentativo.
+     *
+     * @return l'originale, o null se il documento non è un quasi duplicato
+     */
+    private NearDuplicateDetector.Match findNearDuplicate(IngestCheckpoint checkpoint, long[] signature)
+            throws IOException {
+        if (signature == null || (checkpoint.getLastAckedChunk() != null && checkpoint.getLastAckedChunk() >= 0)) {
+            return null;
+        }
+        NearDuplicateDetector.Match match = nearDuplicates.claim(checkpoint.getDocumentId(),
+                        checkpoint.getFileChecksum(), checkpoint.getFilename(), signature)
+                .orElse(null);
+        checkpoint.setDuplicateOf(match != null ? match.checksum() : null);
+        if (match != null) {
+            log.info("🪞 {} è un quasi duplicato di {} (similarità {}%): {}", checkpoint.getFilename(), match.filename(),
+                    Math.round(match.similarity() * 100), nearDuplicates.action() == NearDuplicateDetector.Action.SKIP
+                            ? "SKIP" : "indicizzato con duplicateOf");
+        }
+        return match;
+    }
+
+    /**
+     * Indicizza i chunk a batch (bulk) registrando un checkpoint dopo ogni batch confermato.
+     *
+     * Gli ID dei chunk sono deterministici (documentId_chunkIndex), quindi riscrivere un batch già
+     * inviato prima di un crash sovrascrive gli stessi documenti invece di duplicarli.
+     * I chunk sono scritti nell'ordine 1..N-1 e il chunk 0 per ultimo: la sua presenza nell'indice
+     * è il marcatore di commit usato da {@link SearchBackend#documentExists(String, String)}.
+     *
+     * @return il chunk 0 indicizzato, o null se il testo è vuoto
+     */
+    private SearchDocument indexChunks(IngestCheckpoint checkpoint, List<String> chunks, Metadata metadata,
+                                       UploadStatus status) throws IOException, InterruptedException {
+        int total = chunks.size();
+        int resumeFrom = checkpoint.getLastAckedChunk() + 1;
+
+        // Dimensione chunk cambiata dall'ultimo tentativo: i chunk parziali non corrispondono più
+        if (resumeFrom > 0 && (!Integer.valueOf(total).equals(checkpoint.getTotalChunks())
+                || !Integer.valueOf(chunkSize).equals(checkpoint.getChunkSize()))) {
+            log.warn("♻️ Chunking cambiato per {}: elimino i chunk parziali e riparto da zero", checkpoint.getFilename());
+            deleteDocumentChunks(checkpoint.getDocumentId(), checkpoint.getFileChecksum());
+            resumeFrom = 0;
+        }
+        checkpoint.setTotalChunks(total);
+        checkpoint.setChunkSize(chunkSize);
+        journal.acknowledge(checkpoint, resumeFrom - 1);
+
+        if (total == 0) {
+            return null;
+        }
+
+        LocalDateTime uploadedAt = LocalDateTime.now();
+
+        // I batch sono inviati in pipeline: quanti in parallelo lo decide l'AdaptiveConcurrencyLimiter.
+        // Il checkpoint avanza solo sul prefisso contiguo di batch confermati.
+        Deque<PendingBatch> pending = new ArrayDeque<>();
+        List<SearchDocument> batch = new ArrayList<>(batchSize);
+        for (int i = Math.max(resumeFrom, 1); i < total; i++) {
+            batch.add(buildChunk(checkpoint, chunks, i, metadata, uploadedAt));
+            if (batch.size() == batchSize || i == total - 1) {
+                pending.add(new PendingBatch(i, backend.submit(batch)));
+                batch = new ArrayList<>(batchSize);
+                acknowledgeCompleted(checkpoint, pending, status, false);
+            }
+        }
+        acknowledgeCompleted(checkpoint, pending, status, true);
+
+        // Commit: il chunk 0 rende il documento visibile a documentExists
+        SearchDocument commitDoc = backend.save(buildChunk(checkpoint, chunks, 0, metadata, uploadedAt));
+        if (status != null) {
+            status.setProcessedChunks(total);
+        }
+        return commitDoc;
+    }
+
+    /**
+     * Registra nel journal i batch completati in testa alla coda. Con waitAll attende anche quelli
+     * ancora in corso; limita comunque i batch in volo per documento a maxInFlightBatches.
+     */
+    private void acknowledgeCompleted(IngestCheckpoint checkpoint, Deque<PendingBatch> pending,
+                                      UploadStatus status, boolean waitAll) throws IOException, InterruptedException {
+        while (!pending.isEmpty()) {
+            PendingBatch head = pending.peek();
+            if (!head.future().isDone() && !waitAll && pending.size() < maxInFlightBatches) {
+                return;
+            }
+            try {
+                head.future().get();
+            } catch (ExecutionException e) {
+                throw new IOException("Indicizzazione del batch fino al chunk " + head.lastChunk() + " fallita",
+                        e.getCause());
+            }
+            pending.poll();
+            journal.acknowledge(checkpoint, head.lastChunk());
+            if (status != null) {
+                status.setProcessedChunks(head.lastChunk());
+            }
+            log.debug("Indicizzati chunk fino a {}/{}", head.lastChunk() + 1, checkpoint.getTotalChunks());
+        }
+    }
+
+    private record PendingBatch(int lastChunk, CompletableFuture<Void> future) {
+    }
+
+    private SearchDocument buildChunk(IngestCheckpoint checkpoint, List<String> chunks, int index,
+                                      Metadata metadata, LocalDateTime uploadedAt) {
+        SearchDocument doc = new SearchDocument();
+        doc.setId(checkpoint.getDocumentId() + "_" + index);
+        doc.setDocumentId(checkpoint.getDocumentId());
+        doc.setFilename(checkpoint.getFilename());
+        doc.setFileChecksum(checkpoint.getFileChecksum());
+        doc.setDuplicateOf(checkpoint.getDuplicateOf());
+        doc.setContent(chunks.get(index));
+        doc.setChunkIndex(index);
+        doc.setTotalChunks(chunks.size());
+        doc.setFileSize(checkpoint.getFileSize());
+        doc.setUploadedAt(uploadedAt);
+        doc.setStatus("COMPLETED");
+        
+        // Applica metadati (uguali per tutti i chunk dello stesso documento)
+        applyMetadata(doc, metadata);
+        return doc;
+    }
+
+    /**
+     * Elimina tutti i chunk di un documento (usato per documenti parziali orfani) e la sua firma MinHash
+     */
+    public void deleteDocumentChunks(String documentId, String fileChecksum) throws IOException {
+        backend.deleteDocument(documentId, fileChecksum);
+        nearDuplicates.remove(documentId);
+        log.info("🗑️ Eliminati i chunk del documento {}", documentId);
+    }
     
     /**
      * Ottieni lo status di un upload
@@ -197,23 +439,105 @@ public class DocumentService {
     }
     
     /**
-     * Estrae metadati dal file usando Tika
+     * Estrae testo e metadati con un solo passaggio di Tika, oppure li legge dalla cache
+     * se lo stesso contenuto (checksum) è già stato parsato.
+     */
+    private CachedExtraction extract(String filename, String checksum, byte[] fileBytes) throws Exception {
+        CachedExtraction cached = textCache.get(checksum).orElse(null);
+        if (cached != null) {
+            log.info("🗃️ Testo estratto letto dalla cache, Tika non necessario: {}", filename);
+            if (!filename.equals(cached.getFilename())) {
+                cached.setFilename(filename);
+                textCache.put(cached);
+            }
+            return cached;
+        }
+
+        Parser parser = parsers.parser();
+        BodyContentHandler handler = new BodyContentHandler(-1); // -1 = no limit
+        Metadata metadata = new Metadata();
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, parser); // Estrae anche i documenti incorporati (allegati, archivi)
+        parser.parse(new ByteArrayInputStream(fileBytes), handler, metadata, context);
+
+        CachedExtraction extraction = new CachedExtraction();
+        extraction.setFileChecksum(checksum);
+        extraction.setFilename(filename);
+        extraction.setFileSize((long) fileBytes.length);
+        extraction.setText(handler.toString());
+        extraction.setExtractedAt(LocalDateTime.now());
+        Map<String, List<String>> values = new LinkedHashMap<>();
+        for (String name : metadata.names()) {
+            values.put(name, List.of(metadata.getValues(name)));
+        }
+        extraction.setMetadata(values);
+
+        textCache.put(extraction);
+        return extraction;
+    }
+
+    private static Metadata toMetadata(CachedExtraction extraction) {
+        Metadata metadata = new Metadata();
+        if (extraction.getMetadata() != null) {
+            extraction.getMetadata().forEach((name, values) -> values.forEach(v -> metadata.add(name, v)));
+        }
+        return metadata;
+    }
+
+    /**
+     * Reindicizza un documento già presente nell'indice partendo dal testo in cache, senza Tika (usato dalla
+     * ricostruzione dell'indice). Dalla cache si legge solo il testo (con i metadati estratti, uguali per lo
+     * stesso contenuto): documentId, nome file, uploadedAt e duplicateOf restano quelli del chunk 0 indicizzato.
+     * Chunk 0 scritto per ultimo come marcatore di commit.
+     *
+     * @param committed  chunk 0 del documento nell'indice da ricostruire
+     * @return numero di chunk indicizzati
      */
-    private Metadata extractMetadata(byte[] fileBytes) {
+    public int indexFromCache(SearchDocument committed, CachedExtraction extraction)
+            throws IOException, InterruptedException {
+        IngestCheckpoint document = new IngestCheckpoint();
+        document.setDocumentId(committed.getDocumentId());
+        document.setFilename(committed.getFilename());
+        document.setFileChecksum(committed.getFileChecksum());
+        document.setFileSize(committed.getFileSize() != null ? committed.getFileSize() : extraction.getFileSize());
+        document.setDuplicateOf(committed.getDuplicateOf());
+
+        List<String> chunks = splitIntoChunks(extraction.getText(), chunkSize);
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        Metadata metadata = toMetadata(extraction);
+        LocalDateTime uploadedAt = committed.getUploadedAt() != null ? committed.getUploadedAt() : LocalDateTime.now();
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        List<SearchDocument> batch = new ArrayList<>(batchSize);
+        for (int i = 1; i < chunks.size(); i++) {
+            batch.add(buildChunk(document, chunks, i, metadata, uploadedAt));
+            if (batch.size() == batchSize || i == chunks.size() - 1) {
+                futures.add(backend.submit(batch));
+                batch = new ArrayList<>(batchSize);
+            }
+        }
         try {
-            Parser parser = new AutoDetectParser();
-            BodyContentHandler handler = new BodyContentHandler(-1); // -1 = no limit
-            Metadata metadata = new Metadata();
-            ParseContext context = new ParseContext();
-            
-            parser.parse(new ByteArrayInputStream(fileBytes), handler, metadata, context);
-            return metadata;
-        } catch (Exception e) {
-            log.warn("Errore nell'estrazione metadati: {}", e.getMessage());
-            return new Metadata(); // Ritorna metadata vuoti
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+        } catch (ExecutionException e) {
+            throw new IOException("Indicizzazione dalla cache fallita per " + extraction.getFilename(), e.getCause());
         }
+        backend.save(buildChunk(document, chunks, 0, metadata, uploadedAt));
+        return chunks.size();
     }
     
+    /**
+     * Tipo MIME senza parametri; un valore che Tika non riesce a interpretare resta com'è
+     */
+    private static String baseContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        MediaType mediaType = MediaType.parse(contentType);
+        return mediaType != null ? mediaType.getBaseType().toString() : contentType;
+    }
+
     /**
      * Applica i metadati estratti al documento
      */
@@ -227,8 +551,8 @@ public class DocumentService {
             // Titolo
             doc.setTitle(metadata.get(TikaCoreProperties.TITLE));
             
-            // Content Type
-            doc.setContentType(metadata.get("Content-Type"));
+            // Content Type: solo il tipo base (text/plain; charset=UTF-8 -> text/plain), come nei filtri e nei facet
+            doc.setContentType(baseContentType(metadata.get("Content-Type")));
             
             // Data creazione
             String created = metadata.get(TikaCoreProperties.CREATED);
@@ -307,24 +631,6 @@ public class DocumentService {
         }
     }
     
-    /**
-     * Verifica se esiste già un documento con lo stesso filename e checksum
-     */
-    private boolean documentExists(String filename, String checksum) {
-        NativeQuery query = NativeQuery.builder()
-                .withQuery(q -> q
-                        .bool(b -> b
-                                .must(m -> m.term(t -> t.field("filename.keyword").value(filename)))
-                                .must(m -> m.term(t -> t.field("fileChecksum").value(checksum)))
-                        )
-                )
-                .withMaxResults(1)
-                .build();
-        
-        SearchHits<?> hits = elastic.search(query, SearchDocument.class);
-        return hits.getTotalHits() > 0;
-    }
-    
     /**
      * Dividi il testo in chunk di dimensione specificata
      */
@@ -0,0 +1,163 @@
+package com.example.documentsearch.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+
+/**
+ * Circuit breaker sul client Elasticsearch per le scritture.
+ *
+ * - CLOSED: le richieste passano; dopo failure-threshold errori di connettività consecutivi si apre
+ * - OPEN: le richieste non partono nemmeno (i batch finiscono nello spool) per open-duration
+ * - HALF_OPEN: passa una sola richiesta di prova; se riesce il circuito si richiude, altrimenti si riapre
+ *
+ * Chi ottiene un {@link Permit} di prova deve sempre concluderlo: onSuccess/onFailure se la richiesta ha dato
+ * un esito sulla raggiungibilità del cluster, altrimenti {@link #onProbeAborted(Permit)} (da chiamare in un
+ * finally: è senza effetto se l'esito è già stato riportato). Un permesso di prova mai concluso lascerebbe
+ * il circuito in prova per sempre.
+ */
+@Slf4j
+@Component
+public class ElasticsearchCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Permesso di inviare una richiesta; probe=true se è la richiesta di prova del circuito HALF_OPEN
+     */
+    public record Permit(boolean probe, long generation) {
+    }
+
+    private static final Permit NORMAL = new Permit(false, 0);
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long probeGeneration; // Distingue la prova corrente da quelle già concluse
+
+    public ElasticsearchCircuitBreaker(
+            @Value("${document.spool.breaker.failure-threshold:3}") int failureThreshold,
+            @Value("${document.spool.breaker.open-duration:30s}") Duration openDuration,
+            MeterRegistry meterRegistry) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+
+        Gauge.builder("elasticsearch.circuit.open", this, b -> b.getState() == State.CLOSED ? 0 : 1)
+                .description("1 se il circuit breaker verso Elasticsearch è aperto o in prova")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return il permesso di inviare la richiesta a Elasticsearch, null se il circuito non lo consente
+     */
+    public synchronized Permit tryAcquire() {
+        if (state == State.OPEN && openDurationElapsed()) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+            log.info("🔌 Circuit breaker in prova: verifico se Elasticsearch è tornato disponibile");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                return null;
+            }
+            probeInFlight = true;
+            return new Permit(true, ++probeGeneration);
+        }
+        return state == State.CLOSED ? NORMAL : null;
+    }
+
+    /**
+     * true se {@link #tryAcquire()} concederebbe ora un permesso (senza prenderlo né cambiare stato)
+     */
+    public synchronized boolean isAvailable() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> openDurationElapsed();
+            case HALF_OPEN -> !probeInFlight;
+        };
+    }
+
+    /**
+     * Libera la prova senza un esito (errore non di connettività, interruzione, scrittura mai partita):
+     * la prossima richiesta potrà fare da prova. Senza effetto per i permessi normali o già conclusi.
+     */
+    public synchronized void onProbeAborted(Permit permit) {
+        if (permit != null && permit.probe() && state == State.HALF_OPEN && probeInFlight
+                && permit.generation() == probeGeneration) {
+            probeInFlight = false;
+            log.debug("🔌 Richiesta di prova conclusa senza esito: il circuito resta in prova");
+        }
+    }
+
+    private boolean openDurationElapsed() {
+        return System.currentTimeMillis() - openedAt >= openDuration.toMillis();
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.warn("✅ Elasticsearch di nuovo disponibile: circuit breaker chiuso");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                log.error("🔴 Elasticsearch non raggiungibile: circuit breaker aperto per {}", openDuration);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Tempo minimo prima di un nuovo tentativo a circuito aperto
+     */
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Riconosce gli errori di connettività (cluster giù o irraggiungibile) risalendo le cause
+     */
+    public static boolean isUnavailable(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException
+                    || t instanceof NoRouteToHostException
+                    || t instanceof UnknownHostException
+                    || t instanceof SocketTimeoutException
+                    || t instanceof DataAccessResourceFailureException) {
+                return true;
+            }
+            String message = t.getMessage();
+            if (message != null && (message.contains("Connection refused")
+                    || message.contains("503 Service Unavailable")
+                    || message.contains("no_shard_available_action_exception")
+                    || message.contains("cluster_block_exception"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.model.SearchDocument;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.RefreshPolicy;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.BulkOptions;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calcola in background gli embedding dei chunk già indicizzati e li aggiunge con update parziali.
+ *
+ * L'ingestion non attende mai il modello: i chunk diventano ricercabili subito in modo lessicale
+ * e ricevono il vettore poco dopo. Ad ogni giro vengono letti i chunk senza contentVector, divisi
+ * in batch e passati al pool dedicato di {@link EmbeddingService}. Lo stesso meccanismo completa
+ * i chunk riscritti dopo una ripresa, un replay dello spool o una reindicizzazione.
+ *
+ * Il giro gira su un thread proprio (non sul thread condiviso dei @Scheduled, che resterebbe bloccato in attesa
+ * del modello) e tiene in volo al più {@link EmbeddingService#maxInFlight()} batch. Sono considerati solo gli
+ * indici il cui mapping ha contentVector come dense_vector: le partizioni create prima della ricerca ibrida
+ * ricevono i vettori solo dopo una reindicizzazione.
+ *
+ * Non è compatibile con il {@link ChunkContentStore}: l'update parziale ricostruisce il documento dal _source,
+ * che con lo store abilitato non contiene il testo, e il chunk perderebbe il contenuto nell'indice invertito.
+ * L'avvio fallisce se sono abilitati entrambi. Un batch di embedding fallito esclude i suoi chunk dai giri
+ * successivi senza fermare gli altri batch.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = SearchBackend.PROPERTY, havingValue = SearchBackend.ELASTICSEARCH, matchIfMissing = true)
+public class EmbeddingIndexer {
+
+    private static final String VECTOR_FIELD = "contentVector";
+    private static final int MAX_SKIPPED = 10_000;
+
+    private final EmbeddingService embeddings;
+    private final ElasticsearchOperations elastic;
+    private final IndexManager indexManager;
+    private final ElasticsearchCircuitBreaker circuitBreaker;
+    private final ChunkContentStore contentStore;
+
+    // Chunk senza testo o con errori: esclusi dai giri successivi per non ripeterli all'infinito
+    private final Set<String> skipped = ConcurrentHashMap.newKeySet();
+
+    // Indici fisici già controllati: true se il mapping ha contentVector come dense_vector
+    private final Map<String, Boolean> vectorIndices = new ConcurrentHashMap<>();
+
+    // Indici fisici già controllati: true se i chunk sono instradati per fileChecksum (_routing obbligatorio)
+    private final Map<String, Boolean> routedIndices = new ConcurrentHashMap<>();
+
+    @Value("${document.embedding.interval:5000}")
+    private long intervalMillis;
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean mappingWarned;
+
+    @PostConstruct
+    public void start() {
+        if (!embeddings.isEnabled()) {
+            return;
+        }
+        if (contentStore.isEnabled()) {
+            throw new IllegalStateException("document.embedding.enabled non è supportato con "
+                    + "document.content-store.enabled=true: l'aggiornamento con il vettore ricostruisce il chunk "
+                    + "dal _source, che non contiene il testo");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "embedding-indexer");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::embedPending, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public void embedPending() {
+        if (!embeddings.isEnabled() || !indexManager.isReady()
+                || circuitBreaker.getState() != ElasticsearchCircuitBreaker.State.CLOSED) {
+            return;
+        }
+        try {
+            List<String> indices = indicesWithVectors();
+            if (indices.isEmpty()) {
+                return;
+            }
+
+            long embedded = 0;
+            List<SearchHit<SearchDocument>> page;
+            while (!(page = nextPage(indices)).isEmpty()) {
+                embedded += embedPage(page);
+            }
+            if (embedded > 0) {
+                log.info("🧠 Embedding calcolati per {} chunk", embedded);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Calcolo degli embedding interrotto: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Indici dietro gli alias che possono ricevere il vettore (una volta per indice, il mapping non cambia)
+     */
+    private List<String> indicesWithVectors() throws IOException {
+        Set<String> candidates = new LinkedHashSet<>(indexManager.readIndices());
+        indexManager.writeIndex().ifPresent(candidates::add);
+
+        List<String> indices = new ArrayList<>();
+        List<String> withoutVectors = new ArrayList<>();
+        for (String index : candidates) {
+            Boolean vectors = vectorIndices.get(index);
+            if (vectors == null) {
+                vectors = indexManager.hasDenseVector(index, VECTOR_FIELD);
+                vectorIndices.put(index, vectors);
+            }
+            (vectors ? indices : withoutVectors).add(index);
+        }
+        if (!withoutVectors.isEmpty() && !mappingWarned) {
+            log.warn("⚠️ Gli indici {} non hanno il campo {}: incrementare document.index.version e reindicizzare "
+                    + "per abilitare la ricerca ibrida su tutti i documenti", withoutVectors, VECTOR_FIELD);
+            mappingWarned = true;
+        }
+        return indices;
+    }
+
+    /**
+     * Chunk ancora senza vettore negli indici indicati
+     */
+    private List<SearchHit<SearchDocument>> nextPage(List<String> indices) {
+        List<String> excluded = new ArrayList<>(skipped);
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(q -> q.bool(b -> {
+                    b.mustNot(mn -> mn.exists(e -> e.field(VECTOR_FIELD)));
+                    if (!excluded.isEmpty()) {
+                        b.mustNot(mn -> mn.ids(i -> i.values(excluded)));
+                    }
+                    return b;
+                }))
+                .withSourceFilter(new FetchSourceFilter(null, new String[]{VECTOR_FIELD}))
+                .withMaxResults(embeddings.batchSize() * embeddings.workers())
+                .build();
+        return elastic.search(query, SearchDocument.class,
+                IndexCoordinates.of(indices.toArray(String[]::new))).getSearchHits();
+    }
+
+    /**
+     * Calcola i vettori di una pagina a batch in parallelo e li scrive con un bulk update
+     * (refresh wait_for: la pagina successiva non rivede gli stessi chunk)
+     */
+    private long embedPage(List<SearchHit<SearchDocument>> page) throws Exception {
+        List<SearchHit<SearchDocument>> withText = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        for (SearchHit<SearchDocument> hit : page) {
+            String text = hit.getContent().getContent();
+            if (text == null || text.isBlank()) {
+                skip(hit.getId());
+                continue;
+            }
+            withText.add(hit);
+            texts.add(text);
+        }
+
+        // Backpressure: oltre maxInFlight batch si attende il più vecchio prima di inviarne altri
+        Map<String, List<UpdateQuery>> updatesByIndex = new HashMap<>();
+        Deque<PendingBatch> inFlight = new ArrayDeque<>();
+        for (int i = 0; i < texts.size(); i += embeddings.batchSize()) {
+            if (inFlight.size() >= embeddings.maxInFlight()) {
+                collect(inFlight.poll(), withText, updatesByIndex);
+            }
+            List<String> batch = texts.subList(i, Math.min(i + embeddings.batchSize(), texts.size()));
+            inFlight.add(new PendingBatch(i, batch.size(), embeddings.embedPassages(batch)));
+        }
+        while (!inFlight.isEmpty()) {
+            collect(inFlight.poll(), withText, updatesByIndex);
+        }
+
+        BulkOptions options = BulkOptions.builder().withRefreshPolicy(RefreshPolicy.WAIT_UNTIL).build();
+        for (Map.Entry<String, List<UpdateQuery>> entry : updatesByIndex.entrySet()) {
+            try {
+                elastic.bulkUpdate(entry.getValue(), options, IndexCoordinates.of(entry.getKey()));
+            } catch (RuntimeException e) {
+                // Chunk eliminati nel frattempo o errori puntuali: non riproviamo all'infinito
+                log.warn("⚠️ Aggiornamento degli embedding su {} fallito: {}", entry.getKey(), e.getMessage());
+                entry.getValue().forEach(u -> skip(u.getId()));
+            }
+        }
+        return updatesByIndex.values().stream().mapToLong(List::size).sum();
+    }
+
+    /**
+     * Aggiunge gli update di un batch completato; se il calcolo è fallito (errore del modello, pool saturo)
+     * i chunk del batch vengono esclusi dai giri successivi e si prosegue con gli altri batch
+     */
+    private void collect(PendingBatch batch, List<SearchHit<SearchDocument>> hits,
+                         Map<String, List<UpdateQuery>> updatesByIndex) throws IOException, InterruptedException {
+        float[][] vectors;
+        try {
+            vectors = batch.vectors().get();
+        } catch (ExecutionException e) {
+            List<SearchHit<SearchDocument>> failed = hits.subList(batch.offset(), batch.offset() + batch.size());
+            log.warn("⚠️ Embedding di {} chunk fallito, esclusi dai prossimi giri: {}", failed.size(),
+                    e.getCause() != null ? e.getCause().toString() : e.getMessage());
+            failed.forEach(hit -> skip(hit.getId()));
+            return;
+        }
+        int position = batch.offset();
+        for (float[] vector : vectors) {
+            SearchHit<SearchDocument> hit = hits.get(position++);
+            List<Float> values = new ArrayList<>(vector.length);
+            for (float v : vector) {
+                values.add(v);
+            }
+            UpdateQuery.Builder update = UpdateQuery.builder(hit.getId())
+                    .withDocument(Document.create().append(VECTOR_FIELD, values))
+                    .withRetryOnConflict(3);
+            // Negli indici storici instradati per _id il routing per checksum punterebbe allo shard sbagliato
+            if (isRouted(hit.getIndex())) {
+                update.withRouting(hit.getContent().getFileChecksum());
+            }
+            updatesByIndex.computeIfAbsent(hit.getIndex(), k -> new ArrayList<>()).add(update.build());
+        }
+    }
+
+    private boolean isRouted(String index) throws IOException {
+        Boolean routed = routedIndices.get(index);
+        if (routed == null) {
+            routed = indexManager.requiresRouting(index);
+            routedIndices.put(index, routed);
+        }
+        return routed;
+    }
+
+    private record PendingBatch(int offset, int size, CompletableFuture<float[][]> vectors) {
+    }
+
+    private void skip(String id) {
+        if (skipped.size() >= MAX_SKIPPED) {
+            skipped.clear();
+        }
+        skipped.add(id);
+    }
+}
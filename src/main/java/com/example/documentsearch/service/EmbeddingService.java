@@ -0,0 +1,323 @@
+package com.example.documentsearch.service;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedding locali su CPU con un modello ONNX (es. paraphrase-multilingual-MiniLM-L12-v2 o
+ * multilingual-e5-small esportati in ONNX), senza servizi esterni né accesso alla rete.
+ *
+ * I testi vengono elaborati a batch su un pool dedicato e limitato (document.embedding.workers thread,
+ * ciascuno con document.embedding.threads thread ONNX e coda limitata): il calcolo degli embedding
+ * non sottrae CPU all'ingestion oltre questo budget. Il pool non esegue mai un batch nel thread chiamante:
+ * i chiamanti tengono in volo al più {@link #maxInFlight()} batch e attendono i future per proseguire.
+ *
+ * Il vettore è la media dei token (mean pooling sulla attention mask) normalizzata L2.
+ */
+@Slf4j
+@Service
+public class EmbeddingService {
+
+    @Value("${document.embedding.enabled:false}")
+    private boolean enabled;
+
+    @Value("${document.embedding.model-path:./models/model.onnx}")
+    private String modelPath;
+
+    @Value("${document.embedding.tokenizer-path:./models/tokenizer.json}")
+    private String tokenizerPath;
+
+    @Value("${document.embedding.dimensions:384}")
+    private int dimensions;
+
+    @Value("${document.embedding.max-tokens:256}")
+    private int maxTokens;
+
+    @Value("${document.embedding.batch-size:32}")
+    private int batchSize;
+
+    @Value("${document.embedding.workers:1}")
+    private int workers;
+
+    @Value("${document.embedding.threads:2}")
+    private int threadsPerWorker;
+
+    @Value("${document.embedding.queue-capacity:8}")
+    private int queueCapacity;
+
+    @Value("${document.embedding.query-prefix:}")
+    private String queryPrefix;
+
+    @Value("${document.embedding.passage-prefix:}")
+    private String passagePrefix;
+
+    private final MeterRegistry meterRegistry;
+    private Timer batchTimer;
+    private Counter embeddedTexts;
+
+    private OrtEnvironment environment;
+    private OrtSession session;
+    private HuggingFaceTokenizer tokenizer;
+    private boolean usesTokenTypeIds;
+    private ThreadPoolExecutor pool;
+
+    public EmbeddingService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() throws OrtException, IOException {
+        if (!enabled) {
+            return;
+        }
+        environment = OrtEnvironment.getEnvironment();
+        OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+        options.setIntraOpNumThreads(threadsPerWorker);
+        options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+        session = environment.createSession(modelPath, options);
+        usesTokenTypeIds = session.getInputNames().contains("token_type_ids");
+
+        tokenizer = HuggingFaceTokenizer.newInstance(Paths.get(tokenizerPath), Map.of(
+                "padding", "true",
+                "truncation", "true",
+                "maxLength", String.valueOf(maxTokens)));
+
+        AtomicInteger counter = new AtomicInteger();
+        pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "embedding-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy()); // Coda piena: il future fallisce, vedi embedPassages
+
+        batchTimer = Timer.builder("document.embedding.batch")
+                .description("Tempo di calcolo di un batch di embedding")
+                .register(meterRegistry);
+        embeddedTexts = Counter.builder("document.embedding.texts")
+                .description("Testi trasformati in embedding")
+                .register(meterRegistry);
+        Gauge.builder("document.embedding.queue", pool, p -> p.getQueue().size())
+                .description("Batch di embedding in attesa nel pool dedicato")
+                .register(meterRegistry);
+
+        log.info("🧠 Modello di embedding caricato: {} ({} dimensioni, {} worker x {} thread)",
+                modelPath, dimensions, workers, threadsPerWorker);
+    }
+
+    @PreDestroy
+    public void shutdown() throws OrtException {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        if (session != null) {
+            session.close();
+        }
+        if (tokenizer != null) {
+            tokenizer.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int batchSize() {
+        return batchSize;
+    }
+
+    public int workers() {
+        return workers;
+    }
+
+    /**
+     * Batch che il pool accetta senza rifiutarli (in esecuzione + in coda)
+     */
+    public int maxInFlight() {
+        return workers + queueCapacity;
+    }
+
+    /**
+     * Embedding dei chunk da indicizzare, calcolato sul pool dedicato. Con il pool saturo il future fallisce
+     * con RejectedExecutionException: il chiamante deve attendere i batch già inviati (vedi maxInFlight)
+     */
+    public CompletableFuture<float[][]> embedPassages(List<String> texts) {
+        List<String> prefixed = texts.stream().map(t -> passagePrefix + t).toList();
+        try {
+            return CompletableFuture.supplyAsync(() -> embed(prefixed), pool);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Embedding di una query di ricerca (un solo testo, calcolato nel thread chiamante)
+     */
+    public float[] embedQuery(String query) {
+        return embed(List.of(queryPrefix + query))[0];
+    }
+
+    private float[][] embed(List<String> texts) {
+        long start = System.nanoTime();
+        Encoding[] encodings = tokenizer.batchEncode(texts);
+        int batch = encodings.length;
+        int length = encodings[0].getIds().length;
+
+        long[][] ids = new long[batch][];
+        long[][] mask = new long[batch][];
+        long[][] typeIds = new long[batch][];
+        for (int i = 0; i < batch; i++) {
+            ids[i] = encodings[i].getIds();
+            mask[i] = encodings[i].getAttentionMask();
+            typeIds[i] = encodings[i].getTypeIds();
+        }
+
+        Map<String, OnnxTensor> inputs = new HashMap<>();
+        try {
+            inputs.put("input_ids", OnnxTensor.createTensor(environment, ids));
+            inputs.put("attention_mask", OnnxTensor.createTensor(environment, mask));
+            if (usesTokenTypeIds) {
+                inputs.put("token_type_ids", OnnxTensor.createTensor(environment, typeIds));
+            }
+            try (OrtSession.Result result = session.run(inputs)) {
+                float[][][] hidden = (float[][][]) result.get(0).getValue();
+                float[][] vectors = new float[batch][];
+                for (int i = 0; i < batch; i++) {
+                    vectors[i] = meanPooling(hidden[i], mask[i], length);
+                }
+                embeddedTexts.increment(batch);
+                return vectors;
+            }
+        } catch (OrtException e) {
+            throw new IllegalStateException("Calcolo embedding fallito: " + e.getMessage(), e);
+        } finally {
+            inputs.values().forEach(OnnxTensor::close);
+            batchTimer.record(Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    private float[] meanPooling(float[][] tokens, long[] mask, int length) {
+        float[] vector = new float[dimensions];
+        int count = 0;
+        for (int t = 0; t < length; t++) {
+            if (mask[t] == 0) {
+                continue;
+            }
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] += tokens[t][d];
+            }
+            count++;
+        }
+        double norm = 0;
+        for (int d = 0; d < dimensions; d++) {
+            vector[d] /= Math.max(count, 1);
+            norm += vector[d] * vector[d];
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] /= (float) norm;
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * Benchmark di throughput e memoria su testi sintetici della dimensione di un chunk.
+     * Da eseguire a ingestion ferma: misura solo il modello, con il pool e i batch configurati.
+     */
+    public Map<String, Object> benchmark(int texts, int chunkChars) throws Exception {
+        if (!enabled) {
+            throw new IllegalStateException("Embedding disabilitati (document.embedding.enabled=false)");
+        }
+        String sample = "Il contratto di fornitura prevede la consegna dei documenti entro trenta giorni. "
+                .repeat(Math.max(1, chunkChars / 80));
+        List<String> inputs = new ArrayList<>(texts);
+        for (int i = 0; i < texts; i++) {
+            inputs.add(sample);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long rssBefore = residentSetBytes();
+
+        long start = System.nanoTime();
+        Deque<CompletableFuture<float[][]>> inFlight = new ArrayDeque<>();
+        for (int i = 0; i < inputs.size(); i += batchSize) {
+            if (inFlight.size() >= maxInFlight()) {
+                inFlight.poll().get();
+            }
+            inFlight.add(embedPassages(inputs.subList(i, Math.min(i + batchSize, inputs.size()))));
+        }
+        CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).get();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("texts", texts);
+        report.put("chunkChars", sample.length());
+        report.put("batchSize", batchSize);
+        report.put("workers", workers);
+        report.put("threadsPerWorker", threadsPerWorker);
+        report.put("seconds", seconds);
+        report.put("textsPerSecond", texts / seconds);
+        report.put("modelBytes", Files.size(Path.of(modelPath)));
+        report.put("heapDeltaBytes", heapAfter - heapBefore);
+        report.put("residentSetBytes", residentSetBytes());
+        report.put("residentSetDeltaBytes", rssBefore < 0 ? null : residentSetBytes() - rssBefore);
+        return report;
+    }
+
+    /**
+     * Memoria residente del processo (include la memoria nativa di ONNX Runtime), -1 se non disponibile
+     */
+    private static long residentSetBytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (Exception e) {
+            // Non Linux
+        }
+        return -1;
+    }
+}
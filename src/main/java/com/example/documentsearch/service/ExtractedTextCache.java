@@ -0,0 +1,266 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.model.CachedExtraction;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache su disco del testo e dei metadati estratti da Tika, indicizzata per checksum SHA-256.
+ *
+ * Il parsing è di gran lunga il passo più costoso dell'ingestion: con la cache un re-ingest,
+ * un cambio di mapping o di document.chunk.size riparte dal testo già estratto.
+ * Ogni voce è un file JSON compresso (gzip) scritto con rename atomico; oltre max-size vengono
+ * eliminate le voci usate meno di recente (LRU, l'ordine sopravvive al riavvio tramite il last-modified).
+ */
+@Slf4j
+@Component
+public class ExtractedTextCache {
+
+    private static final String ENTRY_SUFFIX = ".json.gz";
+
+    private final ObjectMapper objectMapper;
+    private final Counter hits;
+    private final Counter misses;
+
+    @Value("${document.text-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${document.text-cache.directory:./text-cache}")
+    private String cacheDirectory;
+
+    @Value("${document.text-cache.max-size:5GB}")
+    private DataSize maxSize;
+
+    private Path cacheDir;
+
+    // checksum → dimensione su disco, in ordine di accesso (la prima voce è la meno usata)
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    public ExtractedTextCache(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.hits = Counter.builder("document.text-cache.hits")
+                .description("Estrazioni Tika evitate grazie alla cache")
+                .register(meterRegistry);
+        this.misses = Counter.builder("document.text-cache.misses")
+                .description("Documenti non presenti nella cache (parsing con Tika)")
+                .register(meterRegistry);
+        Gauge.builder("document.text-cache.entries", this, ExtractedTextCache::size)
+                .description("Documenti presenti nella cache del testo estratto")
+                .register(meterRegistry);
+        Gauge.builder("document.text-cache.bytes", this, ExtractedTextCache::totalBytes)
+                .description("Dimensione su disco della cache del testo estratto")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            log.info("Cache del testo estratto disabilitata");
+            return;
+        }
+        cacheDir = Paths.get(cacheDirectory).toAbsolutePath();
+        Files.createDirectories(cacheDir);
+
+        // Ricostruisce l'ordine LRU dal last-modified (aggiornato ad ogni lettura)
+        List<Path> files;
+        try (Stream<Path> list = Files.list(cacheDir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(ENTRY_SUFFIX))
+                    .sorted(Comparator.comparing(ExtractedTextCache::lastModified))
+                    .toList();
+        }
+        synchronized (this) {
+            for (Path file : files) {
+                long size = Files.size(file);
+                entries.put(checksumOf(file), size);
+                totalBytes += size;
+            }
+        }
+        log.info("🗃️ Cache testo estratto: {} documenti ({} bytes) in {}", entries.size(), totalBytes, cacheDir);
+        evict();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Testo e metadati già estratti per questo checksum, se presenti
+     */
+    public Optional<CachedExtraction> get(String checksum) {
+        if (!enabled || checksum == null) {
+            return Optional.empty();
+        }
+        synchronized (this) {
+            if (entries.get(checksum) == null) {
+                misses.increment();
+                return Optional.empty();
+            }
+        }
+
+        Path file = entryFile(checksum);
+        try (InputStream is = new GZIPInputStream(Files.newInputStream(file))) {
+            CachedExtraction cached = objectMapper.readValue(is, CachedExtraction.class);
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            hits.increment();
+            return Optional.of(cached);
+        } catch (NoSuchFileException e) {
+            forget(checksum);
+        } catch (IOException e) {
+            log.warn("⚠️ Voce della cache illeggibile, verrà riestratta: {} ({})", checksum, e.getMessage());
+            delete(checksum);
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Salva un'estrazione. Un errore di scrittura non fa fallire l'indicizzazione.
+     */
+    public void put(CachedExtraction extraction) {
+        if (!enabled || extraction.getFileChecksum() == null) {
+            return;
+        }
+        String checksum = extraction.getFileChecksum();
+        Path target = entryFile(checksum);
+        Path tmp = cacheDir.resolve(checksum + ".tmp-" + Thread.currentThread().getId());
+
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp);
+                 GZIPOutputStream gzip = new GZIPOutputStream(os)) {
+                objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(gzip, extraction);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            long size = Files.size(target);
+            synchronized (this) {
+                Long previous = entries.put(checksum, size);
+                totalBytes += size - (previous == null ? 0 : previous);
+            }
+            log.debug("🗃️ Testo estratto salvato in cache: {} ({} bytes)", extraction.getFilename(), size);
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile salvare il testo estratto in cache per {}: {}",
+                    extraction.getFilename(), e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // File temporaneo orfano, verrà sovrascritto
+            }
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Elimina la voce di un contenuto non più indicizzato (es. documenti rimossi dalla retention)
+     */
+    public void remove(String checksum) {
+        if (!enabled || checksum == null) {
+            return;
+        }
+        delete(checksum);
+    }
+
+    /**
+     * Checksum presenti in cache, dal meno al più usato di recente (usato dalla ricostruzione dell'indice)
+     */
+    public synchronized List<String> checksums() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Elimina le voci meno usate finché la cache non rientra in max-size
+     */
+    private void evict() {
+        List<String> victims = new ArrayList<>();
+        synchronized (this) {
+            long bytes = totalBytes;
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                if (bytes <= maxSize.toBytes()) {
+                    break;
+                }
+                victims.add(entry.getKey());
+                bytes -= entry.getValue();
+            }
+        }
+        for (String checksum : victims) {
+            delete(checksum);
+        }
+        if (!victims.isEmpty()) {
+            log.info("🧹 Cache testo estratto: rimossi {} documenti meno usati (limite {})", victims.size(), maxSize);
+        }
+    }
+
+    private void delete(String checksum) {
+        try {
+            Files.deleteIfExists(entryFile(checksum));
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile eliminare la voce di cache {}: {}", checksum, e.getMessage());
+        }
+        forget(checksum);
+    }
+
+    private synchronized void forget(String checksum) {
+        Long size = entries.remove(checksum);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private Path entryFile(String checksum) {
+        return cacheDir.resolve(checksum + ENTRY_SUFFIX);
+    }
+
+    private static String checksumOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - ENTRY_SUFFIX.length());
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
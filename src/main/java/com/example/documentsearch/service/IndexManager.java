@@ -0,0 +1,531 @@
+package com.example.documentsearch.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch.indices.CreateIndexRequest;
+import co.elastic.clients.elasticsearch.indices.RolloverRequest;
+import co.elastic.clients.elasticsearch.indices.RolloverResponse;
+import co.elastic.clients.elasticsearch.indices.get_alias.IndexAliases;
+import co.elastic.clients.json.JsonData;
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.model.SearchDocument;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gestisce gli indici fisici versionati dietro due alias:
+ * - read alias (document.index.name, es. "documents"): usato da tutte le ricerche
+ * - write alias ("documents-write"): usato da tutte le scritture
+ *
+ * Gli indici fisici si chiamano documents-v1, documents-v2, ... Un cambio di mapping si applica
+ * creando una nuova versione e copiandoci i dati con {@link ReindexService}, senza downtime.
+ *
+ * Ogni versione può essere divisa in partizioni con il rollover ({@link IndexRolloverService}):
+ * documents-v1, documents-v1-000002, documents-v1-000003, ... Il read alias copre tutte le partizioni,
+ * il write alias indica come write index solo l'ultima.
+ *
+ * L'inizializzazione gira in background (non blocca l'avvio): finché non è completata
+ * l'applicazione risulta "not ready" nel readiness check e le scritture vanno nello spool.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = SearchBackend.PROPERTY, havingValue = SearchBackend.ELASTICSEARCH, matchIfMissing = true)
+public class IndexManager {
+
+    // Formato di uploadedAt nel mapping di SearchDocument
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS");
+
+    private final ElasticsearchClient client;
+    private final ElasticsearchOperations elastic;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final String readAlias;
+    private final String writeAlias;
+    private final int mappingVersion;
+    private final boolean contentStoreEnabled;
+    private final boolean embeddingEnabled;
+    private final int embeddingDimensions;
+
+    private volatile boolean ready;
+    private volatile boolean checksumRouting;
+    private volatile String lastError;
+
+    private final ExecutorService initExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "index-init");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public IndexManager(ElasticsearchClient client,
+                        ElasticsearchOperations elastic,
+                        ObjectMapper objectMapper,
+                        ApplicationEventPublisher eventPublisher,
+                        @Value("${document.index.name:documents}") String readAlias,
+                        @Value("${document.index.version:1}") int mappingVersion,
+                        @Value("${document.content-store.enabled:false}") boolean contentStoreEnabled,
+                        @Value("${document.embedding.enabled:false}") boolean embeddingEnabled,
+                        @Value("${document.embedding.dimensions:384}") int embeddingDimensions) {
+        this.client = client;
+        this.elastic = elastic;
+        this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
+        this.readAlias = readAlias;
+        this.writeAlias = readAlias + "-write";
+        this.mappingVersion = mappingVersion;
+        this.contentStoreEnabled = contentStoreEnabled;
+        this.embeddingEnabled = embeddingEnabled;
+        this.embeddingDimensions = embeddingDimensions;
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void initializeInBackground() {
+        initExecutor.submit(this::initializeWithRetry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        initExecutor.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public String readAlias() {
+        return readAlias;
+    }
+
+    public String writeAlias() {
+        return writeAlias;
+    }
+
+    public int mappingVersion() {
+        return mappingVersion;
+    }
+
+    /**
+     * true se tutti gli indici dietro gli alias instradano i chunk per fileChecksum: solo allora le letture
+     * e le cancellazioni di un documento possono indicare il routing (altrimenti mancherebbero i chunk
+     * degli indici creati prima del routing, instradati per _id)
+     */
+    public boolean isChecksumRouting() {
+        return checksumRouting;
+    }
+
+    public String physicalIndexName(int version) {
+        return readAlias + "-v" + version;
+    }
+
+    /**
+     * Nome della partizione di una versione: la prima coincide con l'indice fisico della versione
+     * (documents-v1), le successive hanno un progressivo (documents-v1-000002)
+     */
+    public String partitionName(int version, int partition) {
+        return partition <= 1 ? physicalIndexName(version) : String.format("%s-%06d", physicalIndexName(version), partition);
+    }
+
+    /**
+     * Riprova con backoff esponenziale (max 30s) finché Elasticsearch non risponde
+     */
+    private void initializeWithRetry() {
+        long delay = 1000;
+        for (int attempt = 1; !Thread.currentThread().isInterrupted(); attempt++) {
+            try {
+                boolean legacyMigrationRequired = initialize();
+                refreshRouting();
+                ready = true;
+                lastError = null;
+                log.info("✅ Indice pronto - lettura: '{}', scrittura: '{}' → {}", readAlias, writeAlias, writeIndex().orElse("?"));
+                eventPublisher.publishEvent(new IndexReadyEvent(legacyMigrationRequired));
+                return;
+            } catch (Exception e) {
+                lastError = e.getMessage();
+                log.warn("⏳ Elasticsearch non ancora disponibile, riprovo tra {}ms... (tentativo {}): {}",
+                        delay, attempt, e.getMessage());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                delay = Math.min(delay * 2, 30_000);
+            }
+        }
+    }
+
+    /**
+     * @return true se esiste un indice storico non versionato da migrare
+     */
+    private boolean initialize() throws IOException {
+        String target = physicalIndexName(mappingVersion);
+
+        if (client.indices().existsAlias(e -> e.name(readAlias)).value()) {
+            String active = activeIndex().orElseThrow();
+            if (!client.indices().existsAlias(e -> e.name(writeAlias)).value()) {
+                addWriteAlias(active);
+            }
+            if (versionOf(active) != mappingVersion) {
+                log.warn("⚠️ Indice attivo {} diverso dalla versione di mapping configurata ({})", active, target);
+                log.warn("💡 Per applicare il nuovo mapping senza downtime: curl -X POST http://localhost:8080/api/admin/reindex");
+            } else if (excludesContent(active) != contentStoreEnabled) {
+                log.warn("⚠️ L'indice {} {} il testo nel _source ma document.content-store.enabled={}: "
+                                + "incrementare document.index.version e reindicizzare",
+                        active, contentStoreEnabled ? "conserva" : "non conserva", contentStoreEnabled);
+            } else if (!requiresRouting(readAlias)) {
+                log.warn("⚠️ L'indice {} non instrada i chunk per fileChecksum: ogni operazione su un documento "
+                        + "interroga tutti gli shard. Incrementare document.index.version e reindicizzare", active);
+            }
+            return false;
+        }
+
+        if (client.indices().exists(e -> e.index(readAlias)).value()) {
+            // Indice storico non versionato: lo migriamo in background su documents-vN
+            log.warn("📦 Trovato indice non versionato '{}': migrazione verso '{}'", readAlias, target);
+            if (!client.indices().exists(e -> e.index(target)).value()) {
+                createPhysicalIndex(target, false);
+            }
+            addWriteAlias(target);
+            return true; // La copia e lo scambio degli alias li fa ReindexService
+        }
+
+        log.info("📦 Creazione indice '{}' con alias '{}' e '{}'...", target, readAlias, writeAlias);
+        createPhysicalIndex(target, true);
+        log.info("✅ Indice '{}' creato con successo con metadati!", target);
+        return false;
+    }
+
+    /**
+     * Pubblicato quando gli alias sono pronti all'uso
+     */
+    public record IndexReadyEvent(boolean legacyMigrationRequired) {
+    }
+
+    /**
+     * true se esiste ancora l'indice storico non versionato che occupa il nome del read alias
+     */
+    public boolean hasLegacyIndex() throws IOException {
+        return !client.indices().existsAlias(e -> e.name(readAlias)).value()
+                && client.indices().exists(e -> e.index(readAlias)).value();
+    }
+
+    /**
+     * Ultima partizione (la più recente) dietro il read alias
+     */
+    public Optional<String> activeIndex() throws IOException {
+        List<String> partitions = readIndices();
+        return partitions.isEmpty() ? Optional.empty() : Optional.of(partitions.get(partitions.size() - 1));
+    }
+
+    /**
+     * Tutte le partizioni dietro il read alias, dalla più vecchia alla più recente
+     */
+    public List<String> readIndices() throws IOException {
+        return aliasIndices(readAlias);
+    }
+
+    /**
+     * Indice fisico che riceve le scritture: quello marcato is_write_index (dopo un rollover le partizioni
+     * precedenti restano dietro il write alias in sola lettura)
+     */
+    public Optional<String> writeIndex() throws IOException {
+        if (!client.indices().existsAlias(e -> e.name(writeAlias)).value()) {
+            return Optional.empty();
+        }
+        Map<String, IndexAliases> indices = client.indices().getAlias(g -> g.name(writeAlias)).result();
+        return indices.entrySet().stream()
+                .filter(e -> indices.size() == 1
+                        || Boolean.TRUE.equals(e.getValue().aliases().get(writeAlias).isWriteIndex()))
+                .map(Map.Entry::getKey)
+                .findFirst();
+    }
+
+    /**
+     * Versione numerica di un indice fisico (documents-v3 → 3, documents-v3-000002 → 3)
+     */
+    public int versionOf(String physicalIndex) {
+        int idx = physicalIndex.lastIndexOf("-v");
+        if (idx < 0) {
+            return 0;
+        }
+        int end = physicalIndex.indexOf('-', idx + 2);
+        try {
+            return Integer.parseInt(physicalIndex.substring(idx + 2, end < 0 ? physicalIndex.length() : end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Progressivo della partizione (documents-v3 → 1, documents-v3-000002 → 2)
+     */
+    public int partitionOf(String physicalIndex) {
+        int idx = physicalIndex.lastIndexOf("-v");
+        int dash = idx < 0 ? -1 : physicalIndex.indexOf('-', idx + 2);
+        try {
+            return dash < 0 ? 1 : Integer.parseInt(physicalIndex.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    private List<String> sortedPartitions(Collection<String> indices) {
+        return indices.stream()
+                .sorted(Comparator.comparingInt(this::versionOf).thenComparingInt(this::partitionOf))
+                .toList();
+    }
+
+    /**
+     * Crea un indice fisico con settings e mapping correnti di {@link SearchDocument}
+     */
+    public void createPhysicalIndex(String name, boolean withAliases) throws IOException {
+        Map<String, Object> body = indexBody();
+        if (withAliases) {
+            body.put("aliases", Map.of(
+                    readAlias, Map.of(),
+                    writeAlias, Map.of("is_write_index", true)));
+        }
+
+        String json = objectMapper.writeValueAsString(body);
+        client.indices().create(CreateIndexRequest.of(b -> b.withJson(new StringReader(json)).index(name)));
+    }
+
+    /**
+     * Rollover del write alias su una nuova partizione della stessa versione, se la partizione corrente
+     * soddisfa le condizioni (max_age, max_primary_shard_size, ...; nessuna condizione = rollover forzato).
+     * La nuova partizione ha settings e mapping correnti ed entra subito nel read alias.
+     *
+     * @return la nuova partizione, vuoto se le condizioni non sono soddisfatte
+     */
+    public Optional<String> rollover(Map<String, Object> conditions) throws IOException {
+        String current = writeIndex()
+                .orElseThrow(() -> new IllegalStateException("Nessun indice dietro il write alias " + writeAlias));
+        String next = partitionName(versionOf(current), partitionOf(current) + 1);
+
+        Map<String, Object> body = indexBody();
+        body.put("aliases", Map.of(readAlias, Map.of()));
+        if (!conditions.isEmpty()) {
+            body.put("conditions", conditions);
+        }
+
+        String json = objectMapper.writeValueAsString(body);
+        RolloverResponse response = client.indices().rollover(RolloverRequest.of(b -> b
+                .withJson(new StringReader(json))
+                .alias(writeAlias)
+                .newIndex(next)));
+        if (!response.rolledOver()) {
+            return Optional.empty();
+        }
+        log.info("🗂️ Rollover di '{}': {} → {} (condizioni {})", writeAlias, current, next, response.conditions());
+        refreshRouting();
+        return Optional.of(next);
+    }
+
+    /**
+     * Elimina una partizione intera (retention): mai il write index
+     */
+    public void dropPartition(String index) throws IOException {
+        if (index.equals(writeIndex().orElse(null))) {
+            throw new IllegalStateException("La partizione " + index + " è il write index corrente");
+        }
+        client.indices().delete(d -> d.index(index));
+        log.info("🗑️ Partizione {} eliminata", index);
+    }
+
+    /**
+     * Settings e mapping correnti di {@link SearchDocument}, con le varianti per content store ed embedding
+     */
+    private Map<String, Object> indexBody() {
+        IndexOperations indexOps = elastic.indexOps(SearchDocument.class);
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("settings", indexOps.createSettings());
+        Map<String, Object> mappings = new LinkedHashMap<>(indexOps.createMapping());
+        if (contentStoreEnabled) {
+            // Il testo dei chunk sta nel ChunkContentStore: Elasticsearch mantiene solo l'indice invertito
+            mappings.put("_source", Map.of("excludes", List.of("content")));
+        }
+        mappings.put("properties", vectorMapping(mappings.get("properties")));
+        // Ogni scrittura deve indicare il routing (fileChecksum, vedi SearchDocument): i chunk di un file stanno su un solo shard
+        mappings.put("_routing", Map.of("required", true));
+        body.put("mappings", mappings);
+        return body;
+    }
+
+    /**
+     * Campo contentVector: dense_vector quantizzato int8 (HNSW) con le dimensioni del modello configurato,
+     * oppure nessun campo se la ricerca ibrida è disabilitata
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> vectorMapping(Object properties) {
+        Map<String, Object> result = new LinkedHashMap<>((Map<String, Object>) properties);
+        if (!embeddingEnabled) {
+            result.remove("contentVector");
+            return result;
+        }
+        Map<String, Object> vector = new LinkedHashMap<>();
+        vector.put("type", "dense_vector");
+        vector.put("dims", embeddingDimensions);
+        vector.put("index", true);
+        vector.put("similarity", "cosine");
+        vector.put("index_options", Map.of("type", "int8_hnsw"));
+        result.put("contentVector", vector);
+        return result;
+    }
+
+    /**
+     * true se nel mapping dell'indice fisico il campo è un dense_vector (indici creati con gli embedding abilitati)
+     */
+    public boolean hasDenseVector(String index, String field) throws IOException {
+        Property property = client.indices().getMapping(g -> g.index(index)).result().get(index).mappings()
+                .properties().get(field);
+        return property != null && property.isDenseVector();
+    }
+
+    /**
+     * true se uno degli indici fisici (o una delle partizioni dietro l'alias) esclude il testo dei chunk dal _source
+     */
+    public boolean excludesContent(String... indices) throws IOException {
+        return client.indices().getMapping(g -> g.index(List.of(indices))).result().values().stream()
+                .map(mapping -> mapping.mappings().source())
+                .anyMatch(source -> source != null && source.excludes().contains("content"));
+    }
+
+    /**
+     * true se l'indice fisico (o tutte le partizioni dietro l'alias) richiede il routing in scrittura
+     */
+    public boolean requiresRouting(String index) throws IOException {
+        return client.indices().getMapping(g -> g.index(index)).result().values().stream()
+                .map(mapping -> mapping.mappings().routing())
+                .allMatch(routing -> routing != null && Boolean.TRUE.equals(routing.required()));
+    }
+
+    /**
+     * Ricalcola se le letture possono usare il routing per checksum (dopo creazione, rollover e spostamento degli alias)
+     */
+    public void refreshRouting() throws IOException {
+        boolean routed = !hasLegacyIndex();
+        for (String alias : List.of(readAlias, writeAlias)) {
+            if (client.indices().existsAlias(e -> e.name(alias)).value()) {
+                routed &= requiresRouting(alias);
+            }
+        }
+        if (routed != checksumRouting) {
+            log.info("🧭 Routing per fileChecksum nelle letture {}", routed ? "attivo" : "disattivato");
+        }
+        checksumRouting = routed;
+    }
+
+    /**
+     * Dimensione su disco degli shard primari di un indice fisico (o di tutte le partizioni dietro l'alias)
+     */
+    public long primaryStoreBytes(String index) throws IOException {
+        return client.indices().stats(s -> s.index(index).metric("store"))
+                .indices().values().stream()
+                .mapToLong(stats -> stats.primaries().store().sizeInBytes())
+                .sum();
+    }
+
+    /**
+     * Sposta il write alias su un nuovo indice in modo atomico, togliendolo da tutte le partizioni precedenti
+     */
+    public void switchWriteAlias(String to) throws IOException {
+        List<String> from = aliasIndices(writeAlias);
+        client.indices().updateAliases(u -> {
+            if (!from.isEmpty()) {
+                u.actions(a -> a.remove(r -> r.indices(from).alias(writeAlias)));
+            }
+            return u.actions(a -> a.add(ad -> ad.index(to).alias(writeAlias).isWriteIndex(true)));
+        });
+        log.info("✍️ Write alias '{}' spostato: {} → {}", writeAlias, from, to);
+        refreshRouting();
+    }
+
+    /**
+     * Aggiunge un indice al read alias accanto alle partizioni esistenti (nuovo indice di una reindicizzazione:
+     * i documenti scritti lì durante la copia devono essere subito ricercabili e visibili al controllo duplicati).
+     * Il filtro dell'alias mostra solo i chunk con uploadedAt >= writtenFrom: i chunk copiati dalle vecchie
+     * partizioni mantengono il loro uploadedAt e restano visibili una sola volta, dalla partizione di origine.
+     * Lo scambio finale ({@link #swapReadAlias(String, String)}) riaggiunge l'indice senza filtro.
+     */
+    public void addReadAlias(String index, LocalDateTime writtenFrom) throws IOException {
+        String from = DATE_FORMAT.format(writtenFrom);
+        client.indices().updateAliases(u -> u.actions(a -> a.add(ad -> ad
+                .index(index)
+                .alias(readAlias)
+                .filter(f -> f.range(r -> r.field("uploadedAt").gte(JsonData.of(from)))))));
+        log.info("📖 Indice {} aggiunto al read alias '{}' (chunk scritti da {})", index, readAlias, from);
+        refreshRouting();
+    }
+
+    /**
+     * Toglie un indice dal read alias (rollback di una reindicizzazione fallita), se è dietro l'alias
+     */
+    public void removeReadAlias(String index) throws IOException {
+        if (!readIndices().contains(index)) {
+            return;
+        }
+        client.indices().updateAliases(u -> u.actions(a -> a.remove(r -> r.index(index).alias(readAlias))));
+        log.info("📖 Indice {} tolto dal read alias '{}'", index, readAlias);
+        refreshRouting();
+    }
+
+    /**
+     * Sposta il read alias su un nuovo indice in modo atomico, togliendolo da tutte le altre partizioni
+     * (il nuovo indice può essere già dietro l'alias, vedi {@link #addReadAlias(String, LocalDateTime)}).
+     * Se legacyIndex è valorizzato, l'indice storico non versionato viene rimosso nella stessa operazione
+     * (libera il nome per l'alias).
+     */
+    public void swapReadAlias(String to, String legacyIndex) throws IOException {
+        List<String> from = legacyIndex != null
+                ? List.of(legacyIndex)
+                : readIndices().stream().filter(index -> !index.equals(to)).toList();
+        client.indices().updateAliases(u -> {
+            if (legacyIndex != null) {
+                u.actions(a -> a.removeIndex(ri -> ri.index(legacyIndex)));
+            } else if (!from.isEmpty()) {
+                u.actions(a -> a.remove(r -> r.indices(from).alias(readAlias)));
+            }
+            return u.actions(a -> a.add(ad -> ad.index(to).alias(readAlias)));
+        });
+        log.info("🔀 Read alias '{}' spostato: {} → {}", readAlias, from, to);
+        refreshRouting();
+    }
+
+    private List<String> aliasIndices(String alias) throws IOException {
+        if (!client.indices().existsAlias(e -> e.name(alias)).value()) {
+            return List.of();
+        }
+        return sortedPartitions(client.indices().getAlias(g -> g.name(alias)).result().keySet());
+    }
+
+    private void addWriteAlias(String index) throws IOException {
+        switchWriteAlias(index);
+    }
+}
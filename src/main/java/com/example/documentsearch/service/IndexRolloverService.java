@@ -0,0 +1,308 @@
+package com.example.documentsearch.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.json.JsonData;
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.model.SearchDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Rollover e retention delle partizioni dell'indice.
+ *
+ * Rollover: quando la partizione corrente supera max-age, max-primary-shard-size o max-docs, il write alias
+ * passa a una nuova partizione (documents-v1-000002, ...) che entra subito nel read alias. Ogni partizione
+ * resta quindi di dimensione limitata: merge, recovery e cancellazioni non peggiorano con la crescita dei dati.
+ *
+ * Retention: le partizioni il cui documento più recente è più vecchio di retention.max-age vengono eliminate
+ * intere, senza delete-by-query. I pochi documenti a cavallo del confine (chunk scritti prima e dopo un rollover)
+ * vengono rimossi dalle partizioni successive con una delete-by-query limitata al confine. I documenti eliminati
+ * escono anche dagli archivi locali: testo del content store, firme dei quasi duplicati, checkpoint del journal
+ * e, se nessun altro documento ha lo stesso contenuto, la cache del testo estratto.
+ *
+ * Nessuna operazione mentre una reindicizzazione è in corso (il write alias non è dietro il read alias).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = SearchBackend.PROPERTY, havingValue = SearchBackend.ELASTICSEARCH, matchIfMissing = true)
+public class IndexRolloverService {
+
+    private static final int ID_BATCH_SIZE = 1000;
+    private static final int MAX_PARTITIONS = 10_000;
+
+    private final ElasticsearchClient client;
+    private final ElasticsearchOperations elastic;
+    private final IndexManager indexManager;
+    private final ReindexService reindexService;
+    private final ChunkContentStore contentStore;
+    private final ExtractedTextCache textCache;
+    private final NearDuplicateDetector nearDuplicates;
+    private final IngestJournal journal;
+    private final ElasticsearchCircuitBreaker circuitBreaker;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${document.index.rollover.enabled:false}")
+    private boolean rolloverEnabled;
+
+    @Value("${document.index.rollover.max-age:30d}")
+    private String maxAge;
+
+    @Value("${document.index.rollover.max-primary-shard-size:50gb}")
+    private String maxPrimaryShardSize;
+
+    @Value("${document.index.rollover.max-docs:0}")
+    private long maxDocs;
+
+    @Value("${document.index.retention.max-age:0d}")
+    private Duration retention; // 0 = retention disabilitata
+
+    private Counter rollovers;
+    private Counter droppedPartitions;
+
+    @PostConstruct
+    public void init() {
+        rollovers = Counter.builder("document.index.rollovers")
+                .description("Rollover del write alias su una nuova partizione")
+                .register(meterRegistry);
+        droppedPartitions = Counter.builder("document.index.partitions.dropped")
+                .description("Partizioni eliminate intere dalla retention")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${document.index.rollover.check-interval:300000}")
+    public void maintainPartitions() {
+        if ((!rolloverEnabled && retention.isZero()) || !indexManager.isReady()
+                || circuitBreaker.getState() != ElasticsearchCircuitBreaker.State.CLOSED
+                || "RUNNING".equals(reindexService.getStatus().getState())) {
+            return;
+        }
+        try {
+            String writeIndex = indexManager.writeIndex().orElse(null);
+            List<String> partitions = indexManager.readIndices();
+            if (writeIndex == null || !partitions.contains(writeIndex)) {
+                log.debug("Write index {} non ancora dietro il read alias (reindicizzazione in corso?): "
+                        + "rollover e retention rimandati", writeIndex);
+                return;
+            }
+            if (rolloverEnabled) {
+                rollover(false);
+            }
+            if (!retention.isZero()) {
+                applyRetention(partitions, writeIndex);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Manutenzione delle partizioni fallita: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Rollover sulla nuova partizione se la corrente soddisfa una delle condizioni configurate (o sempre, con force)
+     *
+     * @return la nuova partizione, vuoto se non è stato necessario
+     */
+    public synchronized Optional<String> rollover(boolean force) throws IOException {
+        String current = indexManager.writeIndex().orElse(null);
+        if (current != null && indexManager.versionOf(current) != indexManager.mappingVersion()) {
+            // La nuova partizione avrebbe un mapping diverso dalle precedenti della stessa versione
+            log.warn("⚠️ Rollover sospeso: il write index {} non è alla versione di mapping configurata ({}), "
+                    + "reindicizzare prima", current, indexManager.mappingVersion());
+            return Optional.empty();
+        }
+        Map<String, Object> conditions = force ? Map.of() : conditions();
+        if (!force && conditions.isEmpty()) {
+            log.warn("⚠️ Rollover abilitato senza condizioni (max-age, max-primary-shard-size, max-docs): nessun rollover");
+            return Optional.empty();
+        }
+        Optional<String> next = indexManager.rollover(conditions);
+        next.ifPresent(index -> rollovers.increment());
+        return next;
+    }
+
+    private Map<String, Object> conditions() {
+        Map<String, Object> conditions = new LinkedHashMap<>();
+        if (!maxAge.isBlank()) {
+            conditions.put("max_age", maxAge);
+        }
+        if (!maxPrimaryShardSize.isBlank()) {
+            conditions.put("max_primary_shard_size", maxPrimaryShardSize);
+        }
+        if (maxDocs > 0) {
+            conditions.put("max_docs", maxDocs);
+        }
+        if (!conditions.isEmpty()) {
+            conditions.put("min_docs", 1); // Mai una partizione vuota dopo l'altra
+        }
+        return conditions;
+    }
+
+    /**
+     * Elimina le partizioni (tranne il write index) con tutti i documenti più vecchi del limite di retention
+     */
+    private void applyRetention(List<String> partitions, String writeIndex) throws IOException {
+        // uploadedAt è un LocalDateTime salvato senza fuso: Elasticsearch lo interpreta come UTC, il confronto pure
+        long cutoff = LocalDateTime.now().minus(retention).toInstant(ZoneOffset.UTC).toEpochMilli();
+        Map<String, Long> newest = newestUploadPerPartition();
+
+        List<String> expired = new ArrayList<>();
+        long boundary = Long.MIN_VALUE;
+        for (String partition : partitions) {
+            long partitionNewest = newest.getOrDefault(partition, Long.MIN_VALUE); // Partizione vuota
+            if (partition.equals(writeIndex) || partitionNewest >= cutoff) {
+                continue;
+            }
+            expired.add(partition);
+            boundary = Math.max(boundary, partitionNewest);
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+
+        log.info("🗓️ Retention {}: eliminazione delle partizioni {}", retention, expired);
+        Query beforeBoundary = boundary != Long.MIN_VALUE ? uploadedUntil(boundary) : null;
+        Map<String, String> expiredDocuments = beforeBoundary != null
+                ? expiredDocuments(beforeBoundary)
+                : Map.of();
+
+        for (String partition : expired) {
+            indexManager.dropPartition(partition);
+            droppedPartitions.increment();
+        }
+
+        if (beforeBoundary != null) {
+            // Documenti a cavallo di un rollover: i chunk rimasti nelle partizioni successive
+            long deleted = client.deleteByQuery(d -> d
+                    .index(indexManager.readAlias())
+                    .query(beforeBoundary)
+                    .conflicts(Conflicts.Proceed)
+                    .refresh(true)
+            ).deleted();
+            if (deleted > 0) {
+                log.info("🗓️ Rimossi {} chunk di documenti a cavallo delle partizioni eliminate", deleted);
+            }
+        }
+        purgeLocalStores(expiredDocuments);
+    }
+
+    /**
+     * Rimuove i documenti eliminati (documentId → checksum) dagli archivi locali, così una ricostruzione
+     * dalla cache o un nuovo invio non li trattano come ancora presenti
+     */
+    private void purgeLocalStores(Map<String, String> expiredDocuments) throws IOException {
+        if (expiredDocuments.isEmpty()) {
+            return;
+        }
+        for (String documentId : expiredDocuments.keySet()) {
+            contentStore.delete(documentId);
+            nearDuplicates.remove(documentId);
+            journal.discard(documentId);
+        }
+        Set<String> checksums = new HashSet<>(expiredDocuments.values());
+        checksums.remove(null);
+        checksums.removeAll(indexedChecksums(checksums)); // Stesso contenuto ancora indicizzato con un altro nome
+        checksums.forEach(textCache::remove);
+        log.info("🗓️ Retention: {} documenti rimossi dagli archivi locali, {} voci della cache del testo eliminate",
+                expiredDocuments.size(), checksums.size());
+    }
+
+    /**
+     * Checksum tra quelli indicati che hanno ancora chunk dietro il read alias
+     */
+    private Set<String> indexedChecksums(Set<String> checksums) throws IOException {
+        Set<String> indexed = new HashSet<>();
+        List<String> all = new ArrayList<>(checksums);
+        for (int from = 0; from < all.size(); from += ID_BATCH_SIZE) {
+            List<FieldValue> batch = all.subList(from, Math.min(from + ID_BATCH_SIZE, all.size())).stream()
+                    .map(FieldValue::of)
+                    .toList();
+            SearchResponse<Void> response = client.search(s -> s
+                            .index(indexManager.readAlias())
+                            .size(0)
+                            .query(q -> q.terms(t -> t.field("fileChecksum").terms(tv -> tv.value(batch))))
+                            .aggregations("checksums", a -> a.terms(t -> t.field("fileChecksum").size(batch.size()))),
+                    Void.class);
+            for (StringTermsBucket bucket : response.aggregations().get("checksums").sterms().buckets().array()) {
+                indexed.add(bucket.key().stringValue());
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * uploadedAt più recente (epoch millis) di ogni partizione dietro il read alias; le partizioni vuote non compaiono
+     */
+    private Map<String, Long> newestUploadPerPartition() throws IOException {
+        SearchResponse<Void> response = client.search(s -> s
+                .index(indexManager.readAlias())
+                .size(0)
+                .aggregations("partitions", a -> a
+                        .terms(t -> t.field("_index").size(MAX_PARTITIONS))
+                        .aggregations("newest", sub -> sub.max(m -> m.field("uploadedAt")))),
+                Void.class);
+
+        Map<String, Long> newest = new HashMap<>();
+        for (StringTermsBucket bucket : response.aggregations().get("partitions").sterms().buckets().array()) {
+            Double value = bucket.aggregations().get("newest").max().value();
+            if (value != null && Double.isFinite(value)) {
+                newest.put(bucket.key().stringValue(), (long) value);
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Documenti completi (chunk 0) che cadono nella retention: documentId → checksum
+     */
+    private Map<String, String> expiredDocuments(Query query) {
+        NativeQuery nativeQuery = NativeQuery.builder()
+                .withQuery(q -> q.bool(b -> b.filter(query).filter(f -> f.term(t -> t.field("chunkIndex").value(0)))))
+                .withSourceFilter(new FetchSourceFilter(new String[]{"documentId", "fileChecksum"}, null))
+                .withPageable(PageRequest.of(0, ID_BATCH_SIZE))
+                .build();
+        Map<String, String> documents = new LinkedHashMap<>();
+        try (SearchHitsIterator<SearchDocument> hits = elastic.searchForStream(nativeQuery, SearchDocument.class,
+                IndexCoordinates.of(indexManager.readAlias()))) {
+            hits.forEachRemaining(hit -> documents.put(hit.getContent().getDocumentId(),
+                    hit.getContent().getFileChecksum()));
+        }
+        return documents;
+    }
+
+    private static Query uploadedUntil(long epochMillis) {
+        return Query.of(q -> q.range(r -> r
+                .field("uploadedAt")
+                .lte(JsonData.of(epochMillis))
+                .format("epoch_millis")));
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.model.IngestCheckpoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Journal su disco delle indicizzazioni in corso, un file JSON per documento.
+ *
+ * Permette di riprendere un documento dall'ultimo chunk confermato dopo un crash della JVM
+ * invece di ricominciare da zero, e conserva il file sorgente fino al commit (per gli upload
+ * via API ne tiene una copia, perché il file temporaneo multipart non sopravvive al riavvio).
+ *
+ * I checkpoint sono identificati da nome file + checksum, come i documenti in {@link SearchBackend#documentExists}:
+ * lo stesso contenuto caricato con due nomi diversi sono due documenti distinti. Un checkpoint in lavorazione in
+ * questa JVM non può essere ripreso né riaperto da una seconda indicizzazione concorrente dello stesso file.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IngestJournal {
+
+    private static final String CHECKPOINT_SUFFIX = ".json";
+    private static final String SOURCE_SUFFIX = ".src";
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${ingest.journal.directory:./ingest-journal}")
+    private String journalDirectory;
+
+    private Path journalDir;
+
+    // Checkpoint aperti indicizzati per nome file + checksum
+    private final ConcurrentHashMap<Key, IngestCheckpoint> checkpoints = new ConcurrentHashMap<>();
+
+    // documentId dei checkpoint in lavorazione in questa JVM (gli altri sono interrotti e riprendibili)
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() throws IOException {
+        journalDir = Paths.get(journalDirectory).toAbsolutePath();
+        Files.createDirectories(journalDir);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(journalDir, "*" + CHECKPOINT_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    IngestCheckpoint checkpoint = objectMapper.readValue(file.toFile(), IngestCheckpoint.class);
+                    checkpoints.put(Key.of(checkpoint), checkpoint);
+                } catch (IOException e) {
+                    log.warn("⚠️ Checkpoint illeggibile ignorato: {} ({})", file, e.getMessage());
+                }
+            }
+        }
+
+        if (!checkpoints.isEmpty()) {
+            log.warn("📒 Trovati {} documenti con indicizzazione interrotta nel journal {}",
+                    checkpoints.size(), journalDir);
+        }
+    }
+
+    /**
+     * Apre un checkpoint per un nuovo documento, già in lavorazione per il chiamante. Se sourceFile è null salva
+     * una copia dei byte nel journal, così il documento può essere ripreso anche se l'upload originale è perso.
+     *
+     * @throws IngestInProgressException se lo stesso file è già in indicizzazione
+     */
+    public synchronized IngestCheckpoint begin(String documentId, String filename, String checksum, byte[] fileBytes,
+                                               Path sourceFile, int chunkSize) throws IOException {
+        Key key = new Key(filename, checksum);
+        if (checkpoints.containsKey(key)) {
+            throw new IngestInProgressException(filename);
+        }
+
+        IngestCheckpoint checkpoint = new IngestCheckpoint();
+        checkpoint.setDocumentId(documentId);
+        checkpoint.setFilename(filename);
+        checkpoint.setFileChecksum(checksum);
+        checkpoint.setFileSize((long) fileBytes.length);
+        checkpoint.setChunkSize(chunkSize);
+        checkpoint.setLastAckedChunk(-1);
+        checkpoint.setStartedAt(LocalDateTime.now());
+
+        if (sourceFile != null) {
+            checkpoint.setSourceFile(sourceFile.toAbsolutePath().toString());
+        } else {
+            Path copy = journalDir.resolve(documentId + SOURCE_SUFFIX);
+            Files.write(copy, fileBytes);
+            checkpoint.setSourceFile(copy.toString());
+            checkpoint.setOwnedSource(true);
+        }
+
+        persist(checkpoint);
+        checkpoints.put(key, checkpoint);
+        inFlight.add(documentId);
+        return checkpoint;
+    }
+
+    /**
+     * Riprende il checkpoint di un'indicizzazione interrotta di questo file, che passa in lavorazione per il chiamante
+     *
+     * @return il checkpoint da riprendere, vuoto se il file non ha indicizzazioni interrotte
+     * @throws IngestInProgressException se il checkpoint è già in lavorazione (indicizzazione concorrente)
+     */
+    public synchronized Optional<IngestCheckpoint> resume(String filename, String checksum) {
+        if (filename == null || checksum == null) {
+            return Optional.empty();
+        }
+        IngestCheckpoint checkpoint = checkpoints.get(new Key(filename, checksum));
+        if (checkpoint == null) {
+            return Optional.empty();
+        }
+        if (!inFlight.add(checkpoint.getDocumentId())) {
+            throw new IngestInProgressException(filename);
+        }
+        checkpoint.setFailed(false);
+        return Optional.of(checkpoint);
+    }
+
+    /**
+     * Registra in modo durevole l'ultimo chunk confermato da Elasticsearch
+     */
+    public void acknowledge(IngestCheckpoint checkpoint, int lastAckedChunk) throws IOException {
+        checkpoint.setLastAckedChunk(lastAckedChunk);
+        persist(checkpoint);
+    }
+
+    /**
+     * Chiude il checkpoint dopo il commit (o dopo aver scartato i chunk parziali) e rimuove la copia del
+     * sorgente se è del journal
+     */
+    public synchronized void complete(IngestCheckpoint checkpoint) {
+        checkpoints.remove(Key.of(checkpoint), checkpoint);
+        inFlight.remove(checkpoint.getDocumentId());
+        try {
+            Files.deleteIfExists(checkpointFile(checkpoint.getDocumentId()));
+            if (checkpoint.isOwnedSource() && checkpoint.getSourceFile() != null) {
+                Files.deleteIfExists(Paths.get(checkpoint.getSourceFile()));
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile rimuovere il checkpoint di {}: {}", checkpoint.getDocumentId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Indicizzazione fallita senza crash i cui chunk parziali non è stato possibile scartare: il checkpoint
+     * resta nel journal marcato come fallito, così un nuovo invio dello stesso file lo riprende e al riavvio
+     * i chunk parziali vengono eliminati invece di reindicizzare un documento già segnalato come FAILED
+     */
+    public synchronized void fail(IngestCheckpoint checkpoint) {
+        checkpoint.setFailed(true);
+        try {
+            persist(checkpoint);
+        } catch (IOException e) {
+            log.warn("⚠️ Impossibile aggiornare il checkpoint di {}: {}", checkpoint.getDocumentId(), e.getMessage());
+        } finally {
+            release(checkpoint);
+        }
+    }
+
+    /**
+     * Il chiamante smette di lavorare il checkpoint senza chiuderlo (es. arresto): torna riprendibile
+     */
+    public void release(IngestCheckpoint checkpoint) {
+        inFlight.remove(checkpoint.getDocumentId());
+    }
+
+    /**
+     * Scarta il checkpoint di un documento eliminato dall'indice (es. dalla retention), se nessuno lo sta lavorando
+     *
+     * @return true se il documento aveva un checkpoint aperto
+     */
+    public synchronized boolean discard(String documentId) {
+        if (inFlight.contains(documentId)) {
+            return false;
+        }
+        for (IngestCheckpoint checkpoint : checkpoints.values()) {
+            if (checkpoint.getDocumentId().equals(documentId)) {
+                complete(checkpoint);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tutti i checkpoint ancora aperti (documenti interrotti)
+     */
+    public List<IngestCheckpoint> pending() {
+        return new ArrayList<>(checkpoints.values());
+    }
+
+    private void persist(IngestCheckpoint checkpoint) throws IOException {
+        checkpoint.setUpdatedAt(LocalDateTime.now());
+        Path target = checkpointFile(checkpoint.getDocumentId());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(tmp, objectMapper.writeValueAsBytes(checkpoint));
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path checkpointFile(String documentId) {
+        return journalDir.resolve(documentId + CHECKPOINT_SUFFIX);
+    }
+
+    private record Key(String filename, String checksum) {
+
+        static Key of(IngestCheckpoint checkpoint) {
+            return new Key(checkpoint.getFilename(), checkpoint.getFileChecksum());
+        }
+    }
+
+    /**
+     * Lo stesso file (nome e checksum) è già in indicizzazione in questa istanza
+     */
+    public static class IngestInProgressException extends RuntimeException {
+        public IngestInProgressException(String filename) {
+            super("Indicizzazione già in corso per " + filename);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.model.IngestCheckpoint;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * All'avvio riprende o ripulisce le indicizzazioni interrotte da un crash.
+ *
+ * Per ogni checkpoint aperto nel journal:
+ * - sorgente copiato nel journal (upload via API): il documento viene reinviato e riprende dall'ultimo chunk confermato
+ * - sorgente nella directory di polling: non serve fare nulla, Camel lo ripresenta e la ripresa avviene per checksum
+ * - sorgente non più disponibile, o indicizzazione già fallita senza crash: i chunk parziali orfani vengono
+ *   eliminati dall'indice
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IngestRecoveryService {
+
+    private final IngestJournal journal;
+    private final DocumentService documentService;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverInterruptedIngestions() {
+        for (IngestCheckpoint checkpoint : journal.pending()) {
+            Path source = checkpoint.getSourceFile() != null ? Paths.get(checkpoint.getSourceFile()) : null;
+
+            try {
+                if (checkpoint.isFailed() || source == null || !Files.exists(source)) {
+                    log.warn("🧹 {} per {} ({}): elimino i chunk parziali",
+                            checkpoint.isFailed() ? "Indicizzazione fallita" : "Sorgente non più disponibile",
+                            checkpoint.getFilename(), checkpoint.getDocumentId());
+                    documentService.deleteDocumentChunks(checkpoint.getDocumentId(), checkpoint.getFileChecksum());
+                    journal.complete(checkpoint);
+                } else if (checkpoint.isOwnedSource()) {
+                    log.warn("🔁 Ripresa di {} dal chunk {} ({})", checkpoint.getFilename(),
+                            checkpoint.getLastAckedChunk() + 1, checkpoint.getDocumentId());
+                    // Byte letti qui: lo stream viene consumato dal thread asincrono
+                    byte[] bytes = Files.readAllBytes(source);
+                    documentService.indexDocumentAsync(checkpoint.getFilename(),
+                            new ByteArrayInputStream(bytes), bytes.length, source);
+                } else {
+                    log.info("⏳ {} verrà ripreso al prossimo polling della directory di input", checkpoint.getFilename());
+                }
+            } catch (Exception e) {
+                log.error("❌ Recupero fallito per {} ({}): {}", checkpoint.getFilename(),
+                        checkpoint.getDocumentId(), e.getMessage());
+            }
+        }
+    }
+}
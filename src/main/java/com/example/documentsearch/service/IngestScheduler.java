@@ -0,0 +1,358 @@
+package com.example.documentsearch.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Scheduler dell'ingestion con lane separate per upload interattivi, upload asincroni e polling bulk.
+ *
+ * Le lane condividono un pool di worker con fair sharing pesato (stride scheduling): ogni lane riceve
+ * una quota di dispatch proporzionale al suo peso, e una lane che torna attiva non accumula credito.
+ * La lane interattiva ha worker riservati che le altre lane non possono occupare. Un task interattivo
+ * in coda oltre il wait target passa davanti a tutti.
+ *
+ * Ogni lane ha una coda limitata: se è piena il task viene rifiutato con {@link IngestRejectedException},
+ * che indica dopo quanto riprovare (stimato da coda e tempo medio di servizio della lane).
+ */
+@Slf4j
+@Service
+public class IngestScheduler {
+
+    public enum Lane {
+        INTERACTIVE("interactive"),
+        ASYNC_UPLOAD("async-upload"),
+        BULK("bulk");
+
+        private final String tag;
+
+        Lane(String tag) {
+            this.tag = tag;
+        }
+
+        public String tag() {
+            return tag;
+        }
+    }
+
+    private static final double SERVICE_TIME_ALPHA = 0.2;
+    private static final long MAX_RETRY_AFTER_SECONDS = 300;
+
+    private final Map<Lane, LaneState> lanes = new EnumMap<>(Lane.class);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final List<Thread> threads = new ArrayList<>();
+    private final MeterRegistry meterRegistry;
+
+    private final int workers;
+    private final int reservedInteractiveWorkers;
+    private final Duration interactiveWaitTarget;
+
+    private double virtualTime;
+    private volatile boolean running = true;
+
+    public IngestScheduler(MeterRegistry meterRegistry,
+                           @Value("${document.scheduler.workers:4}") int workers,
+                           @Value("${document.scheduler.interactive.reserved-workers:1}") int reservedInteractiveWorkers,
+                           @Value("${document.scheduler.interactive.wait-target:2s}") Duration interactiveWaitTarget,
+                           @Value("${document.scheduler.weight.interactive:8}") int interactiveWeight,
+                           @Value("${document.scheduler.weight.async-upload:3}") int asyncUploadWeight,
+                           @Value("${document.scheduler.weight.bulk:1}") int bulkWeight,
+                           @Value("${document.scheduler.capacity.interactive:16}") int interactiveCapacity,
+                           @Value("${document.scheduler.capacity.async-upload:100}") int asyncUploadCapacity,
+                           @Value("${document.scheduler.capacity.bulk:16}") int bulkCapacity) {
+        this.meterRegistry = meterRegistry;
+        this.workers = Math.max(1, workers);
+        this.reservedInteractiveWorkers = Math.min(Math.max(0, reservedInteractiveWorkers), this.workers - 1);
+        this.interactiveWaitTarget = interactiveWaitTarget;
+        lanes.put(Lane.INTERACTIVE, new LaneState(Lane.INTERACTIVE, interactiveWeight, interactiveCapacity));
+        lanes.put(Lane.ASYNC_UPLOAD, new LaneState(Lane.ASYNC_UPLOAD, asyncUploadWeight, asyncUploadCapacity));
+        lanes.put(Lane.BULK, new LaneState(Lane.BULK, bulkWeight, bulkCapacity));
+    }
+
+    @PostConstruct
+    public void start() {
+        for (LaneState state : lanes.values()) {
+            state.waitTimer = Timer.builder("document.scheduler.wait")
+                    .description("Attesa in coda prima dell'esecuzione")
+                    .tag("lane", state.lane.tag())
+                    .register(meterRegistry);
+            state.rejected = Counter.builder("document.scheduler.rejected")
+                    .description("Task rifiutati per coda piena (risposta con Retry-After)")
+                    .tag("lane", state.lane.tag())
+                    .register(meterRegistry);
+            Gauge.builder("document.scheduler.queue", this, s -> s.queued(state.lane))
+                    .description("Task in coda per lane")
+                    .tag("lane", state.lane.tag())
+                    .register(meterRegistry);
+            Gauge.builder("document.scheduler.active", this, s -> s.active(state.lane))
+                    .description("Task in esecuzione per lane")
+                    .tag("lane", state.lane.tag())
+                    .register(meterRegistry);
+        }
+
+        for (int i = 1; i <= workers; i++) {
+            Thread thread = new Thread(this::work, "ingest-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        log.info("🚦 Scheduler di ingestion avviato: {} worker ({} riservati alla lane interattiva), pesi {}",
+                workers, reservedInteractiveWorkers, lanes.values().stream()
+                        .map(s -> s.lane.tag() + "=" + s.weight).toList());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            for (LaneState state : lanes.values()) {
+                state.queue.forEach(task -> task.future.completeExceptionally(
+                        new CancellationException("Applicazione in arresto")));
+                state.queue.clear();
+            }
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        threads.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Accoda un task nella lane indicata. Il future si completa con il risultato del task.
+     *
+     * @throws IngestRejectedException se la coda della lane è piena
+     */
+    public <T> CompletableFuture<T> submit(Lane lane, Callable<T> work) {
+        LaneState state = lanes.get(lane);
+        Task<T> task = new Task<>(state, work);
+        lock.lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("Scheduler di ingestion fermato");
+            }
+            if (state.queue.size() >= state.capacity) {
+                state.rejected.increment();
+                throw new IngestRejectedException(lane, retryAfter(state));
+            }
+            if (state.queue.isEmpty() && state.active == 0) {
+                // Lane inattiva: riparte dal tempo virtuale corrente, senza il credito accumulato da ferma
+                state.pass = Math.max(state.pass, virtualTime);
+            }
+            state.queue.addLast(task);
+            workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        return task.future;
+    }
+
+    /**
+     * Esegue il task nella lane e ne attende il risultato (upload sincroni e file del polling)
+     */
+    public <T> T run(Lane lane, Callable<T> work) throws Exception {
+        try {
+            return submit(lane, work).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public int queued(Lane lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int active(Lane lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (running) {
+            Task<?> task;
+            try {
+                task = next();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                completed(task.state, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private Task<?> next() throws InterruptedException {
+        lock.lock();
+        try {
+            while (running) {
+                Task<?> task = pick();
+                if (task != null) {
+                    return task;
+                }
+                workAvailable.await();
+            }
+            throw new InterruptedException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lane interattiva oltre il wait target prima di tutto, poi la lane con il minor tempo virtuale
+     * tra quelle che possono usare un worker
+     */
+    private Task<?> pick() {
+        LaneState interactive = lanes.get(Lane.INTERACTIVE);
+        Task<?> oldest = interactive.queue.peekFirst();
+        if (oldest != null && System.nanoTime() - oldest.enqueuedAt >= interactiveWaitTarget.toNanos()) {
+            return dispatch(interactive);
+        }
+
+        LaneState best = null;
+        for (LaneState state : lanes.values()) {
+            if (state.queue.isEmpty() || !canRun(state)) {
+                continue;
+            }
+            if (best == null || state.pass < best.pass) {
+                best = state;
+            }
+        }
+        return best != null ? dispatch(best) : null;
+    }
+
+    /**
+     * Le lane non interattive non occupano mai i worker riservati
+     */
+    private boolean canRun(LaneState state) {
+        if (state.lane == Lane.INTERACTIVE) {
+            return true;
+        }
+        int nonInteractive = 0;
+        for (LaneState other : lanes.values()) {
+            if (other.lane != Lane.INTERACTIVE) {
+                nonInteractive += other.active;
+            }
+        }
+        return nonInteractive < workers - reservedInteractiveWorkers;
+    }
+
+    private Task<?> dispatch(LaneState state) {
+        Task<?> task = state.queue.pollFirst();
+        virtualTime = state.pass;
+        state.pass += 1.0 / Math.max(1, state.weight);
+        state.active++;
+        state.waitTimer.record(Duration.ofNanos(System.nanoTime() - task.enqueuedAt));
+        return task;
+    }
+
+    private void completed(LaneState state, long serviceNanos) {
+        lock.lock();
+        try {
+            state.active--;
+            state.serviceSeconds += SERVICE_TIME_ALPHA * (serviceNanos / 1e9 - state.serviceSeconds);
+            workAvailable.signalAll(); // Un worker libero può sbloccare una lane limitata dai worker riservati
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tempo stimato perché la coda della lane si svuoti abbastanza da accettare un nuovo task
+     */
+    private Duration retryAfter(LaneState state) {
+        int laneWorkers = state.lane == Lane.INTERACTIVE ? workers : workers - reservedInteractiveWorkers;
+        double seconds = Math.ceil(state.queue.size() * state.serviceSeconds / Math.max(1, laneWorkers));
+        return Duration.ofSeconds((long) Math.min(MAX_RETRY_AFTER_SECONDS, Math.max(1, seconds)));
+    }
+
+    private static final class LaneState {
+        private final Lane lane;
+        private final int weight;
+        private final int capacity;
+        private final Deque<Task<?>> queue = new ArrayDeque<>();
+        private double pass; // Tempo virtuale: avanza di 1/peso ad ogni dispatch
+        private int active;
+        private double serviceSeconds = 1.0; // Media mobile esponenziale del tempo di esecuzione
+        private Timer waitTimer;
+        private Counter rejected;
+
+        private LaneState(Lane lane, int weight, int capacity) {
+            this.lane = lane;
+            this.weight = weight;
+            this.capacity = capacity;
+        }
+    }
+
+    private static final class Task<T> {
+        private final LaneState state;
+        private final Callable<T> work;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+
+        private Task(LaneState state, Callable<T> work) {
+            this.state = state;
+            this.work = work;
+        }
+
+        private void run() {
+            try {
+                future.complete(work.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Coda della lane piena: il chiamante deve riprovare dopo {@link #getRetryAfterSeconds()}
+     */
+    public static class IngestRejectedException extends RuntimeException {
+
+        private final Duration retryAfter;
+
+        public IngestRejectedException(Lane lane, Duration retryAfter) {
+            super("Coda di ingestion " + lane.tag() + " piena, riprovare tra " + retryAfter.toSeconds() + "s");
+            this.retryAfter = retryAfter;
+        }
+
+        public long getRetryAfterSeconds() {
+            return Math.max(1, retryAfter.toSeconds());
+        }
+    }
+}
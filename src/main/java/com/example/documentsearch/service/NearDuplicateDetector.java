@@ -0,0 +1,469 @@
+package com.example.documentsearch.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rilevamento dei quasi duplicati (stesso report esportato in PDF e DOCX, copertina cambiata, ...)
+ * sul testo estratto, prima dell'indicizzazione.
+ *
+ * Firma MinHash a 128 valori sugli shingle di 5 parole: la frazione di valori uguali tra due firme stima
+ * la similarità di Jaccard dei due testi. Le firme sono indicizzate in memoria con LSH (bande di valori):
+ * due documenti diventano candidati solo se coincidono in almeno una banda, quindi il costo del controllo
+ * non cresce con il numero di documenti. I candidati sopra document.near-duplicate.threshold sono duplicati.
+ *
+ * Controllo e registrazione avvengono insieme ({@link #claim}): un documento in indicizzazione è già
+ * candidato per quelli che arrivano dopo, anche se i due sono elaborati in parallelo. Le firme sono
+ * indicizzate per checksum con i documentId che le usano e vengono rimosse quando l'ultimo di questi
+ * documenti è eliminato (indicizzazione fallita, chunk orfani, retention delle partizioni).
+ *
+ * Registrazioni e rimozioni sono salvate in un log append-only, così sopravvivono al riavvio e alla
+ * ricostruzione dell'indice (che conserva i documentId); all'avvio il log viene riscritto senza le
+ * firme rimosse. L'indice LSH è locale al nodo: con file-polling.cluster.enabled=true ogni nodo riconosce
+ * solo i quasi duplicati dei documenti che ha indicizzato lui.
+ */
+@Slf4j
+@Component
+public class NearDuplicateDetector {
+
+    public static final int HASHES = 128;
+    private static final int SHINGLE_WORDS = 5;
+    private static final long SEED = 0x5DEECE66DL; // Fisso: le firme salvate restano confrontabili tra riavvii
+    private static final String LOG_FILE = "signatures.bin";
+
+    public enum Action {
+        LINK, // Indicizza con duplicateOf = checksum dell'originale
+        SKIP  // Non indicizza il duplicato
+    }
+
+    /**
+     * Documento già indicizzato di cui il testo analizzato è un quasi duplicato
+     */
+    public record Match(String checksum, String filename, double similarity) {
+    }
+
+    // Documenti con lo stesso checksum condividono la firma: resta nell'indice finché ne esiste uno
+    private record Entry(String checksum, String filename, String duplicateOf, long[] signature,
+                         Set<String> documentIds) {
+    }
+
+    private static final byte REGISTER = 'R';
+    private static final byte REMOVE = 'D';
+
+    private final long[] seeds = new long[HASHES];
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, String> checksumsByDocument = new HashMap<>();
+    private final List<Map<Long, Set<String>>> bandIndex = new ArrayList<>();
+    private final Timer signatureTimer;
+    private final Counter detected;
+
+    @Value("${document.near-duplicate.enabled:false}")
+    private boolean enabled;
+
+    @Value("${document.near-duplicate.threshold:0.85}")
+    private double threshold;
+
+    @Value("${document.near-duplicate.bands:16}")
+    private int bands;
+
+    @Value("${document.near-duplicate.action:link}")
+    private String action;
+
+    @Value("${document.near-duplicate.directory:./near-duplicates}")
+    private String directory;
+
+    private int rows;
+    private DataOutputStream out;
+
+    public NearDuplicateDetector(MeterRegistry meterRegistry) {
+        Random random = new Random(SEED);
+        for (int i = 0; i < HASHES; i++) {
+            seeds[i] = random.nextLong();
+        }
+        this.signatureTimer = Timer.builder("document.near-duplicate.signature")
+                .description("Tempo di calcolo della firma MinHash di un documento")
+                .register(meterRegistry);
+        this.detected = Counter.builder("document.near-duplicate.detected")
+                .description("Documenti riconosciuti come quasi duplicati")
+                .register(meterRegistry);
+        Gauge.builder("document.near-duplicate.signatures", this, NearDuplicateDetector::size)
+                .description("Firme MinHash nell'indice LSH")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (bands < 1 || HASHES % bands != 0) {
+            throw new IllegalStateException("document.near-duplicate.bands deve dividere " + HASHES + ": " + bands);
+        }
+        rows = HASHES / bands;
+        for (int b = 0; b < bands; b++) {
+            bandIndex.add(new HashMap<>());
+        }
+
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        Path logFile = dir.resolve(LOG_FILE);
+        if (Files.exists(logFile) && load(logFile) > checksumsByDocument.size()) {
+            rewrite(logFile);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        log.info("🪞 Rilevamento quasi duplicati attivo: soglia {}, {} bande x {} righe, azione {}, {} firme caricate",
+                threshold, bands, rows, action(), entries.size());
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Action action() {
+        return Action.valueOf(action.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Firma MinHash del testo: per ogni funzione hash il minimo sugli shingle di 5 parole normalizzate.
+     * null se il testo non contiene parole (due documenti vuoti non sono duplicati)
+     */
+    public long[] signature(String text) {
+        long start = System.nanoTime();
+        long[] signature = computeSignature(text);
+        signatureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return signature;
+    }
+
+    private long[] computeSignature(String text) {
+        long[] signature = new long[HASHES];
+        Arrays.fill(signature, Long.MAX_VALUE);
+
+        long[] window = new long[SHINGLE_WORDS];
+        int words = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i >= length) {
+                break;
+            }
+            long wordHash = 0xcbf29ce484222325L; // FNV-1a sulla parola in minuscolo
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                wordHash = (wordHash ^ Character.toLowerCase(text.charAt(i))) * 0x100000001b3L;
+                i++;
+            }
+            window[words % SHINGLE_WORDS] = wordHash;
+            words++;
+            if (words >= SHINGLE_WORDS) {
+                update(signature, shingle(window, words));
+            }
+        }
+        if (words == 0) {
+            return null;
+        }
+        if (words < SHINGLE_WORDS) {
+            update(signature, shingle(window, words)); // Testo più corto di uno shingle
+        }
+        return signature;
+    }
+
+    /**
+     * Cerca l'originale più simile tra i candidati LSH e registra subito la firma del documento, con lo stesso lock:
+     * due quasi duplicati indicizzati in parallelo non possono risultare entrambi originali.
+     * I documenti con lo stesso checksum sono esclusi (li gestisce il controllo dei duplicati esatti).
+     * Con l'azione SKIP un duplicato non viene registrato, perché non sarà indicizzato.
+     *
+     * @return l'originale, o vuoto se il documento non è un quasi duplicato
+     */
+    public synchronized Optional<Match> claim(String documentId, String checksum, String filename, long[] signature)
+            throws IOException {
+        if (!enabled || signature == null) {
+            return Optional.empty();
+        }
+        Set<String> candidates = new HashSet<>();
+        for (int b = 0; b < bands; b++) {
+            Set<String> bucket = bandIndex.get(b).get(bandKey(signature, b));
+            if (bucket != null) {
+                candidates.addAll(bucket);
+            }
+        }
+        candidates.remove(checksum);
+
+        Match best = null;
+        for (String candidate : candidates) {
+            Entry entry = entries.get(candidate);
+            double similarity = similarity(signature, entry.signature());
+            if (similarity >= threshold && (best == null || similarity > best.similarity())) {
+                // Un duplicato punta all'originale; se l'originale non c'è più, alla copia trovata
+                Entry root = entry.duplicateOf() != null
+                        ? entries.getOrDefault(entry.duplicateOf(), entry)
+                        : entry;
+                best = new Match(root.checksum(), root.filename(), similarity);
+            }
+        }
+        if (best != null) {
+            detected.increment();
+        }
+        if (best == null || action() == Action.LINK) {
+            register(documentId, checksum, filename, best != null ? best.checksum() : null, signature);
+        }
+        return Optional.ofNullable(best);
+    }
+
+    /**
+     * Rimuove il documento; la firma esce dall'indice LSH quando nessun altro documento con lo stesso checksum la usa
+     */
+    public synchronized void remove(String documentId) throws IOException {
+        if (!enabled || !checksumsByDocument.containsKey(documentId)) {
+            return;
+        }
+        unlink(documentId);
+        out.writeByte(REMOVE);
+        out.writeUTF(documentId);
+        out.flush();
+    }
+
+    private void register(String documentId, String checksum, String filename, String duplicateOf, long[] signature)
+            throws IOException {
+        add(documentId, new Entry(checksum, filename, duplicateOf, signature, new HashSet<>()));
+        writeRegister(out, documentId, entries.get(checksum));
+        out.flush();
+    }
+
+    /**
+     * Costo della firma su testo sintetico: millisecondi per MB e MB/s
+     */
+    public Map<String, Object> benchmark(int megabytes) {
+        StringBuilder text = new StringBuilder(megabytes * 1024 * 1024);
+        Random random = new Random(42);
+        while (text.length() < megabytes * 1024 * 1024) {
+            int wordLength = 3 + random.nextInt(8);
+            for (int c = 0; c < wordLength; c++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            text.append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        String sample = text.toString();
+        computeSignature(sample); // Warm-up del JIT
+
+        long start = System.nanoTime();
+        computeSignature(sample);
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("megabytes", megabytes);
+        result.put("hashes", HASHES);
+        result.put("shingleWords", SHINGLE_WORDS);
+        result.put("millis", millis);
+        result.put("millisPerMegabyte", millis / megabytes);
+        result.put("megabytesPerSecond", megabytes / (millis / 1000));
+        return result;
+    }
+
+    private void update(long[] signature, long shingle) {
+        for (int h = 0; h < HASHES; h++) {
+            long value = mix(shingle ^ seeds[h]);
+            if (value < signature[h]) {
+                signature[h] = value;
+            }
+        }
+    }
+
+    private static long shingle(long[] window, int words) {
+        long hash = 0;
+        int size = Math.min(words, SHINGLE_WORDS);
+        for (int w = words - size; w < words; w++) {
+            hash = hash * 31 + window[w % SHINGLE_WORDS]; // In ordine: "a b c" ≠ "c b a"
+        }
+        return hash;
+    }
+
+    /**
+     * Finalizzatore di SplitMix64: distribuisce uniformemente i bit (una permutazione diversa per ogni seed)
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private long bandKey(long[] signature, int band) {
+        long key = band;
+        for (int r = band * rows; r < (band + 1) * rows; r++) {
+            key = mix(key * 31 + signature[r]);
+        }
+        return key;
+    }
+
+    private static double similarity(long[] a, long[] b) {
+        int equal = 0;
+        for (int h = 0; h < HASHES; h++) {
+            if (a[h] == b[h]) {
+                equal++;
+            }
+        }
+        return (double) equal / HASHES;
+    }
+
+    /**
+     * Aggiunge un documento all'indice; se il checksum è già presente il documento si aggiunge alla firma esistente
+     */
+    private void add(String documentId, Entry entry) {
+        String previousChecksum = checksumsByDocument.get(documentId);
+        if (previousChecksum != null && !previousChecksum.equals(entry.checksum())) {
+            unlink(documentId);
+        }
+        checksumsByDocument.put(documentId, entry.checksum());
+        Entry existing = entries.get(entry.checksum());
+        if (existing != null) {
+            existing.documentIds().add(documentId);
+            return;
+        }
+        entry.documentIds().add(documentId);
+        entries.put(entry.checksum(), entry);
+        for (int b = 0; b < bands; b++) {
+            bandIndex.get(b).computeIfAbsent(bandKey(entry.signature(), b), k -> new HashSet<>()).add(entry.checksum());
+        }
+    }
+
+    private void unlink(String documentId) {
+        String checksum = checksumsByDocument.remove(documentId);
+        Entry entry = checksum == null ? null : entries.get(checksum);
+        if (entry == null) {
+            return;
+        }
+        entry.documentIds().remove(documentId);
+        if (!entry.documentIds().isEmpty()) {
+            return;
+        }
+        entries.remove(checksum);
+        for (int b = 0; b < bands; b++) {
+            long key = bandKey(entry.signature(), b);
+            Set<String> bucket = bandIndex.get(b).get(key);
+            if (bucket != null) {
+                bucket.remove(checksum);
+                if (bucket.isEmpty()) {
+                    bandIndex.get(b).remove(key);
+                }
+            }
+        }
+    }
+
+    private static void writeRegister(DataOutputStream out, String documentId, Entry entry) throws IOException {
+        out.writeByte(REGISTER);
+        out.writeUTF(documentId);
+        out.writeUTF(entry.checksum());
+        out.writeUTF(entry.filename() != null ? entry.filename() : "");
+        out.writeUTF(entry.duplicateOf() != null ? entry.duplicateOf() : "");
+        for (long value : entry.signature()) {
+            out.writeLong(value);
+        }
+    }
+
+    /**
+     * Rilegge il log delle firme; un record troncato da un crash in scrittura viene rimosso dal file,
+     * così i record successivi restano allineati.
+     *
+     * @return le registrazioni lette (se superano i documenti presenti il log contiene firme rimosse)
+     */
+    private int load(Path logFile) throws IOException {
+        byte[] data = Files.readAllBytes(logFile);
+        long valid = 0;
+        int registrations = 0;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            while (true) {
+                byte type = in.readByte();
+                String documentId = in.readUTF();
+                if (type == REMOVE) {
+                    unlink(documentId);
+                } else if (type == REGISTER) {
+                    String checksum = in.readUTF();
+                    String filename = in.readUTF();
+                    String duplicateOf = in.readUTF();
+                    long[] signature = new long[HASHES];
+                    for (int h = 0; h < HASHES; h++) {
+                        signature[h] = in.readLong();
+                    }
+                    add(documentId, new Entry(checksum, filename, duplicateOf.isEmpty() ? null : duplicateOf,
+                            signature, new HashSet<>()));
+                    registrations++;
+                } else {
+                    break; // Record corrotto: il resto del log viene scartato
+                }
+                valid = data.length - in.available();
+            }
+        } catch (EOFException e) {
+            // Fine del log
+        }
+        if (valid < data.length) {
+            log.warn("⚠️ Log delle firme troncato: scartati {} byte di un record incompleto", data.length - valid);
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        return registrations;
+    }
+
+    /**
+     * Riscrive il log con le sole firme presenti (file temporaneo e rename atomico)
+     */
+    private void rewrite(Path logFile) throws IOException {
+        Path tmp = logFile.resolveSibling(LOG_FILE + ".tmp");
+        try (DataOutputStream rewritten = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for (Map.Entry<String, String> document : checksumsByDocument.entrySet()) {
+                writeRegister(rewritten, document.getKey(), entries.get(document.getValue()));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("🪞 Log delle firme compattato: {} documenti", checksumsByDocument.size());
+    }
+}
@@ -0,0 +1,438 @@
+package com.example.documentsearch.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.OpType;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SlicesCalculation;
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.dto.ReindexStatusDto;
+import com.example.documentsearch.model.CachedExtraction;
+import com.example.documentsearch.model.SearchDocument;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reindicizzazione senza downtime verso una nuova versione del mapping.
+ *
+ * 1. crea l'indice fisico documents-v(N+1) con il mapping corrente
+ * 2. sposta il write alias sul nuovo indice (i nuovi documenti arrivano già lì) e lo aggiunge al read alias
+ *    filtrato sui chunk scritti da quel momento, così ricerche, controllo duplicati ed eliminazioni vedono
+ *    sia il vecchio sia il nuovo indice senza contare due volte i chunk copiati
+ * 3. copia i dati delle vecchie partizioni (fissate all'avvio, il nuovo indice non ne fa parte) con _reindex
+ *    parallelo (slices=auto, op_type=create per non sovrascrivere le nuove scritture)
+ * 4. verifica l'esito della copia e toglie in modo atomico le vecchie partizioni dal read alias
+ *
+ * Se la copia fallisce il write alias torna sul vecchio indice e il nuovo esce dal read alias; il nuovo
+ * indice resta (con i documenti scritti durante il tentativo) e viene completato dalla reindicizzazione
+ * successiva. Il vecchio indice resta disponibile per un eventuale rollback. Lo stesso flusso migra
+ * l'indice storico non versionato "documents" al primo avvio con gli alias.
+ *
+ * Con la ricostruzione dalla cache ({@link #startFromCache()}) il passo 3 riparte dal testo già
+ * estratto (ExtractedTextCache): ogni documento completo dell'indice corrente il cui testo è in cache viene
+ * richunkato con la document.chunk.size corrente senza Tika, mantenendo documentId, nome file e uploadedAt;
+ * gli altri chunk vengono copiati dal vecchio indice. I documenti eliminati, scartati o scaduti non sono
+ * nell'indice e quindi non vengono ricostruiti anche se il loro testo è ancora in cache.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = SearchBackend.PROPERTY, havingValue = SearchBackend.ELASTICSEARCH, matchIfMissing = true)
+public class ReindexService {
+
+    private static final long POLL_INTERVAL_MS = 2000;
+    private static final int COPY_BATCH_SIZE = 500;
+    private static final int MAX_TERMS_PER_QUERY = 65536; // index.max_terms_count di default
+    // Campi del chunk 0 che identificano un documento completo da ricostruire dalla cache
+    private static final String[] COMMIT_FIELDS =
+            {"documentId", "filename", "fileChecksum", "fileSize", "duplicateOf", "uploadedAt", "chunkIndex"};
+    // I chunk copiati da indici instradati per _id vengono instradati per fileChecksum (come SearchDocument)
+    private static final String ROUTING_SCRIPT =
+            "ctx._routing = ctx._source.fileChecksum != null ? ctx._source.fileChecksum : ctx._source.documentId";
+
+    private final ElasticsearchClient client;
+    private final IndexManager indexManager;
+    private final DocumentService documentService;
+    private final ExtractedTextCache textCache;
+    private final ElasticsearchOperations elastic;
+    private final ChunkIndexer chunkIndexer;
+    private final ChunkContentStore contentStore;
+
+    private volatile ReindexStatusDto status = idleStatus();
+
+    private final ExecutorService reindexExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "reindex");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ReindexService(ElasticsearchClient client, IndexManager indexManager, DocumentService documentService,
+                          ExtractedTextCache textCache, ElasticsearchOperations elastic, ChunkIndexer chunkIndexer,
+                          ChunkContentStore contentStore, MeterRegistry meterRegistry) {
+        this.client = client;
+        this.indexManager = indexManager;
+        this.documentService = documentService;
+        this.textCache = textCache;
+        this.elastic = elastic;
+        this.chunkIndexer = chunkIndexer;
+        this.contentStore = contentStore;
+
+        Gauge.builder("document.reindex.progress", this, s -> valueOrZero(s.status.getProgress()))
+                .description("Avanzamento della reindicizzazione in corso (0-1)")
+                .register(meterRegistry);
+        Gauge.builder("document.reindex.copied", this, s -> valueOrZero(s.status.getCopiedDocuments()))
+                .description("Documenti copiati nel nuovo indice")
+                .register(meterRegistry);
+        Gauge.builder("document.reindex.total", this, s -> valueOrZero(s.status.getTotalDocuments()))
+                .description("Documenti da copiare nel nuovo indice")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reindexExecutor.shutdownNow();
+    }
+
+    /**
+     * Al primo avvio con gli alias migra automaticamente l'indice storico non versionato
+     */
+    @EventListener
+    public void onIndexReady(IndexManager.IndexReadyEvent event) {
+        if (event.legacyMigrationRequired()) {
+            startLegacyMigration();
+        }
+    }
+
+    public ReindexStatusDto getStatus() {
+        return status;
+    }
+
+    /**
+     * Avvia la copia dell'indice attivo in una nuova versione del mapping
+     */
+    public ReindexStatusDto start() throws IOException {
+        return start(false);
+    }
+
+    /**
+     * Ricostruisce l'indice in una nuova versione partendo dalla cache del testo estratto (senza Tika)
+     */
+    public ReindexStatusDto startFromCache() throws IOException {
+        if (!textCache.isEnabled()) {
+            throw new IllegalStateException("Cache del testo estratto disabilitata (document.text-cache.enabled=false)");
+        }
+        return start(true);
+    }
+
+    private synchronized ReindexStatusDto start(boolean fromCache) throws IOException {
+        ensureIdle();
+        String active = indexManager.activeIndex()
+                .orElseThrow(() -> new IllegalStateException("Nessun indice attivo dietro l'alias " + indexManager.readAlias()));
+        int nextVersion = Math.max(indexManager.versionOf(active) + 1, indexManager.mappingVersion());
+        // Le partizioni correnti, fissate prima che il nuovo indice entri nel read alias: la copia non deve
+        // leggere l'indice in cui scrive
+        List<String> source = indexManager.readIndices();
+        String previousWrite = indexManager.writeIndex().orElse(active);
+        String target = indexManager.physicalIndexName(nextVersion);
+
+        status = runningStatus(source, target);
+        reindexExecutor.submit(() -> run(source, target, previousWrite, fromCache));
+        return status;
+    }
+
+    private synchronized void startLegacyMigration() {
+        try {
+            ensureIdle();
+            List<String> source = List.of(indexManager.readAlias()); // Indice storico non versionato
+            String target = indexManager.writeIndex()
+                    .orElse(indexManager.physicalIndexName(indexManager.mappingVersion()));
+            status = runningStatus(source, target);
+            reindexExecutor.submit(() -> run(source, target, null, false));
+        } catch (Exception e) {
+            log.error("❌ Impossibile avviare la migrazione dell'indice storico: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @param previousWrite write index prima della reindicizzazione, ripristinato se la copia fallisce
+     *                      (null per la migrazione dell'indice storico, dove gli alias sono già sul nuovo indice)
+     */
+    private void run(List<String> source, String target, String previousWrite, boolean fromCache) {
+        boolean legacy = previousWrite == null;
+        boolean aliasesMoved = false;
+        try {
+            if (!legacy) {
+                if (!client.indices().exists(e -> e.index(target)).value()) {
+                    log.info("📦 Creazione nuovo indice {} con il mapping corrente", target);
+                    indexManager.createPhysicalIndex(target, false);
+                }
+                LocalDateTime writtenFrom = LocalDateTime.now();
+                aliasesMoved = true;
+                indexManager.switchWriteAlias(target);
+                indexManager.addReadAlias(target, writtenFrom);
+            }
+
+            long total = client.count(c -> c.index(source)).count();
+            status.setTotalDocuments(total);
+            log.info("🔁 Reindicizzazione {} → {} avviata ({} chunk)", source, target, total);
+
+            // Documenti ricostruiti dalla cache: il _reindex copia solo quelli non più presenti in cache
+            List<String> rebuilt = fromCache ? rebuildFromCache(source) : List.of();
+            Query remaining = excludingDocumentIds(rebuilt);
+
+            if (contentStore.isEnabled() || indexManager.excludesContent(source.toArray(String[]::new))) {
+                // Il testo va riletto dal content store (o salvato lì la prima volta): niente _reindex lato server
+                copyWithContentStore(source, target, remaining, total);
+            } else {
+                long expected = client.count(c -> c.index(source).query(remaining)).count();
+                String taskId = client.reindex(r -> r
+                        .source(s -> s.index(source).query(remaining))
+                        .dest(d -> d.index(target).opType(OpType.Create))
+                        .script(sc -> sc.inline(i -> i.source(ROUTING_SCRIPT)))
+                        .conflicts(Conflicts.Proceed)
+                        .slices(sl -> sl.computed(SlicesCalculation.Auto))
+                        .waitForCompletion(false)
+                ).task();
+                status.setTaskId(taskId);
+
+                GetTasksResponse task;
+                do {
+                    Thread.sleep(POLL_INTERVAL_MS);
+                    task = client.tasks().get(g -> g.taskId(taskId));
+                    updateProgress(target, total);
+                } while (!task.completed());
+                verifyCopy(task, expected);
+            }
+
+            client.indices().refresh(r -> r.index(target));
+            updateProgress(target, total);
+
+            List<String> previous = legacy ? source
+                    : indexManager.readIndices().stream().filter(index -> !index.equals(target)).toList();
+            indexManager.swapReadAlias(target, legacy ? source.get(0) : null);
+
+            status.setState("COMPLETED");
+            status.setFinishedAt(LocalDateTime.now());
+            status.setMessage(legacy
+                    ? "Indice storico migrato in " + target
+                    : (fromCache ? rebuilt.size() + " documenti ricostruiti dalla cache. " : "")
+                    + "Read alias spostato su " + target + ". Le vecchie partizioni " + previous + " possono essere eliminate");
+            log.info("✅ Reindicizzazione completata: {}", status.getMessage());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail("Reindicizzazione interrotta", aliasesMoved ? rollback(target, previousWrite) : "");
+        } catch (Exception e) {
+            log.error("❌ Reindicizzazione {} → {} fallita", source, target, e);
+            fail(e.getMessage(), aliasesMoved ? rollback(target, previousWrite) : "");
+        }
+    }
+
+    /**
+     * Il task di _reindex è completato anche quando la copia è fallita o parziale: l'esito va letto
+     * dalla risposta (errore, failures per documento, documenti creati). I version conflict sono documenti
+     * già presenti nel nuovo indice (scritti durante la copia o da un tentativo precedente).
+     */
+    private void verifyCopy(GetTasksResponse task, long expected) {
+        if (task.error() != null) {
+            throw new IllegalStateException("Task di _reindex fallito: " + task.error().reason());
+        }
+        var result = task.response();
+        if (result == null) {
+            throw new IllegalStateException("Task di _reindex completato senza risposta");
+        }
+        if (!result.failures().isEmpty()) {
+            throw new IllegalStateException("_reindex con " + result.failures().size() + " documenti non copiati: "
+                    + result.failures().get(0));
+        }
+        long copied = result.created() + result.versionConflicts();
+        if (copied < expected) {
+            throw new IllegalStateException("_reindex parziale: " + copied + " chunk copiati su " + expected);
+        }
+        log.info("🔁 _reindex completato: {} chunk creati, {} già presenti",
+                result.created(), result.versionConflicts());
+    }
+
+    /**
+     * Riporta gli alias allo stato precedente alla reindicizzazione: le scritture tornano sul vecchio indice e
+     * il nuovo, incompleto, esce dal read alias
+     *
+     * @return nota per il messaggio di stato
+     */
+    private String rollback(String target, String previousWrite) {
+        try {
+            indexManager.switchWriteAlias(previousWrite);
+            indexManager.removeReadAlias(target);
+            log.warn("↩️ Rollback della reindicizzazione: write alias di nuovo su {}, {} tolto dal read alias",
+                    previousWrite, target);
+            return ". Alias ripristinati su " + previousWrite + ": i documenti caricati durante la copia sono in "
+                    + target + " e tornano ricercabili con la prossima reindicizzazione";
+        } catch (Exception e) {
+            log.error("❌ Rollback degli alias dopo la reindicizzazione fallita non riuscito", e);
+            return ". Rollback degli alias non riuscito: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Richunka e indicizza sul write alias (già spostato sul nuovo indice) i documenti completi dell'indice
+     * sorgente (chunk 0 presente) il cui testo è in cache. Ogni copia dello stesso contenuto con un altro nome
+     * file è un documento a sé e viene ricostruita con il proprio documentId.
+     *
+     * @return documentId dei documenti ricostruiti
+     */
+    private List<String> rebuildFromCache(List<String> source) throws IOException, InterruptedException {
+        log.info("🗃️ Ricostruzione dalla cache del testo estratto dei documenti di {}", source);
+
+        NativeQuery committed = NativeQuery.builder()
+                .withQuery(q -> q.term(t -> t.field("chunkIndex").value(0)))
+                .withSourceFilter(new FetchSourceFilter(COMMIT_FIELDS, null))
+                .withPageable(PageRequest.of(0, COPY_BATCH_SIZE))
+                .build();
+
+        List<String> rebuilt = new ArrayList<>();
+        long chunks = 0;
+        long notCached = 0;
+        try (SearchHitsIterator<SearchDocument> hits = elastic.searchForStream(committed, SearchDocument.class,
+                IndexCoordinates.of(source.toArray(String[]::new)))) {
+            while (hits.hasNext()) {
+                SearchDocument document = hits.next().getContent();
+                CachedExtraction extraction = textCache.get(document.getFileChecksum()).orElse(null);
+                if (extraction == null) {
+                    notCached++; // Non più in cache: verrà copiato dal vecchio indice
+                    continue;
+                }
+                chunks += documentService.indexFromCache(document, extraction);
+                rebuilt.add(document.getDocumentId());
+                status.setMessage("Ricostruiti dalla cache " + rebuilt.size() + " documenti");
+            }
+        }
+        log.info("🗃️ Ricostruiti {} documenti ({} chunk) senza Tika, {} non in cache copiati dal vecchio indice",
+                rebuilt.size(), chunks, notCached);
+        return rebuilt;
+    }
+
+    /**
+     * Copia lato applicazione quando il testo dei chunk è gestito dal {@link ChunkContentStore}:
+     * i chunk vengono letti a pagine (scroll) e reinviati in bulk sul write alias. Se il vecchio indice
+     * ha ancora il testo nel _source (primo passaggio al content store) il testo viene salvato nello store,
+     * altrimenti viene riletto da lì.
+     */
+    private void copyWithContentStore(List<String> source, String target, Query query, long total)
+            throws IOException, InterruptedException, ExecutionException {
+        if (!contentStore.isEnabled()) {
+            throw new IllegalStateException("L'indice " + source + " non contiene il testo dei chunk e il content store "
+                    + "è disabilitato: usare POST /api/admin/rebuild-from-cache");
+        }
+        log.info("📚 Copia {} → {} con il testo letto dal content store", source, target);
+
+        NativeQuery nativeQuery = NativeQuery.builder()
+                .withQuery(query)
+                .withPageable(PageRequest.of(0, COPY_BATCH_SIZE))
+                .build();
+        long missing = 0;
+        try (SearchHitsIterator<SearchDocument> hits = elastic.searchForStream(nativeQuery, SearchDocument.class,
+                IndexCoordinates.of(source.toArray(String[]::new)))) {
+            List<SearchDocument> batch = new ArrayList<>(COPY_BATCH_SIZE);
+            List<SearchDocument> toStore = new ArrayList<>();
+            while (hits.hasNext()) {
+                SearchDocument doc = hits.next().getContent();
+                if (doc.getContent() != null) {
+                    toStore.add(doc);
+                } else {
+                    doc.setContent(contentStore.get(doc.getDocumentId(), doc.getChunkIndex()).orElse(null));
+                    if (doc.getContent() == null) {
+                        missing++;
+                    }
+                }
+                batch.add(doc);
+                if (batch.size() == COPY_BATCH_SIZE || !hits.hasNext()) {
+                    contentStore.append(toStore);
+                    chunkIndexer.resubmit(batch).get();
+                    batch = new ArrayList<>(COPY_BATCH_SIZE);
+                    toStore = new ArrayList<>();
+                    updateProgress(target, total);
+                }
+            }
+        }
+        if (missing > 0) {
+            log.warn("⚠️ {} chunk senza testo nel content store copiati senza contenuto ricercabile", missing);
+        }
+    }
+
+    /**
+     * Query che esclude i documenti indicati (in blocchi da max_terms_count valori)
+     */
+    private static Query excludingDocumentIds(List<String> documentIds) {
+        if (documentIds.isEmpty()) {
+            return Query.of(q -> q.matchAll(m -> m));
+        }
+        BoolQuery.Builder bool = new BoolQuery.Builder();
+        for (int i = 0; i < documentIds.size(); i += MAX_TERMS_PER_QUERY) {
+            List<FieldValue> values = documentIds.subList(i, Math.min(i + MAX_TERMS_PER_QUERY, documentIds.size()))
+                    .stream().map(FieldValue::of).toList();
+            bool.mustNot(mn -> mn.terms(t -> t.field("documentId").terms(tv -> tv.value(values))));
+        }
+        return Query.of(q -> q.bool(bool.build()));
+    }
+
+    private void updateProgress(String target, long total) throws IOException {
+        long copied = client.count(c -> c.index(target)).count();
+        status.setCopiedDocuments(copied);
+        status.setProgress(total == 0 ? 1.0 : Math.min(1.0, (double) copied / total));
+        log.debug("Reindicizzazione: {}/{} chunk copiati", copied, total);
+    }
+
+    private void ensureIdle() {
+        if ("RUNNING".equals(status.getState())) {
+            throw new IllegalStateException("Reindicizzazione già in corso verso " + status.getTargetIndex());
+        }
+    }
+
+    private void fail(String message, String rollback) {
+        status.setState("FAILED");
+        status.setFinishedAt(LocalDateTime.now());
+        status.setMessage(message + rollback);
+    }
+
+    private static ReindexStatusDto runningStatus(List<String> source, String target) {
+        ReindexStatusDto running = new ReindexStatusDto();
+        running.setState("RUNNING");
+        running.setSourceIndex(String.join(",", source));
+        running.setTargetIndex(target);
+        running.setCopiedDocuments(0L);
+        running.setProgress(0.0);
+        running.setStartedAt(LocalDateTime.now());
+        return running;
+    }
+
+    private static ReindexStatusDto idleStatus() {
+        ReindexStatusDto idle = new ReindexStatusDto();
+        idle.setState("IDLE");
+        return idle;
+    }
+
+    private static double valueOrZero(Number value) {
+        return value == null ? 0 : value.doubleValue();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.dto.SearchResultDto;
+import com.example.documentsearch.dto.SearchResultIdDto;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Confronto dei formati di risposta della ricerca sugli stessi risultati: JSON con i null (formato precedente),
+ * JSON e CBOR senza null, proiezione view=ids. Per ogni formato: byte, byte gzip e costo di serializzazione.
+ */
+@Component
+@RequiredArgsConstructor
+public class ResponseFormatBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200;
+
+    private final SearchService searchService;
+    private final ObjectMapper objectMapper;
+    private final MappingJackson2CborHttpMessageConverter cborConverter;
+
+    /**
+     * Esegue la ricerca una volta e ne serializza i risultati iterations volte in ogni formato
+     */
+    public Map<String, Object> run(String query, int maxResults, int iterations) throws IOException {
+        List<SearchResultDto> results = searchService.search(query, maxResults);
+        List<SearchResultIdDto> ids = results.stream().map(SearchResultIdDto::of).toList();
+
+        ObjectMapper cbor = cborConverter.getObjectMapper();
+        ObjectMapper withNulls = objectMapper.copy().setSerializationInclusion(JsonInclude.Include.ALWAYS);
+
+        Map<String, Object> formats = new LinkedHashMap<>();
+        formats.put("json-with-nulls", measure(withNulls.writer(), results, iterations));
+        formats.put("json", measure(objectMapper.writer(), results, iterations));
+        formats.put("cbor", measure(cbor.writer(), results, iterations));
+        formats.put("json-ids", measure(objectMapper.writer(), ids, iterations));
+        formats.put("cbor-ids", measure(cbor.writer(), ids, iterations));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("query", query);
+        report.put("results", results.size());
+        report.put("iterations", iterations);
+        report.put("formats", formats);
+        return report;
+    }
+
+    private Map<String, Object> measure(ObjectWriter writer, Object body, int iterations) throws IOException {
+        byte[] bytes = writer.writeValueAsBytes(body);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            writer.writeValueAsBytes(body);
+        }
+
+        long sink = 0; // Evita che il JIT elimini la serializzazione
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += writer.writeValueAsBytes(body).length;
+        }
+        long serializeNanos = System.nanoTime() - start;
+
+        int gzipBytes = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            gzipBytes = gzip(bytes).length;
+        }
+        long gzipNanos = System.nanoTime() - start;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("bytes", bytes.length);
+        result.put("gzipBytes", gzipBytes);
+        result.put("serializeMicros", round(serializeNanos / 1_000.0 / iterations));
+        result.put("gzipMicros", round(gzipNanos / 1_000.0 / iterations));
+        result.put("responsesPerSecond", Math.round(iterations / (serializeNanos / 1e9)));
+        result.put("totalBytes", sink);
+        return result;
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
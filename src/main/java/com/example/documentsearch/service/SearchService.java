@@ -1,81 +1,248 @@
 package com.example.documentsearch.service;
 
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.backend.SearchBackend.ChunkHit;
+import com.example.documentsearch.backend.SearchBackend.ChunkHits;
+import com.example.documentsearch.backend.SearchTrace;
+import com.example.documentsearch.dto.SearchFilters;
+import com.example.documentsearch.dto.SearchResponseDto;
 import com.example.documentsearch.dto.SearchResultDto;
 import com.example.documentsearch.model.SearchDocument;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.elasticsearch.client.elc.NativeQuery;
-import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
-import org.springframework.data.elasticsearch.core.SearchHit;
-import org.springframework.data.elasticsearch.core.SearchHits;
-import org.springframework.data.elasticsearch.core.query.HighlightQuery;
-import org.springframework.data.elasticsearch.core.query.highlight.Highlight;
-import org.springframework.data.elasticsearch.core.query.highlight.HighlightField;
-import org.springframework.data.elasticsearch.core.query.highlight.HighlightFieldParameters;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class SearchService {
 
-    private final ElasticsearchOperations elastic;
+    public static final String FACET_CONTENT_TYPE = "contentType";
+    public static final String FACET_AUTHOR = "author";
+    public static final String FACET_UPLOADED_AT = "uploadedAt";
+    public static final String FACET_CREATION_DATE = "creationDate";
+
+    private final SearchBackend backend;
+    private final MeterRegistry meterRegistry;
 
     @Value("${document.index.name}")
     private String indexName;
 
+    @Value("${search.budget.timeout:2s}")
+    private Duration timeout;
+
+    @Value("${search.max-concurrent:32}")
+    private int maxConcurrent;
+
+    @Value("${search.queue-timeout:100ms}")
+    private Duration queueTimeout;
+
+    @Value("${search.retry-after:1s}")
+    private Duration retryAfter;
+
+    // Ricerche identiche in corso: le richieste concorrenti attendono lo stesso risultato (single-flight)
+    private final Map<SearchKey, CompletableFuture<SearchResponseDto>> inFlight = new ConcurrentHashMap<>();
+
+    private Semaphore permits;
+    private Counter coalesced;
+    private Counter rejected;
+    private Counter partial;
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(maxConcurrent);
+        coalesced = Counter.builder("search.coalesced")
+                .description("Ricerche servite dal risultato di una ricerca identica già in corso")
+                .register(meterRegistry);
+        rejected = Counter.builder("search.rejected")
+                .description("Ricerche rifiutate con 429 per superamento del limite di concorrenza")
+                .register(meterRegistry);
+        partial = Counter.builder("search.partial")
+                .description("Ricerche terminate allo scadere del time budget con risultati parziali")
+                .register(meterRegistry);
+        Gauge.builder("search.inflight", permits, p -> maxConcurrent - p.availablePermits())
+                .description("Ricerche in esecuzione sul backend")
+                .register(meterRegistry);
+    }
+
     /**
      * Cerca nei chunk e restituisce risultati raggruppati per documento
      */
     public List<SearchResultDto> search(String query, Integer maxResults) {
+        return search(query, maxResults, null);
+    }
+
+    /**
+     * Cerca nei chunk applicando i filtri strutturati e restituisce risultati raggruppati per documento
+     */
+    public List<SearchResultDto> search(String query, Integer maxResults, SearchFilters filters) {
+        return search(query, maxResults, filters, false).getResults();
+    }
+
+    /**
+     * Cerca nei chunk con filtri e, se richiesto, calcola i facet nella stessa chiamata.
+     * I filtri sono applicati in filter context: non influenzano lo score e sono cacheabili.
+     */
+    public SearchResponseDto search(String query, Integer maxResults, SearchFilters filters, boolean withFacets) {
+        return search(query, maxResults, filters, withFacets, false);
+    }
+
+    /**
+     * Come {@link #search(String, Integer, SearchFilters, boolean)}; con hybrid=true i risultati BM25 vengono
+     * fusi con una ricerca kNN sugli embedding dei chunk (Reciprocal Rank Fusion), così si trovano anche
+     * le parafrasi. Se gli embedding sono disabilitati la ricerca resta solo lessicale.
+     *
+     * Richieste identiche concorrenti condividono una sola chiamata al backend. Le ricerche in esecuzione
+     * sono al massimo search.max-concurrent: oltre, dopo search.queue-timeout di attesa, la richiesta viene
+     * rifiutata con {@link SearchRejectedException} (429) invece di accodarsi senza limite.
+     */
+    public SearchResponseDto search(String query, Integer maxResults, SearchFilters filters, boolean withFacets,
+                                    boolean hybrid) {
+        return search(query, maxResults, filters, withFacets, hybrid, SearchTrace.untraced(query));
+    }
+
+    /**
+     * Come {@link #search(String, Integer, SearchFilters, boolean, boolean)} registrando i tempi per fase
+     * nella traccia. Con trace.isProfile() la risposta include il profilo del motore e i tempi per fase;
+     * le ricerche con profilo non condividono il risultato con quelle senza.
+     */
+    public SearchResponseDto search(String query, Integer maxResults, SearchFilters filters, boolean withFacets,
+                                    boolean hybrid, SearchTrace trace) {
         if (maxResults == null) {
             maxResults = 10;
         }
-        
-        HighlightFieldParameters highlightParameters = HighlightFieldParameters.builder()
-                .withPreTags(new String[]{"<mark>"})
-                .withPostTags(new String[]{"</mark>"})
-                .withFragmentSize(150) // Limita la dimensione dei frammenti
-                .withNumberOfFragments(3) // Max 3 frammenti per risultato
-                .build();
-
-        HighlightField highlightField = new HighlightField("content", highlightParameters);
-        Highlight highlight = new Highlight(List.of(highlightField));
-        HighlightQuery highlightQuery = new HighlightQuery(highlight, null);
-
-        NativeQuery nativeQuery = NativeQuery.builder()
-                .withQuery(q -> q
-                        .match(m -> m
-                                .field("content")
-                                .query(query)
-                        )
-                )
-                .withHighlightQuery(highlightQuery)
-                .withMaxResults(maxResults * 3) // Prendi più risultati perché poi raggruppiamo
-                .build();
-
-        SearchHits<SearchDocument> searchHits = elastic.search(nativeQuery, SearchDocument.class);
-        
+        if (filters != null && filters.isEmpty()) {
+            filters = null;
+        }
+
+        SearchKey key = new SearchKey(query, maxResults, filters, withFacets, hybrid, trace.isProfile());
+        CompletableFuture<SearchResponseDto> flight = new CompletableFuture<>();
+        CompletableFuture<SearchResponseDto> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            trace.setCoalesced(true);
+            SearchResponseDto response;
+            try (SearchTrace.Phase phase = trace.phase("coalesced")) {
+                response = await(existing);
+            }
+            trace.setHits(response.getTotalHits(), response.getResults().size(), response.isPartial());
+            return response;
+        }
+
+        try {
+            SearchResponseDto response = searchWithinLimit(query, maxResults, filters, withFacets, hybrid, trace);
+            trace.setHits(response.getTotalHits(), response.getResults().size(), response.isPartial());
+            flight.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private record SearchKey(String query, int maxResults, SearchFilters filters, boolean withFacets, boolean hybrid,
+                             boolean profile) {
+    }
+
+    /**
+     * Attende la ricerca identica già in corso; un suo errore (anche il 429) vale per tutte le richieste in attesa
+     */
+    private SearchResponseDto await(CompletableFuture<SearchResponseDto> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private SearchResponseDto searchWithinLimit(String query, int maxResults, SearchFilters filters,
+                                                boolean withFacets, boolean hybrid, SearchTrace trace) {
+        boolean acquired;
+        try (SearchTrace.Phase phase = trace.phase("queue")) {
+            acquired = permits.tryAcquire(queueTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            rejected.increment();
+            throw new SearchRejectedException(retryAfter);
+        }
+        try {
+            return execute(query, maxResults, filters, withFacets, hybrid, trace);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private SearchResponseDto execute(String query, int maxResults, SearchFilters filters, boolean withFacets,
+                                      boolean hybrid, SearchTrace trace) {
+        // Prendi più risultati perché poi raggruppiamo
+        ChunkHits chunkHits;
+        try (SearchTrace.Phase phase = trace.phase("backend")) {
+            chunkHits = backend.search(query, maxResults * 3, filters, withFacets, hybrid, timeout, trace);
+        }
+        if (chunkHits.partial()) {
+            partial.increment();
+            log.warn("⏱️ Ricerca \"{}\" oltre il time budget di {}: risultati parziali", query, timeout);
+        }
+
+        List<SearchResultDto> results;
+        try (SearchTrace.Phase phase = trace.phase("grouping")) {
+            results = group(chunkHits, maxResults);
+        }
+
+        SearchResponseDto response = new SearchResponseDto(results, chunkHits.totalHits(), chunkHits.facets(),
+                chunkHits.partial());
+        if (trace.isProfile()) {
+            response.setProfile(trace.getProfileResult());
+            response.setTimings(trace.timings());
+        }
+        return response;
+    }
+
+    /**
+     * Converte i chunk in DTO raggruppati per documento, ordinati per score
+     */
+    private List<SearchResultDto> group(ChunkHits chunkHits, int maxResults) {
         // Converti in DTO e raggruppa per documento
         Map<String, SearchResultDto> resultsByDocument = new HashMap<>();
-        
-        for (SearchHit<SearchDocument> hit : searchHits.getSearchHits()) {
-            SearchDocument doc = hit.getContent();
+
+        for (ChunkHit hit : chunkHits.hits()) {
+            SearchDocument doc = hit.document();
             String docId = doc.getDocumentId() != null ? doc.getDocumentId() : doc.getId();
-            
+
             SearchResultDto result = resultsByDocument.get(docId);
-            
+
             if (result == null) {
                 result = new SearchResultDto();
                 result.setDocumentId(docId);
                 result.setFilename(doc.getFilename());
                 result.setFileChecksum(doc.getFileChecksum());
+                result.setDuplicateOf(doc.getDuplicateOf());
                 result.setChunkIndex(doc.getChunkIndex());
-                result.setScore(Double.valueOf(hit.getScore()));
+                result.setScore(hit.score());
                 result.setHighlights(new ArrayList<>());
-                
+
                 // Metadati
                 result.setAuthor(doc.getAuthor());
                 result.setTitle(doc.getTitle());
@@ -86,72 +253,50 @@ public class SearchService {
                 result.setKeywords(doc.getKeywords());
                 result.setSubject(doc.getSubject());
                 result.setPageCount(doc.getPageCount());
-                
+
                 resultsByDocument.put(docId, result);
             }
-            
+
             // Aggiungi gli highlights di questo chunk
-            List<String> highlights = hit.getHighlightFields().get("content");
+            List<String> highlights = hit.highlights();
             if (highlights != null && !highlights.isEmpty()) {
                 result.getHighlights().addAll(highlights);
             }
-            
+
             // Mantieni lo score più alto
-            if (hit.getScore() > result.getScore()) {
-                result.setScore(Double.valueOf(hit.getScore()));
+            if (hit.score() > result.getScore()) {
+                result.setScore(hit.score());
                 result.setChunkIndex(doc.getChunkIndex());
             }
         }
-        
+
         // Ordina per score e limita i risultati
         return resultsByDocument.values().stream()
                 .sorted(Comparator.comparing(SearchResultDto::getScore).reversed())
                 .limit(maxResults)
                 .collect(Collectors.toList());
     }
-    
+
+    /**
+     * Metodo legacy per retrocompatibilità: i chunk trovati con testo e highlight, senza raggruppamento
+     */
+    public List<ChunkHit> searchRaw(String query) {
+        return backend.searchRaw(query);
+    }
+
     /**
-     * Metodo legacy per retrocompatibilità
+     * Chunk consecutivi di un documento (max 50 per richiesta); con il checksum la lettura tocca un solo shard
      */
-    public List<SearchHit<SearchDocument>> searchRaw(String query) {
-        HighlightFieldParameters highlightParameters = HighlightFieldParameters.builder()
-                .withPreTags(new String[]{"<mark>"})
-                .withPostTags(new String[]{"</mark>"})
-                .build();
-
-        HighlightField highlightField = new HighlightField("content", highlightParameters);
-        Highlight highlight = new Highlight(List.of(highlightField));
-        HighlightQuery highlightQuery = new HighlightQuery(highlight, null);
-
-        NativeQuery nativeQuery = NativeQuery.builder()
-                .withQuery(q -> q
-                        .match(m -> m
-                                .field("content")
-                                .query(query)
-                        )
-                )
-                .withHighlightQuery(highlightQuery)
-                .build();
-
-        SearchHits<SearchDocument> searchHits = elastic.search(nativeQuery, SearchDocument.class);
-        return searchHits.getSearchHits();
+    public List<SearchDocument> getDocumentChunks(String documentId, String fileChecksum, int from, int size) {
+        return backend.documentChunks(documentId, fileChecksum, Math.max(0, from), Math.min(Math.max(1, size), 50));
     }
-    
+
     /**
      * Restituisce la lista dei nomi file unici indicizzati con checksum
      */
     public List<String> getIndexedFilenames() {
-        NativeQuery nativeQuery = NativeQuery.builder()
-                .withQuery(q -> q.matchAll(m -> m))
-                .withFields("filename", "fileChecksum")
-                .withMaxResults(10000)
-                .build();
-
-        SearchHits<SearchDocument> searchHits = elastic.search(nativeQuery, SearchDocument.class);
-        
-        return searchHits.getSearchHits().stream()
-                .map(hit -> {
-                    SearchDocument doc = hit.getContent();
+        return backend.indexedFiles().stream()
+                .map(doc -> {
                     String checksum = doc.getFileChecksum();
                     if (checksum != null && checksum.length() > 8) {
                         checksum = checksum.substring(0, 8) + "...";
@@ -163,4 +308,21 @@ public class SearchService {
                 .sorted()
                 .collect(Collectors.toList());
     }
+
+    /**
+     * Ricerca rifiutata perché il limite di ricerche concorrenti è esaurito (HTTP 429 con Retry-After)
+     */
+    public static class SearchRejectedException extends RuntimeException {
+
+        private final Duration retryAfter;
+
+        public SearchRejectedException(Duration retryAfter) {
+            super("Troppe ricerche in corso, riprovare tra " + retryAfter.toSeconds() + "s");
+            this.retryAfter = retryAfter;
+        }
+
+        public long getRetryAfterSeconds() {
+            return Math.max(1, retryAfter.toSeconds());
+        }
+    }
 }
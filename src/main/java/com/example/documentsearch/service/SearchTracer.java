@@ -0,0 +1,67 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.backend.SearchTrace;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Crea le tracce delle ricerche e, a risposta inviata, scrive nello slow-query log quelle oltre la soglia.
+ *
+ * Lo slow-query log usa il logger dedicato "search.slowlog" (instradabile su un file a parte): testo della query,
+ * chunk trovati, documenti restituiti e tempi per fase, serializzazione compresa.
+ */
+@Slf4j(topic = "search.slowlog")
+@Component
+@RequiredArgsConstructor
+public class SearchTracer {
+
+    private static final int MAX_LOGGED_QUERY_LENGTH = 200;
+
+    private final ObservationRegistry observationRegistry;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${search.slow-query.threshold:1s}")
+    private Duration slowQueryThreshold; // 0 = slow-query log disabilitato
+
+    private Counter slowQueries;
+
+    @PostConstruct
+    public void init() {
+        slowQueries = Counter.builder("search.slow")
+                .description("Ricerche oltre search.slow-query.threshold (registrate nello slow-query log)")
+                .register(meterRegistry);
+    }
+
+    public SearchTrace start(String query, boolean profile) {
+        return new SearchTrace(query, profile, observationRegistry);
+    }
+
+    /**
+     * Chiamato a risposta scritta (o fallita)
+     */
+    public void finish(SearchTrace trace) {
+        Duration elapsed = trace.elapsed();
+        if (slowQueryThreshold.isZero() || elapsed.compareTo(slowQueryThreshold) < 0) {
+            return;
+        }
+        slowQueries.increment();
+        log.warn("🐢 Ricerca lenta {} ms: query=\"{}\" chunk={} risultati={} parziale={} condivisa={} profilo={} fasi(ms)={}",
+                elapsed.toMillis(), abbreviate(trace.getQuery()), trace.getTotalHits(), trace.getResults(),
+                trace.isPartial(), trace.isCoalesced(), trace.isProfile(), trace.timings());
+    }
+
+    private static String abbreviate(String query) {
+        if (query == null || query.length() <= MAX_LOGGED_QUERY_LENGTH) {
+            return query;
+        }
+        return query.substring(0, MAX_LOGGED_QUERY_LENGTH) + "…";
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.documentsearch.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Highlighter locale usato quando il testo dei chunk non è nel _source di Elasticsearch
+ * (vedi {@link ChunkContentStore}): produce frammenti con i termini della query tra &lt;mark&gt;,
+ * con la stessa forma degli highlight restituiti da Elasticsearch.
+ */
+public final class SnippetHighlighter {
+
+    private static final String PRE_TAG = "<mark>";
+    private static final String POST_TAG = "</mark>";
+
+    private SnippetHighlighter() {
+    }
+
+    /**
+     * @param fragmentSize  dimensione indicativa di ogni frammento in caratteri
+     * @param maxFragments  numero massimo di frammenti
+     */
+    public static List<String> highlight(String text, String query, int fragmentSize, int maxFragments) {
+        List<String> fragments = new ArrayList<>();
+        Pattern terms = termsPattern(query);
+        if (text == null || text.isEmpty() || terms == null) {
+            return fragments;
+        }
+
+        Matcher matcher = terms.matcher(text);
+        int coveredUntil = -1;
+        while (fragments.size() < maxFragments && matcher.find()) {
+            if (matcher.start() < coveredUntil) {
+                continue; // Già incluso nel frammento precedente
+            }
+            int start = Math.max(0, matcher.start() - fragmentSize / 3);
+            int space = text.lastIndexOf(' ', start);
+            if (start > 0 && space >= 0 && start - space < 20) {
+                start = space + 1; // Non tagliare una parola all'inizio
+            }
+            int end = Math.min(text.length(), start + fragmentSize);
+            int nextSpace = text.indexOf(' ', end);
+            if (end < text.length() && nextSpace >= 0 && nextSpace - end < 20) {
+                end = nextSpace;
+            }
+            fragments.add(mark(text.substring(start, end), terms));
+            coveredUntil = end;
+        }
+        return fragments;
+    }
+
+    private static String mark(String fragment, Pattern terms) {
+        return terms.matcher(fragment).replaceAll(m -> Matcher.quoteReplacement(PRE_TAG + m.group() + POST_TAG)).trim();
+    }
+
+    /**
+     * Termini della query come parole intere, senza distinzione tra maiuscole e minuscole
+     */
+    private static Pattern termsPattern(String query) {
+        if (query == null) {
+            return null;
+        }
+        String alternatives = Arrays.stream(query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(t -> !t.isBlank())
+                .distinct()
+                .map(Pattern::quote)
+                .collect(Collectors.joining("|"));
+        if (alternatives.isEmpty()) {
+            return null;
+        }
+        return Pattern.compile("(?<![\\p{L}\\p{N}])(?:" + alternatives + ")(?![\\p{L}\\p{N}])",
+                Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+}
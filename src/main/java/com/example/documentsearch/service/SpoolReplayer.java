@@ -0,0 +1,111 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.model.SearchDocument;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Svuota lo {@link ChunkSpool} in background quando Elasticsearch torna disponibile.
+ *
+ * Il primo batch fa da sonda (circuito in prova); poi i batch sono reinviati a finestre di
+ * replay-window richieste concorrenti, sempre governate dall'{@link AdaptiveConcurrencyLimiter}.
+ * Il permesso del circuit breaker lo prende {@link ChunkIndexer#replay(List)} subito prima di ogni scrittura,
+ * quando il batch è già stato letto: nessun percorso di uscita lascia una prova in sospeso.
+ * Un batch viene rimosso dallo spool solo dopo la conferma di Elasticsearch.
+ * Un batch con un chunk 0 (marcatore di commit) apre sempre una nuova finestra: parte solo quando i batch
+ * precedenti, con il resto del documento, sono confermati.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = SearchBackend.PROPERTY, havingValue = SearchBackend.ELASTICSEARCH, matchIfMissing = true)
+public class SpoolReplayer {
+
+    private final ChunkSpool spool;
+    private final ChunkIndexer chunkIndexer;
+    private final ElasticsearchCircuitBreaker circuitBreaker;
+    private final IndexManager indexManager;
+
+    @Value("${document.spool.replay-window:16}")
+    private int replayWindow;
+
+    @Scheduled(fixedDelayString = "${document.spool.replay-interval:5000}")
+    public void replay() {
+        try {
+            List<Path> batches = spool.pending();
+            if (batches.isEmpty() || !indexManager.isReady() || !circuitBreaker.isAvailable()) {
+                return;
+            }
+
+            log.info("📼 Replay dello spool: {} batch in attesa", batches.size());
+            int replayed = 0;
+
+            // Sonda: un solo batch, se fallisce il circuito si riapre e riproviamo al prossimo giro
+            if (replayWindow(batches.subList(0, 1)) < 0) {
+                return;
+            }
+            replayed++;
+
+            int from = 1;
+            while (from < batches.size()) {
+                int sent = replayWindow(batches.subList(from, Math.min(from + replayWindow, batches.size())));
+                if (sent < 0) {
+                    break;
+                }
+                from += sent;
+                replayed += sent;
+            }
+
+            log.info("✅ Replay dello spool: {} batch reinviati, {} ancora in attesa", replayed, spool.size());
+        } catch (Exception e) {
+            log.warn("⚠️ Replay dello spool interrotto: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reinvia una finestra di batch in parallelo e rimuove dallo spool quelli confermati.
+     * La finestra si chiude prima del primo batch con un marcatore di commit che non sia in testa.
+     *
+     * @return batch reinviati, o -1 se almeno un batch è fallito (il replay si ferma e riprende al prossimo giro)
+     */
+    private int replayWindow(List<Path> window) throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Path batch : window) {
+            List<SearchDocument> documents = spool.read(batch);
+            if (!futures.isEmpty() && containsCommit(documents)) {
+                break;
+            }
+            futures.add(chunkIndexer.replay(documents));
+        }
+
+        boolean allSucceeded = true;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).join();
+                spool.remove(window.get(i));
+            } catch (Exception e) {
+                allSucceeded = false;
+                if (e.getCause() instanceof ChunkIndexer.ClusterUnavailableException) {
+                    log.debug("Batch {} non reinviato: circuito non disponibile", window.get(i).getFileName());
+                } else {
+                    log.warn("⚠️ Batch {} non reinviato: {}", window.get(i).getFileName(), e.getMessage());
+                }
+            }
+        }
+        return allSucceeded ? futures.size() : -1;
+    }
+
+    private static boolean containsCommit(List<SearchDocument> documents) {
+        return documents.stream().anyMatch(doc -> doc.getChunkIndex() != null && doc.getChunkIndex() == 0);
+    }
+}
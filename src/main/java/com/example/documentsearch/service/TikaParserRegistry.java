@@ -0,0 +1,161 @@
+package com.example.documentsearch.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.detect.DefaultDetector;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.DefaultParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parser Tika condiviso da tutte le estrazioni, creato al primo documento e non all'avvio.
+ *
+ * Di default è un AutoDetectParser con tutti i parser di tika-parsers-standard-package (centinaia di classi,
+ * caricate una volta sola). Con document.tika.lazy-parsers=true (profilo fast-start) l'AutoDetectParser ha solo
+ * il detector: il parser di ogni tipo MIME rilevato viene istanziato al primo documento di quel tipo, e solo
+ * i tipi non presenti in {@link #PARSER_CLASSES} caricano il registro completo. Rilevamento del tipo,
+ * protezione dalle zip bomb e documenti incorporati restano quelli dell'AutoDetectParser.
+ */
+@Slf4j
+@Component
+public class TikaParserRegistry {
+
+    // Parser dei formati più comuni; per i sottotipi (es. text/x-java) vale il supertipo nel registro MIME
+    private static final Map<String, String> PARSER_CLASSES = Map.ofEntries(
+            Map.entry("application/pdf", "org.apache.tika.parser.pdf.PDFParser"),
+            Map.entry("application/x-tika-ooxml", "org.apache.tika.parser.microsoft.ooxml.OOXMLParser"),
+            Map.entry("application/x-tika-msoffice", "org.apache.tika.parser.microsoft.OfficeParser"),
+            Map.entry("application/vnd.oasis.opendocument.text", "org.apache.tika.parser.odf.OpenDocumentParser"),
+            Map.entry("application/vnd.oasis.opendocument.spreadsheet", "org.apache.tika.parser.odf.OpenDocumentParser"),
+            Map.entry("application/vnd.oasis.opendocument.presentation", "org.apache.tika.parser.odf.OpenDocumentParser"),
+            Map.entry("application/rtf", "org.apache.tika.parser.microsoft.rtf.RTFParser"),
+            Map.entry("text/plain", "org.apache.tika.parser.csv.TextAndCSVParser"),
+            Map.entry("text/csv", "org.apache.tika.parser.csv.TextAndCSVParser"),
+            Map.entry("text/html", "org.apache.tika.parser.html.JSoupParser"),
+            Map.entry("application/xhtml+xml", "org.apache.tika.parser.html.JSoupParser"),
+            Map.entry("message/rfc822", "org.apache.tika.parser.mail.RFC822Parser"),
+            Map.entry("application/epub+zip", "org.apache.tika.parser.epub.EpubParser"),
+            Map.entry("application/zip", "org.apache.tika.parser.pkg.PackageParser"));
+
+    private final boolean lazy;
+
+    private volatile Parser parser;
+    private volatile Parser fullRegistry;
+
+    public TikaParserRegistry(@Value("${document.tika.lazy-parsers:false}") boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Parser con rilevamento automatico del tipo; thread-safe, da usare anche come parser dei documenti incorporati
+     */
+    public Parser parser() {
+        Parser current = parser;
+        if (current == null) {
+            synchronized (this) {
+                current = parser;
+                if (current == null) {
+                    long start = System.nanoTime();
+                    current = lazy ? lazyAutoDetectParser() : new AutoDetectParser();
+                    log.info("📑 Parser Tika {} pronto in {} ms", lazy ? "(lazy per tipo MIME)" : "completo",
+                            (System.nanoTime() - start) / 1_000_000);
+                    parser = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Parser lazyAutoDetectParser() {
+        // Senza parser tutto va al fallback (il costruttore con il solo detector caricherebbe la configurazione completa)
+        AutoDetectParser autoDetect = new AutoDetectParser(new DefaultDetector(), new Parser[0]);
+        autoDetect.setFallback(new PerTypeParser(autoDetect.getMediaTypeRegistry()));
+        return autoDetect;
+    }
+
+    /**
+     * Registro completo (DefaultParser) per i tipi senza un parser noto, caricato solo se serve
+     */
+    private Parser fullRegistry() {
+        Parser current = fullRegistry;
+        if (current == null) {
+            synchronized (this) {
+                current = fullRegistry;
+                if (current == null) {
+                    long start = System.nanoTime();
+                    current = new DefaultParser();
+                    log.info("📑 Registro completo dei parser Tika caricato in {} ms",
+                            (System.nanoTime() - start) / 1_000_000);
+                    fullRegistry = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Sceglie il parser dal Content-Type già rilevato dall'AutoDetectParser e lo istanzia al primo uso
+     */
+    private final class PerTypeParser implements Parser {
+
+        private final MediaTypeRegistry registry;
+        private final Map<MediaType, Parser> byType = new ConcurrentHashMap<>();
+        private final Map<String, Parser> byClass = new ConcurrentHashMap<>();
+
+        private PerTypeParser(MediaTypeRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public Set<MediaType> getSupportedTypes(ParseContext context) {
+            return fullRegistry().getSupportedTypes(context);
+        }
+
+        @Override
+        public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context)
+                throws IOException, SAXException, TikaException {
+            MediaType type = MediaType.parse(metadata.get(Metadata.CONTENT_TYPE));
+            Parser delegate = type != null
+                    ? byType.computeIfAbsent(registry.normalize(type).getBaseType(), this::load)
+                    : fullRegistry();
+            delegate.parse(stream, handler, metadata, context);
+        }
+
+        private Parser load(MediaType type) {
+            for (MediaType candidate = type; candidate != null; candidate = registry.getSupertype(candidate)) {
+                String className = PARSER_CLASSES.get(candidate.toString());
+                if (className != null) {
+                    Parser loaded = byClass.computeIfAbsent(className, this::instantiate);
+                    if (loaded != null) {
+                        log.debug("📑 Parser Tika per {}: {}", type, className);
+                        return loaded;
+                    }
+                }
+            }
+            return fullRegistry();
+        }
+
+        private Parser instantiate(String className) {
+            try {
+                return (Parser) Class.forName(className).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                log.warn("⚠️ Parser Tika {} non disponibile ({}): uso il registro completo", className, e.toString());
+                return null; // computeIfAbsent non memorizza null: si passa al registro completo
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.documentsearch.backend;
+
+import com.example.documentsearch.dto.SearchFilters;
+import com.example.documentsearch.dto.SearchResultDto;
+import com.example.documentsearch.model.SearchDocument;
+import com.example.documentsearch.service.SearchService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LuceneSearchBackendTest {
+
+    @TempDir
+    Path indexDir;
+
+    private LuceneSearchBackend backend;
+
+    @BeforeEach
+    void open() throws Exception {
+        backend = open(Duration.ofMillis(20));
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        backend.shutdown();
+    }
+
+    private LuceneSearchBackend open(Duration commitInterval) throws Exception {
+        LuceneSearchBackend lucene = new LuceneSearchBackend();
+        ReflectionTestUtils.setField(lucene, "indexDirectory", indexDir.toString());
+        ReflectionTestUtils.setField(lucene, "commitInterval", commitInterval);
+        lucene.init();
+        return lucene;
+    }
+
+    private static SearchDocument chunk(String documentId, String filename, String checksum, int index, String content) {
+        SearchDocument doc = new SearchDocument();
+        doc.setId(documentId + "_" + index);
+        doc.setDocumentId(documentId);
+        doc.setFilename(filename);
+        doc.setFileChecksum(checksum);
+        doc.setChunkIndex(index);
+        doc.setContent(content);
+        doc.setContentType("application/pdf");
+        doc.setUploadedAt(LocalDateTime.of(2026, 3, 1, 10, 0));
+        doc.setStatus("COMPLETED");
+        return doc;
+    }
+
+    /**
+     * Come DocumentService: chunk 1..N-1 in batch, chunk 0 per ultimo come marcatore di commit
+     */
+    private void index(String documentId, String filename, String checksum, String... contents) throws Exception {
+        List<SearchDocument> rest = new ArrayList<>();
+        for (int i = 1; i < contents.length; i++) {
+            rest.add(chunk(documentId, filename, checksum, i, contents[i]));
+        }
+        if (!rest.isEmpty()) {
+            backend.submit(rest).get(5, TimeUnit.SECONDS);
+        }
+        backend.save(chunk(documentId, filename, checksum, 0, contents[0]));
+    }
+
+    private SearchService searchService() {
+        SearchService service = new SearchService(backend, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "timeout", Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(service, "maxConcurrent", 4);
+        ReflectionTestUtils.setField(service, "queueTimeout", Duration.ofMillis(100));
+        ReflectionTestUtils.setField(service, "retryAfter", Duration.ofSeconds(1));
+        service.init();
+        return service;
+    }
+
+    @Test
+    void chunksAreGroupedByDocumentWithHighlights() throws Exception {
+        index("doc-a", "contratto.pdf", "aaa",
+                "Il contratto di fornitura è valido per tre anni.",
+                "La fornitura comprende la manutenzione.",
+                "Allegato tecnico senza termini rilevanti.");
+        index("doc-b", "offerta.pdf", "bbb", "Offerta economica per la fornitura di server.");
+
+        List<SearchResultDto> results = searchService().search("fornitura", 10);
+
+        assertThat(results).extracting(SearchResultDto::getDocumentId).containsExactlyInAnyOrder("doc-a", "doc-b");
+        SearchResultDto contract = results.stream().filter(r -> r.getDocumentId().equals("doc-a")).findFirst().orElseThrow();
+        assertThat(contract.getHighlights()).hasSize(2).allMatch(h -> h.contains("<mark>fornitura</mark>"));
+        assertThat(contract.getFilename()).isEqualTo("contratto.pdf");
+    }
+
+    @Test
+    void highlightsMarkEveryMatchingTerm() throws Exception {
+        index("doc-a", "note.txt", "aaa", "Server di produzione e server di test nello stesso rack.");
+
+        SearchBackend.ChunkHits hits = backend.search("server rack", 10, null, false, false, Duration.ofSeconds(5),
+                SearchTrace.untraced("server rack"));
+
+        assertThat(hits.totalHits()).isEqualTo(1);
+        assertThat(hits.partial()).isFalse();
+        String fragment = hits.hits().get(0).highlights().get(0);
+        assertThat(fragment).contains("<mark>Server</mark>", "<mark>server</mark>", "<mark>rack</mark>");
+    }
+
+    @Test
+    void documentExistsOnlyOnceChunkZeroIsCommitted() throws Exception {
+        backend.submit(List.of(chunk("doc-a", "report.pdf", "aaa", 1, "seconda parte"))).get(5, TimeUnit.SECONDS);
+        assertThat(backend.documentExists("report.pdf", "aaa")).isFalse();
+
+        backend.save(chunk("doc-a", "report.pdf", "aaa", 0, "prima parte"));
+
+        assertThat(backend.documentExists("report.pdf", "aaa")).isTrue();
+        assertThat(backend.documentExists("copia.pdf", "aaa")).isFalse();
+        assertThat(backend.documentExists("report.pdf", "zzz")).isFalse();
+    }
+
+    @Test
+    void indexedFilesListsCommittedDocumentsOnly() throws Exception {
+        index("doc-a", "a.pdf", "aaaaaaaaaaaa", "uno", "due");
+        index("doc-b", "b.pdf", "bbbbbbbbbbbb", "tre");
+        backend.submit(List.of(chunk("doc-c", "c.pdf", "cccccccccccc", 1, "parziale"))).get(5, TimeUnit.SECONDS);
+
+        assertThat(backend.indexedFiles()).extracting(SearchDocument::getFilename).containsExactlyInAnyOrder("a.pdf", "b.pdf");
+        assertThat(searchService().getIndexedFilenames()).containsExactly("a.pdf [aaaaaaaa...]", "b.pdf [bbbbbbbb...]");
+    }
+
+    @Test
+    void filtersRestrictResultsWithoutChangingGrouping() throws Exception {
+        index("doc-a", "a.pdf", "aaa", "budget annuale");
+        SearchDocument html = chunk("doc-b", "b.html", "bbb", 0, "budget trimestrale");
+        html.setContentType("text/html");
+        backend.save(html);
+
+        SearchFilters filters = new SearchFilters();
+        filters.setContentTypes(List.of("text/html"));
+
+        assertThat(searchService().search("budget", 10, filters)).extracting(SearchResultDto::getDocumentId)
+                .containsExactly("doc-b");
+    }
+
+    @Test
+    void searchRawReturnsFullChunksWithHighlights() throws Exception {
+        index("doc-a", "a.pdf", "aaa", "Il verbale della riunione di marzo.");
+
+        List<SearchBackend.ChunkHit> hits = backend.searchRaw("verbale");
+
+        assertThat(hits).singleElement().satisfies(hit -> {
+            assertThat(hit.document().getContent()).isEqualTo("Il verbale della riunione di marzo.");
+            assertThat(hit.highlights()).singleElement().asString().contains("<mark>verbale</mark>");
+        });
+    }
+
+    @Test
+    void acknowledgedWritesSurviveReopening() throws Exception {
+        CompletableFuture<Void> batch = backend.submit(List.of(chunk("doc-a", "a.pdf", "aaa", 1, "contenuto durevole")));
+        batch.get(5, TimeUnit.SECONDS);
+        backend.save(chunk("doc-a", "a.pdf", "aaa", 0, "inizio"));
+        backend.shutdown();
+
+        backend = open(Duration.ofMillis(20));
+
+        assertThat(backend.documentExists("a.pdf", "aaa")).isTrue();
+        assertThat(backend.documentChunks("doc-a", null, 0, 10)).extracting(SearchDocument::getChunkIndex)
+                .containsExactly(0, 1);
+    }
+
+    @Test
+    void synchronousCommitModeCompletesWritesImmediately() throws Exception {
+        backend.shutdown();
+        backend = open(Duration.ZERO);
+
+        CompletableFuture<Void> batch = backend.submit(List.of(chunk("doc-a", "a.pdf", "aaa", 1, "subito")));
+
+        assertThat(batch).isCompleted();
+    }
+
+    @Test
+    void deleteRemovesEveryChunkOfTheDocument() throws Exception {
+        index("doc-a", "a.pdf", "aaa", "uno", "due", "tre");
+        index("doc-b", "b.pdf", "bbb", "uno");
+
+        backend.deleteDocument("doc-a", "aaa");
+
+        assertThat(backend.documentExists("a.pdf", "aaa")).isFalse();
+        assertThat(backend.documentChunks("doc-a", "aaa", 0, 10)).isEmpty();
+        assertThat(backend.documentExists("b.pdf", "bbb")).isTrue();
+    }
+}
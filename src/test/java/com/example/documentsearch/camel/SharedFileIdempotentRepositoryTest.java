@@ -0,0 +1,197 @@
+package com.example.documentsearch.camel;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SharedFileIdempotentRepositoryTest {
+
+    @TempDir
+    Path lockDir;
+
+    private final List<SharedFileIdempotentRepository> repositories = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        repositories.forEach(SharedFileIdempotentRepository::shutdown);
+    }
+
+    private SharedFileIdempotentRepository node(String nodeId, Duration lease, Duration doneRetention) throws Exception {
+        SharedFileIdempotentRepository repository = new SharedFileIdempotentRepository();
+        ReflectionTestUtils.setField(repository, "lockDirectory", lockDir.toString());
+        ReflectionTestUtils.setField(repository, "configuredNodeId", nodeId);
+        ReflectionTestUtils.setField(repository, "lease", lease);
+        ReflectionTestUtils.setField(repository, "doneRetention", doneRetention);
+        repository.init();
+        repositories.add(repository);
+        return repository;
+    }
+
+    private SharedFileIdempotentRepository node(String nodeId) throws Exception {
+        return node(nodeId, Duration.ofMinutes(1), Duration.ofDays(7));
+    }
+
+    @Test
+    void twoNodesRacingForTheSameFileClaimItOnce() throws Exception {
+        SharedFileIdempotentRepository nodeA = node("node-a");
+        SharedFileIdempotentRepository nodeB = node("node-b");
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 200; i++) {
+                String key = "report-" + i + ".pdf-1024-1700000000000";
+                CountDownLatch start = new CountDownLatch(1);
+                Future<Boolean> a = pool.submit(() -> { start.await(); return nodeA.add(key); });
+                Future<Boolean> b = pool.submit(() -> { start.await(); return nodeB.add(key); });
+                start.countDown();
+
+                assertThat(a.get() ^ b.get()).as("un solo nodo reclama %s", key).isTrue();
+                assertThat(nodeA.contains(key)).isTrue();
+                assertThat(nodeB.contains(key)).isTrue();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void confirmedFileStaysClaimedAndIsNoLongerRenewed() throws Exception {
+        SharedFileIdempotentRepository nodeA = node("node-a");
+        SharedFileIdempotentRepository nodeB = node("node-b");
+        String key = "contract.docx-2048-1700000000000";
+
+        assertThat(nodeA.add(key)).isTrue();
+        assertThat(nodeA.confirm(key)).isTrue();
+
+        Path lock = singleLock();
+        assertThat(Files.readString(lock)).startsWith("DONE\nnode-a\n");
+        FileTime old = FileTime.from(Instant.now().minus(Duration.ofHours(1)));
+        Files.setLastModifiedTime(lock, old);
+        nodeA.renewLeases();
+        assertThat(Files.getLastModifiedTime(lock)).isEqualTo(old);
+
+        // DONE non scade con il lease: nessun altro nodo lo riprocessa
+        assertThat(nodeB.contains(key)).isTrue();
+        assertThat(nodeB.add(key)).isFalse();
+    }
+
+    @Test
+    void confirmFromAnotherNodeDoesNotOverwriteTheClaim() throws Exception {
+        SharedFileIdempotentRepository nodeA = node("node-a");
+        SharedFileIdempotentRepository nodeB = node("node-b");
+        String key = "notes.txt-10-1700000000000";
+
+        assertThat(nodeA.add(key)).isTrue();
+        assertThat(nodeB.confirm(key)).isFalse();
+        assertThat(Files.readString(singleLock())).startsWith("CLAIMED\nnode-a\n");
+        assertThat(nodeA.confirm(key)).isTrue();
+        assertThat(nodeA.confirm(key)).isTrue();
+    }
+
+    @Test
+    void staleClaimIsTakenOverByAnotherNode() throws Exception {
+        SharedFileIdempotentRepository nodeA = node("node-a", Duration.ofSeconds(30), Duration.ofDays(7));
+        SharedFileIdempotentRepository nodeB = node("node-b", Duration.ofSeconds(30), Duration.ofDays(7));
+        String key = "slides.pdf-4096-1700000000000";
+
+        assertThat(nodeA.add(key)).isTrue();
+        assertThat(nodeB.add(key)).isFalse();
+
+        Files.setLastModifiedTime(singleLock(), FileTime.from(Instant.now().minus(Duration.ofMinutes(5))));
+        assertThat(nodeB.contains(key)).isFalse();
+        assertThat(nodeB.add(key)).isTrue();
+        assertThat(Files.readString(singleLock())).startsWith("CLAIMED\nnode-b\n");
+
+        // Il nodo che ha perso il claim non può più confermarlo
+        assertThat(nodeA.confirm(key)).isFalse();
+    }
+
+    @Test
+    void twoNodesRacingForAStaleClaimTakeItOverOnce() throws Exception {
+        SharedFileIdempotentRepository nodeA = node("node-a", Duration.ofSeconds(30), Duration.ofDays(7));
+        SharedFileIdempotentRepository nodeB = node("node-b", Duration.ofSeconds(30), Duration.ofDays(7));
+        SharedFileIdempotentRepository nodeC = node("node-c", Duration.ofSeconds(30), Duration.ofDays(7));
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 200; i++) {
+                String key = "stale-" + i + ".pdf-1024-1700000000000";
+                assertThat(nodeA.add(key)).isTrue();
+                Path lock = ReflectionTestUtils.invokeMethod(nodeA, "lockFile", key);
+                Files.setLastModifiedTime(lock, FileTime.from(Instant.now().minus(Duration.ofMinutes(5))));
+
+                CountDownLatch start = new CountDownLatch(1);
+                Future<Boolean> b = pool.submit(() -> { start.await(); return nodeB.add(key); });
+                Future<Boolean> c = pool.submit(() -> { start.await(); return nodeC.add(key); });
+                start.countDown();
+
+                boolean bWon = b.get();
+                assertThat(bWon ^ c.get()).as("un solo nodo recupera %s", key).isTrue();
+                // Il lock resta quello del vincitore, non spostato dal nodo che ha perso
+                assertThat(readQuietly(lock)).startsWith("CLAIMED\n" + (bWon ? "node-b" : "node-c") + "\n");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String readQuietly(Path lock) {
+        try {
+            return Files.readString(lock);
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    @Test
+    void rollbackReleasesTheFileForOtherNodes() throws Exception {
+        SharedFileIdempotentRepository nodeA = node("node-a");
+        SharedFileIdempotentRepository nodeB = node("node-b");
+        String key = "sheet.xlsx-512-1700000000000";
+
+        assertThat(nodeA.add(key)).isTrue();
+        assertThat(nodeA.remove(key)).isTrue();
+        assertThat(nodeB.contains(key)).isFalse();
+        assertThat(nodeB.add(key)).isTrue();
+    }
+
+    @Test
+    void expiredDoneLocksArePurged() throws Exception {
+        SharedFileIdempotentRepository nodeA = node("node-a", Duration.ofMinutes(1), Duration.ofHours(1));
+        String key = "old.pdf-1-1700000000000";
+
+        assertThat(nodeA.add(key)).isTrue();
+        assertThat(nodeA.confirm(key)).isTrue();
+        Files.setLastModifiedTime(singleLock(), FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+
+        nodeA.purgeExpiredDone();
+
+        assertThat(nodeA.contains(key)).isFalse();
+        try (DirectoryStream<Path> locks = Files.newDirectoryStream(lockDir, "*.lock")) {
+            assertThat(locks.iterator().hasNext()).isFalse();
+        }
+    }
+
+    private Path singleLock() throws Exception {
+        try (DirectoryStream<Path> locks = Files.newDirectoryStream(lockDir, "*.lock")) {
+            List<Path> found = new ArrayList<>();
+            locks.forEach(found::add);
+            assertThat(found).hasSize(1);
+            return found.get(0);
+        }
+    }
+}
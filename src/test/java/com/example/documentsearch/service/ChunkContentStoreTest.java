@@ -0,0 +1,200 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.model.SearchDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChunkContentStoreTest {
+
+    private static final String TEXT = "x".repeat(100);
+    // magic + lunghezza documentId + documentId di 4 caratteri + chunkIndex + lunghezza testo + testo + CRC32
+    private static final int RECORD_BYTES = 4 + 2 + 4 + 4 + 4 + TEXT.length() + 4;
+
+    @TempDir
+    Path storeDir;
+
+    private ChunkContentStore store(long segmentSize, double garbageRatio) throws IOException {
+        ChunkContentStore store = new ChunkContentStore(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "storeDirectory", storeDir.toString());
+        ReflectionTestUtils.setField(store, "segmentSize", DataSize.ofBytes(segmentSize));
+        ReflectionTestUtils.setField(store, "compactionGarbageRatio", garbageRatio);
+        ReflectionTestUtils.setField(store, "compactionIntervalMillis", 0L);
+        store.init();
+        return store;
+    }
+
+    private ChunkContentStore store() throws IOException {
+        return store(DataSize.ofMegabytes(1).toBytes(), 0.5);
+    }
+
+    private static SearchDocument chunk(String documentId, int chunkIndex, String content) {
+        SearchDocument doc = new SearchDocument();
+        doc.setDocumentId(documentId);
+        doc.setChunkIndex(chunkIndex);
+        doc.setContent(content);
+        return doc;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(storeDir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("segment-")).sorted().toList();
+        }
+    }
+
+    @Test
+    void reopenRestoresChunksAndTombstones() throws Exception {
+        ChunkContentStore store = store();
+        store.append(List.of(chunk("keep", 0, "primo"), chunk("keep", 1, "secondo"), chunk("gone", 0, "eliminato")));
+        store.append(List.of(chunk("keep", 1, "riscritto")));
+        store.delete("gone");
+        store.close();
+
+        ChunkContentStore reopened = store();
+        assertThat(reopened.get("keep", 0)).contains("primo");
+        assertThat(reopened.get("keep", 1)).contains("riscritto");
+        assertThat(reopened.get("gone", 0)).isEmpty();
+        assertThat(reopened.stats()).containsEntry("chunks", 2L).containsEntry("documents", 1);
+    }
+
+    @Test
+    void truncatedTailIsDiscardedOnRecovery() throws Exception {
+        ChunkContentStore store = store();
+        store.append(List.of(chunk("keep", 0, TEXT)));
+        store.append(List.of(chunk("torn", 0, TEXT)));
+        store.close();
+
+        Path segment = segmentFiles().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(2L * RECORD_BYTES - 7); // Crash a metà del secondo record
+        }
+
+        ChunkContentStore reopened = store();
+        assertThat(reopened.get("keep", 0)).contains(TEXT);
+        assertThat(reopened.get("torn", 0)).isEmpty();
+        assertThat(Files.size(segment)).isEqualTo(RECORD_BYTES);
+
+        reopened.append(List.of(chunk("next", 0, TEXT)));
+        reopened.close();
+        assertThat(store().get("next", 0)).contains(TEXT);
+    }
+
+    @Test
+    void recordWithBadChecksumIsDiscardedOnRecovery() throws Exception {
+        ChunkContentStore store = store();
+        store.append(List.of(chunk("keep", 0, TEXT), chunk("flip", 0, TEXT)));
+        store.close();
+
+        Path segment = segmentFiles().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(2L * RECORD_BYTES - 10); // Un byte del testo del secondo record
+            file.write('y');
+        }
+
+        ChunkContentStore reopened = store();
+        assertThat(reopened.get("keep", 0)).contains(TEXT);
+        assertThat(reopened.get("flip", 0)).isEmpty();
+        assertThat(Files.size(segment)).isEqualTo(RECORD_BYTES);
+    }
+
+    @Test
+    void compactionRemovesOverwrittenAndDeletedRecords() throws Exception {
+        ChunkContentStore store = store(2L * RECORD_BYTES, 0.5); // Due record per segmento
+        store.append(List.of(chunk("keep", 0, TEXT), chunk("gone", 0, TEXT)));
+        store.append(List.of(chunk("over", 0, TEXT), chunk("over", 1, TEXT)));
+        store.append(List.of(chunk("over", 0, TEXT.toUpperCase())));
+        store.delete("gone");
+        long before = store.totalBytes();
+
+        long reclaimed = store.compact();
+
+        assertThat(reclaimed).isPositive();
+        assertThat(store.totalBytes()).isLessThan(before);
+        assertThat(store.get("keep", 0)).contains(TEXT);
+        assertThat(store.get("over", 0)).contains(TEXT.toUpperCase());
+        assertThat(store.get("over", 1)).contains(TEXT);
+        assertThat(store.get("gone", 0)).isEmpty();
+        store.close();
+
+        ChunkContentStore reopened = store(2L * RECORD_BYTES, 0.5);
+        assertThat(reopened.get("keep", 0)).contains(TEXT);
+        assertThat(reopened.get("over", 0)).contains(TEXT.toUpperCase());
+        assertThat(reopened.get("gone", 0)).isEmpty();
+        assertThat(reopened.stats()).containsEntry("chunks", 3L);
+    }
+
+    @Test
+    void tombstoneIsCarriedForwardWhileOlderSegmentsHoldTheDocument() throws Exception {
+        ChunkContentStore store = store(2L * RECORD_BYTES + 10, 0.9);
+        store.append(List.of(chunk("keep", 0, TEXT), chunk("gone", 0, TEXT))); // segmento 0, resta (metà vivo)
+        store.delete("gone"); // tombstone nel segmento 1
+        store.append(List.of(chunk("fill", 0, TEXT)));
+        store.append(List.of(chunk("fill", 0, TEXT.toUpperCase()))); // segmento 2: il segmento 1 è tutto da eliminare
+
+        store.compact();
+        assertThat(segmentFiles()).hasSize(2);
+        store.close();
+
+        ChunkContentStore reopened = store(2L * RECORD_BYTES + 10, 0.9);
+        assertThat(reopened.get("gone", 0)).isEmpty();
+        assertThat(reopened.get("keep", 0)).contains(TEXT);
+        assertThat(reopened.get("fill", 0)).contains(TEXT.toUpperCase());
+    }
+
+    @Test
+    void compactionWaitsWhenADeletedDocumentWasIndexedAgain() throws Exception {
+        ChunkContentStore store = store(3L * RECORD_BYTES + 10, 0.9); // Tre record per segmento
+        store.append(List.of(chunk("keep", 0, TEXT), chunk("back", 0, TEXT), chunk("back", 1, TEXT))); // segmento 0
+        store.delete("back"); // tombstone nel segmento 1
+        store.append(List.of(chunk("fill", 0, TEXT)));
+        store.append(List.of(chunk("fill", 0, TEXT)));
+        store.append(List.of(chunk("fill", 0, TEXT.toUpperCase()))); // segmento 2
+        store.append(List.of(chunk("back", 0, "di nuovo")));
+
+        store.compact();
+        assertThat(segmentFiles()).hasSize(3); // Il tombstone del segmento 1 serve ancora
+        store.close();
+
+        // Il chunk 1 della versione eliminata non deve tornare
+        ChunkContentStore reopened = store(3L * RECORD_BYTES + 10, 0.9);
+        assertThat(reopened.get("back", 0)).contains("di nuovo");
+        assertThat(reopened.get("back", 1)).isEmpty();
+        assertThat(reopened.get("fill", 0)).contains(TEXT.toUpperCase());
+    }
+
+    @Test
+    void servedBytesAreReportedPerOperation() throws Exception {
+        ChunkContentStore store = store();
+        store.recordServed("raw", 120);
+        store.recordServed("raw", 80);
+        store.recordServed("search", 0);
+
+        assertThat(store.stats().get("servedBytes"))
+                .isEqualTo(Map.of("raw", Map.of("responses", 2L, "bytes", 200L)));
+    }
+
+    @Test
+    void refusesToStartInClusterMode() {
+        ChunkContentStore store = new ChunkContentStore(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "storeDirectory", storeDir.toString());
+        ReflectionTestUtils.setField(store, "clusterEnabled", true);
+
+        assertThatThrownBy(store::init).isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("file-polling.cluster.enabled");
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.documentsearch.service;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.UncategorizedElasticsearchException;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChunkIndexerTest {
+
+    private static BulkFailureException bulkFailure(Map<String, BulkFailureException.FailureDetails> failed) {
+        return new BulkFailureException("Bulk operation has failures", failed);
+    }
+
+    private static ElasticsearchException clusterError(int status, String type) {
+        return new ElasticsearchException("bulk", ErrorResponse.of(r -> r
+                .status(status)
+                .error(e -> e.type(type).reason(type))));
+    }
+
+    @Test
+    void bulkWithOnlyRejectedItemsIsARejection() {
+        BulkFailureException failure = bulkFailure(Map.of(
+                "doc_1", new BulkFailureException.FailureDetails(429, "es_rejected_execution_exception"),
+                "doc_2", new BulkFailureException.FailureDetails(429, "es_rejected_execution_exception")));
+
+        assertThat(ChunkIndexer.isRejection(failure)).isTrue();
+        assertThat(ChunkIndexer.isRejection(new RuntimeException("wrapped", failure))).isTrue();
+    }
+
+    @Test
+    void bulkWithOtherItemErrorsIsNotRetried() {
+        BulkFailureException failure = bulkFailure(Map.of(
+                "doc_1", new BulkFailureException.FailureDetails(429, "es_rejected_execution_exception"),
+                "doc_2", new BulkFailureException.FailureDetails(400, "mapper_parsing_exception")));
+
+        assertThat(ChunkIndexer.isRejection(failure)).isFalse();
+        assertThat(ChunkIndexer.isRejection(bulkFailure(Map.of(
+                "doc_1", new BulkFailureException.FailureDetails(null, "unknown"))))).isFalse();
+    }
+
+    @Test
+    void requestLevelStatusIsUsed() {
+        assertThat(ChunkIndexer.isRejection(clusterError(429, "circuit_breaking_exception"))).isTrue();
+        assertThat(ChunkIndexer.isRejection(new UncategorizedElasticsearchException("rejected", 429, null, null)))
+                .isTrue();
+        assertThat(ChunkIndexer.isRejection(clusterError(400, "illegal_argument_exception"))).isFalse();
+        assertThat(ChunkIndexer.isRejection(new UncategorizedElasticsearchException("failed", 500, null, null)))
+                .isFalse();
+    }
+
+    @Test
+    void messageTextAloneIsNotARejection() {
+        assertThat(ChunkIndexer.isRejection(new RuntimeException("429 Too Many Requests"))).isFalse();
+        assertThat(ChunkIndexer.isRejection(new RuntimeException("es_rejected_execution_exception"))).isFalse();
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.documentsearch.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ElasticsearchCircuitBreakerTest {
+
+    private ElasticsearchCircuitBreaker breaker(int threshold, Duration openDuration) {
+        return new ElasticsearchCircuitBreaker(threshold, openDuration, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        ElasticsearchCircuitBreaker breaker = breaker(3, Duration.ofMinutes(1));
+
+        breaker.onFailure();
+        breaker.onFailure();
+        assertThat(breaker.tryAcquire()).isNotNull();
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(ElasticsearchCircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isNull();
+        assertThat(breaker.isAvailable()).isFalse();
+    }
+
+    @Test
+    void halfOpenLetsOneProbeThrough() {
+        ElasticsearchCircuitBreaker breaker = breaker(1, Duration.ZERO);
+        breaker.onFailure();
+
+        ElasticsearchCircuitBreaker.Permit probe = breaker.tryAcquire();
+
+        assertThat(probe).isNotNull();
+        assertThat(probe.probe()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(ElasticsearchCircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isNull();
+        assertThat(breaker.isAvailable()).isFalse();
+    }
+
+    @Test
+    void successfulProbeClosesTheCircuit() {
+        ElasticsearchCircuitBreaker breaker = breaker(1, Duration.ZERO);
+        breaker.onFailure();
+        ElasticsearchCircuitBreaker.Permit probe = breaker.tryAcquire();
+
+        breaker.onSuccess();
+        breaker.onProbeAborted(probe); // finally dopo l'esito: nessun effetto
+
+        assertThat(breaker.getState()).isEqualTo(ElasticsearchCircuitBreaker.State.CLOSED);
+        ElasticsearchCircuitBreaker.Permit next = breaker.tryAcquire();
+        assertThat(next).isNotNull();
+        assertThat(next.probe()).isFalse();
+    }
+
+    @Test
+    void failedProbeReopensTheCircuit() {
+        ElasticsearchCircuitBreaker breaker = breaker(1, Duration.ofMinutes(1));
+        breaker.onFailure();
+        // Con open-duration di un minuto il circuito resta aperto
+        assertThat(breaker.tryAcquire()).isNull();
+
+        ElasticsearchCircuitBreaker quick = breaker(1, Duration.ZERO);
+        quick.onFailure();
+        quick.tryAcquire();
+        quick.onFailure();
+
+        assertThat(quick.getState()).isEqualTo(ElasticsearchCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void abortedProbeFreesTheProbeSlot() {
+        ElasticsearchCircuitBreaker breaker = breaker(1, Duration.ZERO);
+        breaker.onFailure();
+        ElasticsearchCircuitBreaker.Permit probe = breaker.tryAcquire();
+
+        breaker.onProbeAborted(probe);
+
+        assertThat(breaker.getState()).isEqualTo(ElasticsearchCircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.isAvailable()).isTrue();
+        ElasticsearchCircuitBreaker.Permit next = breaker.tryAcquire();
+        assertThat(next).isNotNull();
+        assertThat(next.probe()).isTrue();
+    }
+
+    @Test
+    void staleAbortDoesNotReleaseANewerProbe() {
+        ElasticsearchCircuitBreaker breaker = breaker(1, Duration.ZERO);
+        breaker.onFailure();
+        ElasticsearchCircuitBreaker.Permit first = breaker.tryAcquire();
+        breaker.onFailure(); // La prima prova fallisce: circuito di nuovo aperto
+        ElasticsearchCircuitBreaker.Permit second = breaker.tryAcquire();
+        assertThat(second).isNotNull();
+
+        breaker.onProbeAborted(first); // finally in ritardo della prima prova
+
+        assertThat(breaker.tryAcquire()).isNull();
+        breaker.onProbeAborted(second);
+        assertThat(breaker.tryAcquire()).isNotNull();
+    }
+
+    @Test
+    void abortingANormalPermitHasNoEffect() {
+        ElasticsearchCircuitBreaker breaker = breaker(3, Duration.ZERO);
+        ElasticsearchCircuitBreaker.Permit permit = breaker.tryAcquire();
+
+        breaker.onProbeAborted(permit);
+        breaker.onProbeAborted(null);
+
+        assertThat(breaker.getState()).isEqualTo(ElasticsearchCircuitBreaker.State.CLOSED);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.model.IngestCheckpoint;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IngestJournalTest {
+
+    private static final byte[] BYTES = "contenuto".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path journalDir;
+
+    private IngestJournal journal() throws Exception {
+        IngestJournal journal = new IngestJournal(new ObjectMapper().registerModule(new JavaTimeModule()));
+        ReflectionTestUtils.setField(journal, "journalDirectory", journalDir.toString());
+        journal.init();
+        return journal;
+    }
+
+    @Test
+    void sameContentUnderAnotherFilenameIsADifferentCheckpoint() throws Exception {
+        IngestJournal journal = journal();
+        journal.begin("doc-1", "a.pdf", "sum", BYTES, null, 100);
+        IngestCheckpoint other = journal.begin("doc-2", "b.pdf", "sum", BYTES, null, 100);
+
+        assertThat(other.getDocumentId()).isEqualTo("doc-2");
+        assertThat(journal.pending()).hasSize(2);
+    }
+
+    @Test
+    void checkpointInFlightCannotBeResumedOrReopened() throws Exception {
+        IngestJournal journal = journal();
+        IngestCheckpoint checkpoint = journal.begin("doc-1", "a.pdf", "sum", BYTES, null, 100);
+
+        assertThatThrownBy(() -> journal.resume("a.pdf", "sum"))
+                .isInstanceOf(IngestJournal.IngestInProgressException.class);
+        assertThatThrownBy(() -> journal.begin("doc-2", "a.pdf", "sum", BYTES, null, 100))
+                .isInstanceOf(IngestJournal.IngestInProgressException.class);
+
+        journal.release(checkpoint);
+        assertThat(journal.resume("a.pdf", "sum")).containsSame(checkpoint);
+    }
+
+    @Test
+    void interruptedCheckpointIsResumableAfterRestart() throws Exception {
+        IngestCheckpoint checkpoint = journal().begin("doc-1", "a.pdf", "sum", BYTES, null, 100);
+        checkpoint.setTotalChunks(10);
+
+        IngestJournal restarted = journal();
+        IngestCheckpoint resumed = restarted.resume("a.pdf", "sum").orElseThrow();
+
+        assertThat(resumed.getDocumentId()).isEqualTo("doc-1");
+        assertThat(resumed.getLastAckedChunk()).isEqualTo(-1);
+        assertThat(restarted.resume("b.pdf", "sum")).isEmpty();
+    }
+
+    @Test
+    void acknowledgedChunkSurvivesRestart() throws Exception {
+        IngestJournal journal = journal();
+        IngestCheckpoint checkpoint = journal.begin("doc-1", "a.pdf", "sum", BYTES, null, 100);
+        journal.acknowledge(checkpoint, 7);
+
+        assertThat(journal().resume("a.pdf", "sum").orElseThrow().getLastAckedChunk()).isEqualTo(7);
+    }
+
+    @Test
+    void failedCheckpointIsFlaggedForCleanupAndClearedOnResume() throws Exception {
+        IngestJournal journal = journal();
+        IngestCheckpoint checkpoint = journal.begin("doc-1", "a.pdf", "sum", BYTES, null, 100);
+        journal.fail(checkpoint);
+
+        IngestJournal restarted = journal();
+        assertThat(restarted.pending()).singleElement().satisfies(c -> assertThat(c.isFailed()).isTrue());
+        assertThat(restarted.resume("a.pdf", "sum").orElseThrow().isFailed()).isFalse();
+    }
+
+    @Test
+    void completeRemovesCheckpointAndOwnedSourceCopy() throws Exception {
+        IngestJournal journal = journal();
+        IngestCheckpoint checkpoint = journal.begin("doc-1", "a.pdf", "sum", BYTES, null, 100);
+        Path copy = Paths.get(checkpoint.getSourceFile());
+        assertThat(copy).exists();
+
+        journal.complete(checkpoint);
+
+        assertThat(copy).doesNotExist();
+        assertThat(journal.pending()).isEmpty();
+        assertThat(journal().pending()).isEmpty();
+        assertThat(journal.begin("doc-2", "a.pdf", "sum", BYTES, null, 100).getDocumentId()).isEqualTo("doc-2");
+    }
+
+    @Test
+    void discardSkipsCheckpointsInFlight() throws Exception {
+        IngestJournal journal = journal();
+        IngestCheckpoint checkpoint = journal.begin("doc-1", "a.pdf", "sum", BYTES, null, 100);
+
+        assertThat(journal.discard("doc-1")).isFalse();
+        journal.release(checkpoint);
+        assertThat(journal.discard("doc-1")).isTrue();
+
+        assertThat(journal.pending()).isEmpty();
+        assertThat(journal().pending()).isEmpty();
+        assertThat(journal.discard("doc-1")).isFalse();
+    }
+
+    @Test
+    void truncatedCheckpointIsIgnoredOnStartup() throws Exception {
+        journal().begin("doc-1", "a.pdf", "sum", BYTES, null, 100);
+        Path file = journalDir.resolve("doc-1.json");
+        byte[] json = Files.readAllBytes(file);
+        Files.write(journalDir.resolve("doc-2.json"), Arrays.copyOf(json, json.length / 2));
+
+        IngestJournal restarted = journal();
+
+        assertThat(restarted.pending()).extracting(IngestCheckpoint::getDocumentId).containsExactly("doc-1");
+    }
+}
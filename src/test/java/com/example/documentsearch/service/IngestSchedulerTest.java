@@ -0,0 +1,140 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.service.IngestScheduler.IngestRejectedException;
+import com.example.documentsearch.service.IngestScheduler.Lane;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IngestSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private IngestScheduler scheduler;
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private IngestScheduler scheduler(int workers, int reserved, Duration waitTarget,
+                                      int interactiveWeight, int asyncWeight, int bulkWeight, int capacity) {
+        scheduler = new IngestScheduler(meterRegistry, workers, reserved, waitTarget,
+                interactiveWeight, asyncWeight, bulkWeight, capacity, capacity, capacity);
+        scheduler.start();
+        return scheduler;
+    }
+
+    /**
+     * Occupa un worker finché il test non rilascia il latch
+     */
+    private CompletableFuture<String> block(Lane lane) throws InterruptedException {
+        CompletableFuture<String> gate = scheduler.submit(lane, () -> {
+            started.countDown();
+            release.await();
+            return "gate";
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        return gate;
+    }
+
+    private static CompletableFuture<Void> all(List<CompletableFuture<String>> futures) {
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    @Test
+    void lanesShareTheWorkerInProportionToTheirWeight() throws Exception {
+        scheduler(1, 0, Duration.ofHours(1), 8, 3, 1, 100);
+        block(Lane.INTERACTIVE);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(scheduler.submit(Lane.BULK, () -> {
+                order.add("bulk");
+                return "bulk";
+            }));
+            futures.add(scheduler.submit(Lane.ASYNC_UPLOAD, () -> {
+                order.add("async");
+                return "async";
+            }));
+        }
+        release.countDown();
+        all(futures).get(5, TimeUnit.SECONDS);
+
+        // Pesi 3:1 mentre entrambe le lane hanno coda: circa 9 upload asincroni ogni 12 dispatch
+        long async = order.subList(0, 12).stream().filter("async"::equals).count();
+        assertThat(async).isBetween(8L, 10L);
+        assertThat(order).hasSize(40);
+    }
+
+    @Test
+    void fullLaneIsRejectedWithRetryAfter() throws Exception {
+        scheduler(1, 0, Duration.ofHours(1), 8, 3, 1, 2);
+        block(Lane.BULK);
+        scheduler.submit(Lane.BULK, () -> "uno");
+        scheduler.submit(Lane.BULK, () -> "due");
+
+        assertThatThrownBy(() -> scheduler.submit(Lane.BULK, () -> "tre"))
+                .isInstanceOfSatisfying(IngestRejectedException.class,
+                        e -> assertThat(e.getRetryAfterSeconds()).isGreaterThanOrEqualTo(1));
+        assertThat(meterRegistry.get("document.scheduler.rejected").tag("lane", "bulk").counter().count())
+                .isEqualTo(1.0);
+        assertThat(scheduler.queued(Lane.BULK)).isEqualTo(2);
+
+        // Le altre lane hanno una coda propria
+        assertThat(scheduler.submit(Lane.ASYNC_UPLOAD, () -> "asincrono")).isNotNull();
+    }
+
+    @Test
+    void reservedWorkerIsLeftToInteractiveUploads() throws Exception {
+        scheduler(2, 1, Duration.ofHours(1), 8, 3, 1, 10);
+        block(Lane.BULK);
+        CompletableFuture<String> bulk = scheduler.submit(Lane.BULK, () -> "bulk");
+
+        assertThat(scheduler.run(Lane.INTERACTIVE, () -> "interattivo")).isEqualTo("interattivo");
+        assertThat(bulk).isNotDone(); // Il secondo worker è riservato: il bulk aspetta il primo
+        assertThat(scheduler.queued(Lane.BULK)).isEqualTo(1);
+
+        release.countDown();
+        assertThat(bulk.get(5, TimeUnit.SECONDS)).isEqualTo("bulk");
+    }
+
+    @Test
+    void interactiveTaskPastTheWaitTargetGoesFirst() throws Exception {
+        scheduler(1, 0, Duration.ZERO, 1, 1, 100, 10);
+        block(Lane.BULK);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(scheduler.submit(Lane.BULK, () -> {
+                order.add("bulk");
+                return "bulk";
+            }));
+        }
+        futures.add(scheduler.submit(Lane.INTERACTIVE, () -> {
+            order.add("interactive");
+            return "interactive";
+        }));
+        release.countDown();
+        all(futures).get(5, TimeUnit.SECONDS);
+
+        assertThat(order).containsExactly("interactive", "bulk", "bulk", "bulk");
+    }
+}
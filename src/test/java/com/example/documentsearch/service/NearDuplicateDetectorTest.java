@@ -0,0 +1,261 @@
+package com.example.documentsearch.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NearDuplicateDetectorTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<NearDuplicateDetector> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeDetectors() throws IOException {
+        for (NearDuplicateDetector detector : opened) {
+            detector.close();
+        }
+    }
+
+    private NearDuplicateDetector detector(String action) throws IOException {
+        NearDuplicateDetector detector = new NearDuplicateDetector(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(detector, "enabled", true);
+        ReflectionTestUtils.setField(detector, "threshold", 0.85);
+        ReflectionTestUtils.setField(detector, "bands", 16);
+        ReflectionTestUtils.setField(detector, "action", action);
+        ReflectionTestUtils.setField(detector, "directory", directory.toString());
+        detector.init();
+        opened.add(detector);
+        return detector;
+    }
+
+    private NearDuplicateDetector detector() throws IOException {
+        return detector("link");
+    }
+
+    private static List<String> words(long seed, int count) {
+        Random random = new Random(seed);
+        List<String> words = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int c = 0; c < 4 + random.nextInt(6); c++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static String text(List<String> words) {
+        return String.join(" ", words);
+    }
+
+    /**
+     * Stesso testo con una parola cambiata ogni 200: similarità di Jaccard degli shingle sopra 0.9
+     */
+    private static String edited(List<String> words) {
+        List<String> copy = new ArrayList<>(words);
+        for (int i = 100; i < copy.size(); i += 200) {
+            copy.set(i, "modificato");
+        }
+        return text(copy);
+    }
+
+    @Test
+    void signatureEstimatesJaccardSimilarity() throws Exception {
+        NearDuplicateDetector detector = detector();
+        List<String> words = words(1, 2000);
+
+        long[] original = detector.signature(text(words));
+        assertThat(detector.signature(text(words).toUpperCase() + " \n")).isEqualTo(original);
+        assertThat(detector.signature("  ,;  ")).isNull();
+
+        long[] near = detector.signature(edited(words));
+        long[] unrelated = detector.signature(text(words(2, 2000)));
+        assertThat(equalValues(original, near)).isGreaterThan(0.85);
+        assertThat(equalValues(original, unrelated)).isLessThan(0.05);
+    }
+
+    private static double equalValues(long[] a, long[] b) {
+        int equal = 0;
+        for (int h = 0; h < a.length; h++) {
+            if (a[h] == b[h]) {
+                equal++;
+            }
+        }
+        return (double) equal / a.length;
+    }
+
+    @Test
+    void nearDuplicateLinksToTheOriginal() throws Exception {
+        NearDuplicateDetector detector = detector();
+        List<String> words = words(1, 2000);
+
+        assertThat(detector.claim("doc-1", "sum-1", "report.pdf", detector.signature(text(words)))).isEmpty();
+        Optional<NearDuplicateDetector.Match> match =
+                detector.claim("doc-2", "sum-2", "report.docx", detector.signature(edited(words)));
+        assertThat(match).hasValueSatisfying(m -> {
+            assertThat(m.checksum()).isEqualTo("sum-1");
+            assertThat(m.filename()).isEqualTo("report.pdf");
+        });
+        assertThat(detector.claim("doc-3", "sum-3", "other.pdf", detector.signature(text(words(2, 2000)))))
+                .isEmpty();
+        assertThat(detector.size()).isEqualTo(3);
+    }
+
+    @Test
+    void sameChecksumIsLeftToTheExactDuplicateCheck() throws Exception {
+        NearDuplicateDetector detector = detector();
+        long[] signature = detector.signature(text(words(1, 2000)));
+
+        assertThat(detector.claim("doc-1", "sum-1", "a.pdf", signature)).isEmpty();
+        assertThat(detector.claim("doc-2", "sum-1", "b.pdf", signature)).isEmpty();
+        assertThat(detector.size()).isEqualTo(1);
+
+        detector.remove("doc-1");
+        assertThat(detector.size()).isEqualTo(1); // doc-2 usa ancora la firma
+        detector.remove("doc-2");
+        assertThat(detector.size()).isZero();
+    }
+
+    @Test
+    void linkedCopyIsUsedWhenTheOriginalIsGone() throws Exception {
+        NearDuplicateDetector detector = detector();
+        List<String> words = words(1, 2000);
+        detector.claim("doc-1", "sum-1", "report.pdf", detector.signature(text(words)));
+        detector.claim("doc-2", "sum-2", "report.docx", detector.signature(edited(words)));
+
+        detector.remove("doc-1");
+
+        assertThat(detector.claim("doc-3", "sum-3", "report.odt", detector.signature(edited(words) + " fine")))
+                .hasValueSatisfying(m -> assertThat(m.checksum()).isEqualTo("sum-2"));
+    }
+
+    @Test
+    void skippedDuplicateIsNotRegistered() throws Exception {
+        NearDuplicateDetector detector = detector("skip");
+        List<String> words = words(1, 2000);
+        detector.claim("doc-1", "sum-1", "report.pdf", detector.signature(text(words)));
+
+        assertThat(detector.claim("doc-2", "sum-2", "report.docx", detector.signature(edited(words)))).isPresent();
+        assertThat(detector.size()).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentNearDuplicatesHaveASingleOriginal() throws Exception {
+        NearDuplicateDetector detector = detector();
+        List<String> words = words(1, 2000);
+        long[] first = detector.signature(text(words));
+        long[] second = detector.signature(edited(words));
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 50; round++) {
+                CountDownLatch start = new CountDownLatch(1);
+                String suffix = "-" + round;
+                Callable<Optional<NearDuplicateDetector.Match>> a = () -> {
+                    start.await();
+                    return detector.claim("a" + suffix, "a" + suffix, "a.pdf", first);
+                };
+                Callable<Optional<NearDuplicateDetector.Match>> b = () -> {
+                    start.await();
+                    return detector.claim("b" + suffix, "b" + suffix, "b.docx", second);
+                };
+                Future<Optional<NearDuplicateDetector.Match>> fa = pool.submit(a);
+                Future<Optional<NearDuplicateDetector.Match>> fb = pool.submit(b);
+                start.countDown();
+
+                // Il primo a registrarsi è l'originale, l'altro lo trova
+                assertThat(fa.get().isPresent() ^ fb.get().isPresent())
+                        .as("round %d", round)
+                        .isTrue();
+                detector.remove("a" + suffix);
+                detector.remove("b" + suffix);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void signaturesAndRemovalsSurviveARestart() throws Exception {
+        NearDuplicateDetector detector = detector();
+        List<String> kept = words(1, 2000);
+        List<String> removed = words(2, 2000);
+        detector.claim("doc-1", "sum-1", "kept.pdf", detector.signature(text(kept)));
+        detector.claim("doc-2", "sum-2", "removed.pdf", detector.signature(text(removed)));
+        detector.remove("doc-2");
+        detector.close();
+
+        NearDuplicateDetector reopened = detector();
+        assertThat(reopened.size()).isEqualTo(1);
+        assertThat(reopened.claim("doc-3", "sum-3", "kept.docx", reopened.signature(edited(kept))))
+                .hasValueSatisfying(m -> assertThat(m.checksum()).isEqualTo("sum-1"));
+        assertThat(reopened.claim("doc-4", "sum-4", "removed.docx", reopened.signature(edited(removed))))
+                .isEmpty();
+    }
+
+    @Test
+    void logWithoutRemovedSignaturesIsRewrittenOnStartup() throws Exception {
+        NearDuplicateDetector detector = detector();
+        for (int i = 0; i < 10; i++) {
+            detector.claim("doc-" + i, "sum-" + i, i + ".pdf", detector.signature(text(words(i, 500))));
+        }
+        for (int i = 1; i < 10; i++) {
+            detector.remove("doc-" + i);
+        }
+        detector.close();
+        Path log = directory.resolve("signatures.bin");
+        long before = Files.size(log);
+
+        NearDuplicateDetector reopened = detector();
+        assertThat(reopened.size()).isEqualTo(1);
+        assertThat(Files.size(log)).isLessThan(before / 5);
+        reopened.close();
+        assertThat(detector().size()).isEqualTo(1);
+    }
+
+    @Test
+    void truncatedRecordIsDiscardedOnStartup() throws Exception {
+        NearDuplicateDetector detector = detector();
+        List<String> complete = words(1, 2000);
+        detector.claim("doc-1", "sum-1", "complete.pdf", detector.signature(text(complete)));
+        detector.close();
+        long firstRecord = Files.size(directory.resolve("signatures.bin"));
+
+        NearDuplicateDetector writer = detector();
+        writer.claim("doc-2", "sum-2", "torn.pdf", writer.signature(text(words(2, 2000))));
+        writer.close();
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("signatures.bin").toFile(), "rw")) {
+            file.setLength(file.length() - 100); // Crash a metà della firma del secondo record
+        }
+
+        NearDuplicateDetector reopened = detector();
+        assertThat(reopened.size()).isEqualTo(1);
+        assertThat(Files.size(directory.resolve("signatures.bin"))).isEqualTo(firstRecord);
+
+        // Le scritture dopo il troncamento restano leggibili
+        reopened.claim("doc-3", "sum-3", "after.pdf", reopened.signature(text(words(3, 2000))));
+        reopened.close();
+        assertThat(detector().size()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.documentsearch.service;
+
+import com.example.documentsearch.backend.SearchBackend;
+import com.example.documentsearch.backend.SearchTrace;
+import com.example.documentsearch.dto.SearchFilters;
+import com.example.documentsearch.dto.SearchResponseDto;
+import com.example.documentsearch.model.SearchDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SearchServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BlockingBackend backend = new BlockingBackend();
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        backend.release.countDown();
+        pool.shutdownNow();
+    }
+
+    private SearchService searchService(int maxConcurrent) {
+        SearchService service = new SearchService(backend, meterRegistry);
+        ReflectionTestUtils.setField(service, "timeout", Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(service, "maxConcurrent", maxConcurrent);
+        ReflectionTestUtils.setField(service, "queueTimeout", Duration.ofMillis(50));
+        ReflectionTestUtils.setField(service, "retryAfter", Duration.ofSeconds(3));
+        service.init();
+        return service;
+    }
+
+    private Future<SearchResponseDto> searchAsync(SearchService service, String query) {
+        return pool.submit(() -> service.search(query, 10, null, false));
+    }
+
+    /**
+     * Attende che le richieste si siano agganciate alla ricerca in corso
+     */
+    private void awaitCoalesced(double expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (coalesced() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(coalesced()).isEqualTo(expected);
+    }
+
+    private double coalesced() {
+        return meterRegistry.get("search.coalesced").counter().count();
+    }
+
+    @Test
+    void identicalConcurrentSearchesShareOneBackendCall() throws Exception {
+        SearchService service = searchService(4);
+
+        List<Future<SearchResponseDto>> futures = new ArrayList<>();
+        futures.add(searchAsync(service, "contratto"));
+        assertThat(backend.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 4; i++) {
+            futures.add(searchAsync(service, "contratto"));
+        }
+        awaitCoalesced(4);
+        backend.release.countDown();
+
+        SearchResponseDto first = futures.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<SearchResponseDto> future : futures) {
+            assertThat(future.get(5, TimeUnit.SECONDS)).isSameAs(first);
+        }
+        assertThat(first.getResults()).extracting("documentId").containsExactly("doc-contratto");
+        assertThat(backend.calls).hasValue(1);
+    }
+
+    @Test
+    void completedSearchIsNotReused() {
+        SearchService service = searchService(4);
+        backend.release.countDown();
+
+        service.search("contratto", 10, null, false);
+        service.search("contratto", 10, null, false);
+
+        assertThat(backend.calls).hasValue(2);
+        assertThat(coalesced()).isZero();
+    }
+
+    @Test
+    void differentParametersDoNotShareTheSearch() {
+        SearchService service = searchService(4);
+        backend.release.countDown();
+
+        service.search("contratto", 10, null, false);
+        service.search("contratto", 5, null, false);
+        SearchFilters filters = new SearchFilters();
+        filters.setContentTypes(List.of("application/pdf"));
+        service.search("contratto", 10, filters, false);
+        service.search("contratto", 10, null, false, false,
+                new SearchTrace("contratto", true, ObservationRegistry.NOOP)); // Con profilo: risposta diversa
+
+        assertThat(backend.calls).hasValue(4);
+    }
+
+    @Test
+    void backendErrorReachesEveryWaitingRequest() throws Exception {
+        SearchService service = searchService(4);
+        backend.failure = new IllegalStateException("cluster non raggiungibile");
+
+        Future<SearchResponseDto> leader = searchAsync(service, "contratto");
+        assertThat(backend.entered.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<SearchResponseDto> follower = searchAsync(service, "contratto");
+        awaitCoalesced(1);
+        backend.release.countDown();
+
+        for (Future<SearchResponseDto> future : List.of(leader, follower)) {
+            assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IllegalStateException.class);
+        }
+
+        // L'errore non resta in cache: la ricerca successiva richiama il backend
+        backend.failure = null;
+        service.search("contratto", 10, null, false);
+        assertThat(backend.calls).hasValue(2);
+    }
+
+    @Test
+    void searchBeyondTheConcurrencyLimitIsRejected() throws Exception {
+        SearchService service = searchService(1);
+
+        Future<SearchResponseDto> running = searchAsync(service, "contratto");
+        assertThat(backend.entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> service.search("fattura", 10, null, false))
+                .isInstanceOfSatisfying(SearchService.SearchRejectedException.class,
+                        e -> assertThat(e.getRetryAfterSeconds()).isEqualTo(3));
+        assertThat(meterRegistry.get("search.rejected").counter().count()).isEqualTo(1.0);
+
+        backend.release.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS).getResults()).hasSize(1);
+    }
+
+    /**
+     * Backend che blocca ogni ricerca finché il test non rilascia il latch e conta le chiamate
+     */
+    private static final class BlockingBackend implements SearchBackend {
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile RuntimeException failure;
+
+        @Override
+        public String name() {
+            return "test";
+        }
+
+        @Override
+        public ChunkHits search(String query, int maxHits, SearchFilters filters, boolean withFacets, boolean hybrid,
+                                Duration timeout, SearchTrace trace) {
+            calls.incrementAndGet();
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            SearchDocument doc = new SearchDocument();
+            doc.setDocumentId("doc-" + query);
+            doc.setFilename(query + ".pdf");
+            doc.setChunkIndex(0);
+            return new ChunkHits(List.of(new ChunkHit(doc, 1.0, List.of())), 1, Map.of(), false);
+        }
+
+        @Override
+        public List<ChunkHit> searchRaw(String query) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<SearchDocument> indexedFiles() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean documentExists(String filename, String checksum) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<SearchDocument> documentChunks(String documentId, String fileChecksum, int from, int size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> submit(List<SearchDocument> batch) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SearchDocument save(SearchDocument doc) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteDocument(String documentId, String fileChecksum) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
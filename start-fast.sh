@@ -0,0 +1,18 @@
+#!/bin/bash
+# Avvio rapido: contesto Spring generato con l'AOT + archivio CDS (Class Data Sharing) delle classi caricate all'avvio.
+# Il primo lancio crea l'archivio con un training run che avvia il contesto e si chiude subito (non contatta Elasticsearch).
+# Per rigenerare l'archivio dopo una nuova build: rm -rf target/app
+set -e
+
+APP_DIR=target/app
+JAVA_OPTS="-Dspring.aot.enabled=true -Dspring.profiles.active=fast-start"
+
+if [ ! -f "$APP_DIR/app.jsa" ]; then
+    mvn -q -Pfast-start -DskipTests package
+    rm -rf "$APP_DIR"
+    java -Djarmode=tools -jar target/documentsearch-0.0.1-SNAPSHOT.jar extract --destination "$APP_DIR"
+    java -XX:ArchiveClassesAtExit="$APP_DIR/app.jsa" -Dspring.context.exit=onRefresh $JAVA_OPTS \
+        -jar "$APP_DIR/documentsearch-0.0.1-SNAPSHOT.jar"
+fi
+
+exec java -XX:SharedArchiveFile="$APP_DIR/app.jsa" $JAVA_OPTS -jar "$APP_DIR/documentsearch-0.0.1-SNAPSHOT.jar" "$@"